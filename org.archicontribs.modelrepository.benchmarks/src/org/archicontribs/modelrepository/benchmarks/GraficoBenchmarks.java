@@ -0,0 +1,90 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.archicontribs.modelrepository.grafico.GraficoModelExporter;
+import org.archicontribs.modelrepository.grafico.GraficoModelImporter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.IArchimateModel;
+
+/**
+ * Benchmarks for exporting and importing Grafico files
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+public class GraficoBenchmarks {
+    
+    @Param({"1000", "10000"})
+    public int elements;
+    
+    private IArchimateModel fModel;
+    
+    private File fTempFolder;
+    private File fExportFolder;
+    private File fImportFolder;
+    
+    @Setup
+    public void setup() throws IOException {
+        fModel = new SyntheticModelGenerator()
+                .setElements(elements)
+                .setRelations(elements)
+                .setViews(elements / 20)
+                .createModel();
+        
+        fTempFolder = Files.createTempDirectory("grafico-benchmarks").toFile(); //$NON-NLS-1$
+        fExportFolder = new File(fTempFolder, "export"); //$NON-NLS-1$
+        fImportFolder = new File(fTempFolder, "import"); //$NON-NLS-1$
+        
+        // Files to import
+        new GraficoModelExporter(fModel, fImportFolder).exportModel();
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteFolder(fTempFolder);
+    }
+    
+    /**
+     * Full export, deleting and writing all files
+     */
+    @Benchmark
+    public File exportModel() throws IOException {
+        new GraficoModelExporter(fModel, fExportFolder).exportModel();
+        return fExportFolder;
+    }
+    
+    /**
+     * Incremental export of an unchanged model
+     */
+    @Benchmark
+    public File exportModelIncremental() throws IOException {
+        GraficoModelExporter exporter = new GraficoModelExporter(fModel, fImportFolder);
+        exporter.setIncremental(true);
+        exporter.exportModel();
+        return fImportFolder;
+    }
+    
+    @Benchmark
+    public IArchimateModel importModel() throws IOException {
+        return new GraficoModelImporter(fImportFolder).importAsModel();
+    }
+}
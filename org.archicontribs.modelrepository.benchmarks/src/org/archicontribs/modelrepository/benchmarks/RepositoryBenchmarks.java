@@ -0,0 +1,199 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.archicontribs.modelrepository.grafico.ArchiRepository;
+import org.archicontribs.modelrepository.grafico.BranchStatus;
+import org.archicontribs.modelrepository.grafico.GraficoModelExporter;
+import org.archicontribs.modelrepository.grafico.IArchiRepository;
+import org.archicontribs.modelrepository.grafico.RepositoryPool;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.transport.RefSpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IFolder;
+
+/**
+ * Benchmarks for repository operations against a local repository with a local bare "origin"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@SuppressWarnings("nls")
+public class RepositoryBenchmarks {
+    
+    private static final String REMOTE_MASTER = Constants.R_REMOTES + IArchiRepository.ORIGIN + "/" + IArchiRepository.MASTER;
+    
+    @Param({"1000", "10000"})
+    public int elements;
+    
+    @Param({"1", "20"})
+    public int branches;
+    
+    private IArchimateModel fModel;
+    private IArchiRepository fRepository;
+    
+    private File fTempFolder;
+    
+    private int fChangeCount;
+    
+    // Commits that the remote tracking branch of master is moved between
+    private ObjectId fRemoteCommitId, fLocalCommitId;
+    
+    @Setup
+    public void setup() throws IOException, GitAPIException, URISyntaxException {
+        fModel = new SyntheticModelGenerator()
+                .setElements(elements)
+                .setRelations(elements)
+                .setViews(elements / 20)
+                .createModel();
+        
+        fTempFolder = Files.createTempDirectory("repository-benchmarks").toFile();
+        
+        // Bare repository as the remote
+        File remoteFolder = new File(fTempFolder, "remote.git");
+        Git.init().setBare(true).setDirectory(remoteFolder).call().close();
+        
+        fRepository = new ArchiRepository(new File(fTempFolder, "local"));
+        
+        try(Git git = fRepository.createNewLocalGitRepository(remoteFolder.toURI().toString())) {
+            exportModel();
+            fRepository.commitChanges("Initial commit", false);
+            
+            // Branches, each with a commit of its own
+            for(int i = 1; i < branches; i++) {
+                git.checkout().setName(IArchiRepository.MASTER).call();
+                git.checkout().setCreateBranch(true).setName("branch" + i).call();
+                changeModel();
+                fRepository.commitChanges("Commit on branch" + i, false);
+            }
+            
+            git.checkout().setName(IArchiRepository.MASTER).call();
+            
+            // Push all branches and get remote tracking refs
+            git.push().setRemote(IArchiRepository.ORIGIN).setRefSpecs(new RefSpec("refs/heads/*:refs/heads/*")).call();
+            git.fetch().setRemote(IArchiRepository.ORIGIN).call();
+            
+            fRemoteCommitId = git.getRepository().resolve(REMOTE_MASTER);
+        }
+        
+        // Local commits ahead of the remote
+        for(int i = 0; i < 5; i++) {
+            changeModel();
+            RevCommit commit = fRepository.commitChanges("Local commit " + i, false);
+            if(fLocalCommitId == null) {
+                fLocalCommitId = commit;
+            }
+        }
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException {
+        RepositoryPool.clear();
+        FileUtils.deleteFolder(fTempFolder);
+    }
+    
+    /**
+     * Changes the model and exports it before each invocation of the benchmarks that need something to commit
+     */
+    @State(Scope.Thread)
+    public static class ChangedModel {
+        @Setup(Level.Invocation)
+        public void setup(RepositoryBenchmarks benchmarks) throws IOException {
+            benchmarks.changeModel();
+        }
+    }
+    
+    /**
+     * Moves the remote tracking branch of master before each invocation of the benchmarks that need a BranchStatus
+     * that is not cached, as a fetch or a push would
+     */
+    @State(Scope.Thread)
+    public static class MovedRef {
+        private boolean fAhead;
+        
+        @Setup(Level.Invocation)
+        public void setup(RepositoryBenchmarks benchmarks) throws IOException {
+            fAhead = !fAhead;
+            benchmarks.moveRemoteRef(fAhead ? benchmarks.fLocalCommitId : benchmarks.fRemoteCommitId);
+        }
+    }
+    
+    private void moveRemoteRef(ObjectId commitId) throws IOException {
+        try(Repository repository = RepositoryPool.open(fRepository.getLocalRepositoryFolder())) {
+            RefUpdate refUpdate = repository.updateRef(REMOTE_MASTER);
+            refUpdate.setNewObjectId(commitId);
+            
+            RefUpdate.Result result = refUpdate.forceUpdate();
+            if(result != RefUpdate.Result.FORCED && result != RefUpdate.Result.FAST_FORWARD) {
+                throw new IOException("Could not update " + REMOTE_MASTER + ": " + result);
+            }
+        }
+    }
+    
+    /**
+     * Change an element in the Business folder and export the model
+     */
+    private void changeModel() throws IOException {
+        IFolder folder = fModel.getFolder(FolderType.BUSINESS);
+        ((IArchimateElement)folder.getElements().get(0)).setDocumentation("Change " + fChangeCount++);
+        exportModel();
+    }
+    
+    private void exportModel() throws IOException {
+        GraficoModelExporter exporter = new GraficoModelExporter(fModel, fRepository.getLocalRepositoryFolder());
+        exporter.setIncremental(true);
+        exporter.exportModel();
+    }
+    
+    @Benchmark
+    public RevCommit commitChanges(ChangedModel changedModel) throws IOException, GitAPIException {
+        return fRepository.commitChanges("Benchmark commit", false);
+    }
+    
+    @Benchmark
+    public boolean hasChangesToCommit(ChangedModel changedModel) throws IOException, GitAPIException {
+        return fRepository.hasChangesToCommit();
+    }
+    
+    @Benchmark
+    public BranchStatus getBranchStatus(MovedRef movedRef) throws IOException, GitAPIException {
+        return fRepository.getBranchStatus();
+    }
+    
+    /**
+     * The refs have not changed so this is the cached BranchStatus
+     */
+    @Benchmark
+    public BranchStatus getBranchStatus_Unchanged() throws IOException, GitAPIException {
+        return fRepository.getBranchStatus();
+    }
+}
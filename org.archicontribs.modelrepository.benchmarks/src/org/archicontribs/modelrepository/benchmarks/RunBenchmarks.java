@@ -0,0 +1,57 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.benchmarks;
+
+import java.io.File;
+
+import org.junit.Test;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all benchmarks in this package
+ * 
+ * Run this class as a "JUnit Plug-in Test" (headless, no UI thread needed) so that the Archi model and editor plug-ins are available.
+ * Benchmarks are run in the same VM (forks = 0) because a forked VM would not have the OSGi environment.
+ * 
+ * Set benchmarks.target in this project as the target platform to add JMH. It wraps jmh-core as the bundle org.openjdk.jmh.core
+ * with a buddy policy so that JMH can load the generated benchmark classes and META-INF/BenchmarkList from this fragment.
+ * The benchmark classes are generated by the JMH annotation processor, which is enabled in this project's settings and factory path.
+ * The factory path uses the JMH jars in the local Maven repository (M2_REPO), which are downloaded when the target is resolved.
+ * 
+ * Results are written as JSON so that runs can be compared between releases. Set the system properties:
+ * 
+ *   benchmarks.include - regular expression of benchmarks to run (default is all in this package)
+ *   benchmarks.result  - path of the JSON results file (default is "jmh-result.json" in the temp folder)
+ * 
+ * Throughput is reported as operations per minute and the GC profiler reports allocation rates.
+ */
+@SuppressWarnings("nls")
+public class RunBenchmarks {
+    
+    @Test
+    public void runBenchmarks() throws RunnerException {
+        String include = System.getProperty("benchmarks.include", RunBenchmarks.class.getPackage().getName() + ".*Benchmarks");
+        String result = System.getProperty("benchmarks.result", new File(System.getProperty("java.io.tmpdir"), "jmh-result.json").getPath());
+        
+        Options options = new OptionsBuilder()
+                .include(include)
+                .forks(0)
+                .warmupIterations(2)
+                .measurementIterations(5)
+                .threads(1)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(result)
+                .build();
+        
+        new Runner(options).run();
+    }
+}
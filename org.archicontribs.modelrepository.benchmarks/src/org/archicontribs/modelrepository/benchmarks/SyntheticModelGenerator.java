@@ -0,0 +1,163 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.archimatetool.editor.model.IArchiveManager;
+import com.archimatetool.model.IArchimateDiagramModel;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.IDiagramModelArchimateConnection;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+import com.archimatetool.model.IDiagramModelImage;
+
+/**
+ * Generates synthetic ArchiMate models of a given size for benchmarks.
+ * The same sizes and seed always give the same model structure.
+ */
+@SuppressWarnings("nls")
+public class SyntheticModelGenerator {
+    
+    private int fElements = 1000;
+    private int fRelations = 1000;
+    private int fViews = 50;
+    private int fElementsPerView = 20;
+    private int fImages = 10;
+    private int fImageSize = 20 * 1024;
+    private long fSeed = 1;
+    
+    public SyntheticModelGenerator setElements(int elements) {
+        fElements = elements;
+        return this;
+    }
+    
+    public SyntheticModelGenerator setRelations(int relations) {
+        fRelations = relations;
+        return this;
+    }
+    
+    public SyntheticModelGenerator setViews(int views) {
+        fViews = views;
+        return this;
+    }
+    
+    public SyntheticModelGenerator setElementsPerView(int elementsPerView) {
+        fElementsPerView = elementsPerView;
+        return this;
+    }
+    
+    public SyntheticModelGenerator setImages(int images) {
+        fImages = images;
+        return this;
+    }
+    
+    public SyntheticModelGenerator setImageSize(int imageSize) {
+        fImageSize = imageSize;
+        return this;
+    }
+    
+    public SyntheticModelGenerator setSeed(long seed) {
+        fSeed = seed;
+        return this;
+    }
+    
+    /**
+     * @return A new model with an Archive Manager set so that it can be exported
+     */
+    public IArchimateModel createModel() throws IOException {
+        Random random = new Random(fSeed);
+        
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        model.setName("Benchmark Model");
+        
+        IArchiveManager archiveManager = IArchiveManager.FACTORY.createArchiveManager(model);
+        model.setAdapter(IArchiveManager.class, archiveManager);
+        
+        // Elements
+        List<IArchimateElement> elements = new ArrayList<>();
+        for(int i = 0; i < fElements; i++) {
+            IArchimateElement element = createElement(i);
+            element.setName("Element " + i);
+            element.setDocumentation("Documentation for element " + i);
+            model.getDefaultFolderForObject(element).getElements().add(element);
+            elements.add(element);
+        }
+        
+        // Relations between random elements
+        List<IArchimateRelationship> relations = new ArrayList<>();
+        for(int i = 0; i < fRelations && !elements.isEmpty(); i++) {
+            IArchimateRelationship relation = IArchimateFactory.eINSTANCE.createAssociationRelationship();
+            relation.setName("Relation " + i);
+            relation.connect(elements.get(random.nextInt(elements.size())), elements.get(random.nextInt(elements.size())));
+            model.getDefaultFolderForObject(relation).getElements().add(relation);
+            relations.add(relation);
+        }
+        
+        // Images
+        List<String> imagePaths = new ArrayList<>();
+        for(int i = 0; i < fImages; i++) {
+            byte[] bytes = new byte[fImageSize];
+            random.nextBytes(bytes);
+            imagePaths.add(archiveManager.addByteContentEntry("images/image" + i + ".png", bytes));
+        }
+        
+        // Views
+        for(int i = 0; i < fViews; i++) {
+            IArchimateDiagramModel dm = IArchimateFactory.eINSTANCE.createArchimateDiagramModel();
+            dm.setName("View " + i);
+            model.getDefaultFolderForObject(dm).getElements().add(dm);
+            
+            List<IDiagramModelArchimateObject> dmos = new ArrayList<>();
+            for(int j = 0; j < fElementsPerView && !elements.isEmpty(); j++) {
+                IDiagramModelArchimateObject dmo = IArchimateFactory.eINSTANCE.createDiagramModelArchimateObject();
+                dmo.setArchimateElement(elements.get(random.nextInt(elements.size())));
+                dmo.setBounds(j * 150, (j % 5) * 80, 120, 55);
+                dm.getChildren().add(dmo);
+                dmos.add(dmo);
+            }
+            
+            // Connect pairs of diagram objects
+            for(int j = 1; j < dmos.size(); j += 2) {
+                IArchimateRelationship relation = IArchimateFactory.eINSTANCE.createAssociationRelationship();
+                relation.connect(dmos.get(j - 1).getArchimateElement(), dmos.get(j).getArchimateElement());
+                model.getDefaultFolderForObject(relation).getElements().add(relation);
+                
+                IDiagramModelArchimateConnection connection = IArchimateFactory.eINSTANCE.createDiagramModelArchimateConnection();
+                connection.setArchimateRelationship(relation);
+                connection.connect(dmos.get(j - 1), dmos.get(j));
+            }
+            
+            if(!imagePaths.isEmpty()) {
+                IDiagramModelImage image = IArchimateFactory.eINSTANCE.createDiagramModelImage();
+                image.setImagePath(imagePaths.get(i % imagePaths.size()));
+                image.setBounds(0, 500, 200, 200);
+                dm.getChildren().add(image);
+            }
+        }
+        
+        return model;
+    }
+    
+    private IArchimateElement createElement(int index) {
+        switch(index % 4) {
+            case 0:
+                return IArchimateFactory.eINSTANCE.createBusinessActor();
+            case 1:
+                return IArchimateFactory.eINSTANCE.createBusinessRole();
+            case 2:
+                return IArchimateFactory.eINSTANCE.createApplicationComponent();
+            default:
+                return IArchimateFactory.eINSTANCE.createNode();
+        }
+    }
+}
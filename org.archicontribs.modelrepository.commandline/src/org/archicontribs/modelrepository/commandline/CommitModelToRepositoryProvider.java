@@ -0,0 +1,135 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.commandline;
+
+import java.io.File;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.archicontribs.modelrepository.grafico.GraficoCommitWriter;
+import org.eclipse.osgi.util.NLS;
+
+import com.archimatetool.commandline.AbstractCommandLineProvider;
+import com.archimatetool.commandline.CommandLineState;
+import com.archimatetool.editor.utils.StringUtils;
+import com.archimatetool.model.IArchimateModel;
+
+/**
+ * Command Line interface for committing the current model to a repository without a working tree
+ * 
+ * Usage - (should be all on one line):
+ * 
+ * Archi -consoleLog -nosplash -application com.archimatetool.commandline.app
+   --modelrepository.commitModel "repoFolder"
+   --modelrepository.commitMessage "message"
+   --modelrepository.commitRef "refs/heads/branch"
+ * 
+ * This will commit the current model as Grafico files to the ref in the repository at repoFolder,
+ * which can be a bare repository. The ref can also be a branch name such as "branch". The default is HEAD. The working tree and index (if any) are not used or updated.
+ * The author and committer are the user set in the repository's config.
+ */
+public class CommitModelToRepositoryProvider extends AbstractCommandLineProvider {
+    
+    static final String PREFIX = Messages.CommitModelToRepositoryProvider_0;
+    
+    static final String OPTION_COMMIT_MODEL = "modelrepository.commitModel"; //$NON-NLS-1$
+    static final String OPTION_COMMIT_MESSAGE = "modelrepository.commitMessage"; //$NON-NLS-1$
+    static final String OPTION_COMMIT_REF = "modelrepository.commitRef"; //$NON-NLS-1$
+    
+    public CommitModelToRepositoryProvider() {
+    }
+    
+    @Override
+    public void run(CommandLine commandLine) throws Exception {
+        if(!hasCorrectOptions(commandLine)) {
+            return;
+        }
+        
+        IArchimateModel model = CommandLineState.getModel();
+        if(model == null) {
+            logError(Messages.CommitModelToRepositoryProvider_1);
+            return;
+        }
+        
+        String sFolder = commandLine.getOptionValue(OPTION_COMMIT_MODEL);
+        if(!StringUtils.isSet(sFolder)) {
+            logError(Messages.CommitModelToRepositoryProvider_2);
+            return;
+        }
+        
+        String message = commandLine.getOptionValue(OPTION_COMMIT_MESSAGE);
+        if(!StringUtils.isSet(message)) {
+            logError(NLS.bind(Messages.CommitModelToRepositoryProvider_3, OPTION_COMMIT_MESSAGE));
+            return;
+        }
+        
+        File folder = new File(sFolder);
+        
+        logMessage(NLS.bind(Messages.CommitModelToRepositoryProvider_4, model.getName(), folder));
+        
+        GraficoCommitWriter writer = new GraficoCommitWriter(folder);
+        
+        String ref = commandLine.getOptionValue(OPTION_COMMIT_REF);
+        if(StringUtils.isSet(ref)) {
+            writer.setRef(ref);
+        }
+        
+        String commitId = writer.commitModel(model, message);
+        
+        if(commitId != null) {
+            logMessage(NLS.bind(Messages.CommitModelToRepositoryProvider_5, commitId));
+        }
+        else {
+            logMessage(Messages.CommitModelToRepositoryProvider_6);
+        }
+    }
+    
+    @Override
+    public Options getOptions() {
+        Options options = new Options();
+        
+        Option option = Option.builder()
+                .longOpt(OPTION_COMMIT_MODEL)
+                .hasArg()
+                .argName(Messages.CommitModelToRepositoryProvider_7)
+                .desc(Messages.CommitModelToRepositoryProvider_8)
+                .build();
+        options.addOption(option);
+        
+        option = Option.builder()
+                .longOpt(OPTION_COMMIT_MESSAGE)
+                .hasArg()
+                .argName(Messages.CommitModelToRepositoryProvider_9)
+                .desc(NLS.bind(Messages.CommitModelToRepositoryProvider_10, OPTION_COMMIT_MODEL))
+                .build();
+        options.addOption(option);
+        
+        option = Option.builder()
+                .longOpt(OPTION_COMMIT_REF)
+                .hasArg()
+                .argName(Messages.CommitModelToRepositoryProvider_11)
+                .desc(NLS.bind(Messages.CommitModelToRepositoryProvider_12, OPTION_COMMIT_MODEL))
+                .build();
+        options.addOption(option);
+        
+        return options;
+    }
+    
+    private boolean hasCorrectOptions(CommandLine commandLine) {
+        return commandLine.hasOption(OPTION_COMMIT_MODEL);
+    }
+    
+    @Override
+    public int getPriority() {
+        return PRIORITY_REPORT_OR_EXPORT;
+    }
+    
+    @Override
+    protected String getLogPrefix() {
+        return PREFIX;
+    }
+}
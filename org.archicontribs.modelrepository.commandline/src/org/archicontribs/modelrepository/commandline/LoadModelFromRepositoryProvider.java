@@ -39,8 +39,11 @@ import com.archimatetool.model.IArchimateModel;
    --modelrepository.userName "userName"
    --modelrepository.passFile "/pathtoPasswordFile"
    --modelrepository.identityFile "/pathtoIdentityFile"
+   --modelrepository.cloneBranch "branch"
+   --modelrepository.cloneNoTags
  * 
  * This will clone an online Archi model repository into clonefolder.
+ * If cloneBranch is set only that branch is cloned, and if cloneNoTags is set tags are not cloned. This makes the clone smaller and quicker.
  * 
  * @author Phillip Beauvoir
  */
@@ -53,6 +56,8 @@ public class LoadModelFromRepositoryProvider extends AbstractCommandLineProvider
     static final String OPTION_USERNAME = "modelrepository.userName"; //$NON-NLS-1$
     static final String OPTION_PASSFILE = "modelrepository.passFile"; //$NON-NLS-1$
     static final String OPTION_SSH_IDENTITY_FILE = "modelrepository.identityFile"; //$NON-NLS-1$
+    static final String OPTION_CLONE_BRANCH = "modelrepository.cloneBranch"; //$NON-NLS-1$
+    static final String OPTION_CLONE_NO_TAGS = "modelrepository.cloneNoTags"; //$NON-NLS-1$
     
     public LoadModelFromRepositoryProvider() {
     }
@@ -123,8 +128,11 @@ public class LoadModelFromRepositoryProvider extends AbstractCommandLineProvider
                 }
             });
             
+            String branch = commandLine.getOptionValue(OPTION_CLONE_BRANCH);
+            boolean noTags = commandLine.hasOption(OPTION_CLONE_NO_TAGS);
+            
             IArchiRepository repo = new ArchiRepository(cloneFolder);
-            repo.cloneModel(url, new UsernamePassword(username, password != null ? password.toCharArray() : null), null);
+            repo.cloneModel(url, new UsernamePassword(username, password != null ? password.toCharArray() : null), null, branch, noTags);
             
             logMessage(Messages.LoadModelFromRepositoryProvider_5);
         }
@@ -222,6 +230,20 @@ public class LoadModelFromRepositoryProvider extends AbstractCommandLineProvider
                 .desc(NLS.bind(Messages.LoadModelFromRepositoryProvider_20, OPTION_CLONE_MODEL))
                 .build();
         options.addOption(option);
+        
+        option = Option.builder()
+                .longOpt(OPTION_CLONE_BRANCH)
+                .hasArg()
+                .argName(Messages.LoadModelFromRepositoryProvider_22)
+                .desc(NLS.bind(Messages.LoadModelFromRepositoryProvider_23, OPTION_CLONE_MODEL))
+                .build();
+        options.addOption(option);
+        
+        option = Option.builder()
+                .longOpt(OPTION_CLONE_NO_TAGS)
+                .desc(NLS.bind(Messages.LoadModelFromRepositoryProvider_24, OPTION_CLONE_MODEL))
+                .build();
+        options.addOption(option);
 
         return options;
     }
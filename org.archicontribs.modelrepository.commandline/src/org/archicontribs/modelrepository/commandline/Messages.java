@@ -6,6 +6,32 @@ public class Messages extends NLS {
 
     private static final String BUNDLE_NAME = "org.archicontribs.modelrepository.commandline.messages"; //$NON-NLS-1$
 
+    public static String CommitModelToRepositoryProvider_0;
+
+    public static String CommitModelToRepositoryProvider_1;
+
+    public static String CommitModelToRepositoryProvider_10;
+
+    public static String CommitModelToRepositoryProvider_11;
+
+    public static String CommitModelToRepositoryProvider_12;
+
+    public static String CommitModelToRepositoryProvider_2;
+
+    public static String CommitModelToRepositoryProvider_3;
+
+    public static String CommitModelToRepositoryProvider_4;
+
+    public static String CommitModelToRepositoryProvider_5;
+
+    public static String CommitModelToRepositoryProvider_6;
+
+    public static String CommitModelToRepositoryProvider_7;
+
+    public static String CommitModelToRepositoryProvider_8;
+
+    public static String CommitModelToRepositoryProvider_9;
+
     public static String LoadModelFromRepositoryProvider_0;
 
     public static String LoadModelFromRepositoryProvider_1;
@@ -36,6 +62,12 @@ public class Messages extends NLS {
 
     public static String LoadModelFromRepositoryProvider_21;
 
+    public static String LoadModelFromRepositoryProvider_22;
+
+    public static String LoadModelFromRepositoryProvider_23;
+
+    public static String LoadModelFromRepositoryProvider_24;
+
     public static String LoadModelFromRepositoryProvider_3;
 
     public static String LoadModelFromRepositoryProvider_4;
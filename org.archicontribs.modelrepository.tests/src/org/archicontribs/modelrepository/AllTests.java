@@ -7,7 +7,17 @@ package org.archicontribs.modelrepository;
 
 
 import org.archicontribs.modelrepository.grafico.ArchiRepositoryTests;
+import org.archicontribs.modelrepository.grafico.BranchStatusTests;
+import org.archicontribs.modelrepository.grafico.GraficoCommitWriterTests;
+import org.archicontribs.modelrepository.grafico.GraficoHistoryIndexTests;
+import org.archicontribs.modelrepository.grafico.GraficoModelExporterTests;
+import org.archicontribs.modelrepository.grafico.GraficoModelImporterTests;
+import org.archicontribs.modelrepository.grafico.GraficoModelLoaderTests;
+import org.archicontribs.modelrepository.grafico.GraficoModelUpdaterTests;
 import org.archicontribs.modelrepository.grafico.GraficoUtilsTests;
+import org.archicontribs.modelrepository.grafico.ModelSnapshotCacheTests;
+import org.archicontribs.modelrepository.grafico.RepositoryMaintenanceTests;
+import org.archicontribs.modelrepository.merge.GraficoMergerTests;
 
 import junit.framework.TestSuite;
 
@@ -19,6 +29,16 @@ public class AllTests {
 
 		suite.addTest(ArchiRepositoryTests.suite());
 		suite.addTest(GraficoUtilsTests.suite());
+		suite.addTest(GraficoModelExporterTests.suite());
+		suite.addTest(GraficoModelImporterTests.suite());
+		suite.addTest(BranchStatusTests.suite());
+		suite.addTest(GraficoCommitWriterTests.suite());
+		suite.addTest(RepositoryMaintenanceTests.suite());
+		suite.addTest(GraficoMergerTests.suite());
+		suite.addTest(GraficoModelUpdaterTests.suite());
+		suite.addTest(ModelSnapshotCacheTests.suite());
+		suite.addTest(GraficoHistoryIndexTests.suite());
+		suite.addTest(GraficoModelLoaderTests.suite());
 		
         return suite;
 	}
@@ -16,10 +16,12 @@ import java.io.FileWriter;
 import java.io.IOException;
 
 import org.archicontribs.modelrepository.GitHelper;
+import org.archicontribs.modelrepository.authentication.UsernamePassword;
 import org.eclipse.jgit.api.AddCommand;
 import org.eclipse.jgit.api.CommitCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.RefSpec;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -45,6 +47,7 @@ public class ArchiRepositoryTests {
     
     @After
     public void runOnceAfterEachTest() throws IOException {
+        RepositoryPool.clear();
         FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
     }
     
@@ -152,5 +155,196 @@ public class ArchiRepositoryTests {
         }
     }
     
+    @Test
+    public void hasLocalChanges_AfterSaveChecksum() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        IArchiRepository repo = new ArchiRepository(localRepoFolder);
+        
+        try(Repository repos = GitHelper.createNewRepository(localRepoFolder)) {
+            File tempFile = repo.getTempModelFile();
+            
+            try(FileWriter fw = new FileWriter(tempFile)) {
+                fw.write("Model 1");
+            }
+            
+            // No checksum saved
+            assertFalse(repo.hasLocalChanges());
+            
+            assertTrue(repo.saveChecksum());
+            assertFalse(repo.hasLocalChanges());
+            
+            // Same size, different content
+            try(FileWriter fw = new FileWriter(tempFile)) {
+                fw.write("Model 2");
+            }
+            assertTrue(repo.hasLocalChanges());
+            
+            // Back to the same content
+            try(FileWriter fw = new FileWriter(tempFile)) {
+                fw.write("Model 1");
+            }
+            assertFalse(repo.hasLocalChanges());
+            
+            // Different size
+            try(FileWriter fw = new FileWriter(tempFile)) {
+                fw.write("Model 1 changed");
+            }
+            assertTrue(repo.hasLocalChanges());
+        }
+    }
 
+    @Test
+    public void commitChanges_StagesAddedModifiedAndDeletedFiles() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        IArchiRepository repo = new ArchiRepository(localRepoFolder);
+        
+        try(Repository repos = GitHelper.createNewRepository(localRepoFolder); Git git = Git.wrap(repos)) {
+            File modelFolder = new File(localRepoFolder, IGraficoConstants.MODEL_FOLDER);
+            modelFolder.mkdirs();
+            
+            File file1 = new File(modelFolder, "file1.txt");
+            File file2 = new File(modelFolder, "file2.txt");
+            
+            try(FileWriter fw = new FileWriter(file1)) {
+                fw.write("One");
+            }
+            try(FileWriter fw = new FileWriter(file2)) {
+                fw.write("Two");
+            }
+            
+            assertNotNull(repo.commitChanges("First", false));
+            assertFalse(repo.hasChangesToCommit());
+            
+            // Modify one, delete one, add one
+            try(FileWriter fw = new FileWriter(file1)) {
+                fw.write("One changed");
+            }
+            file2.delete();
+            try(FileWriter fw = new FileWriter(new File(modelFolder, "file3.txt"))) {
+                fw.write("Three");
+            }
+            
+            assertTrue(repo.hasChangesToCommit());
+            assertNotNull(repo.commitChanges("Second", false));
+            assertTrue(git.status().call().isClean());
+            
+            assertEquals("One changed", new String(repo.getFileContents("model/file1.txt", IGraficoConstants.HEAD)));
+            assertNull(repo.getFileContents("model/file2.txt", IGraficoConstants.HEAD));
+            assertEquals("Three", new String(repo.getFileContents("model/file3.txt", IGraficoConstants.HEAD)));
+            
+            // Nothing to commit
+            assertNull(repo.commitChanges("Third", false));
+        }
+    }
+    
+    @Test
+    public void hasChangesToCommit_OnlyModelAndImagesFolders() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        IArchiRepository repo = new ArchiRepository(localRepoFolder);
+        
+        try(Repository repos = GitHelper.createNewRepository(localRepoFolder)) {
+            assertFalse(repo.hasChangesToCommit());
+            
+            // Not in the model or images folders
+            try(FileWriter fw = new FileWriter(new File(localRepoFolder, "test.txt"))) {
+                fw.write("Test");
+            }
+            assertFalse(repo.hasChangesToCommit());
+            
+            File imagesFolder = new File(localRepoFolder, IGraficoConstants.IMAGES_FOLDER);
+            imagesFolder.mkdirs();
+            try(FileWriter fw = new FileWriter(new File(imagesFolder, "image.png"))) {
+                fw.write("Image");
+            }
+            assertTrue(repo.hasChangesToCommit());
+        }
+    }
+    
+    @Test
+    public void hasRemoteChanges_ComparesRemoteAndTrackingBranches() throws Exception {
+        File remoteRepoFolder = new File(GitHelper.getTempTestsFolder(), "remoteRepo.git");
+        Git.init().setBare(true).setDirectory(remoteRepoFolder).call().close();
+        String URL = remoteRepoFolder.toURI().toString();
+        
+        File otherRepoFolder = new File(GitHelper.getTempTestsFolder(), "otherRepo");
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        IArchiRepository repo = new ArchiRepository(localRepoFolder);
+        UsernamePassword npw = new UsernamePassword("user", "password".toCharArray());
+        
+        try(Git other = Git.cloneRepository().setURI(URL).setDirectory(otherRepoFolder).call();
+                Git git = repo.createNewLocalGitRepository(URL)) {
+            try(FileWriter fw = new FileWriter(new File(otherRepoFolder, "test.txt"))) {
+                fw.write("One");
+            }
+            other.add().addFilepattern(".").call();
+            other.commit().setMessage("One").call();
+            other.push().call();
+            
+            // New branch
+            assertTrue(repo.hasRemoteChanges(npw, 0));
+            repo.fetchFromRemote(npw, null, false);
+            assertFalse(repo.hasRemoteChanges(npw, 0));
+            
+            // Moved branch
+            try(FileWriter fw = new FileWriter(new File(otherRepoFolder, "test.txt"))) {
+                fw.write("Two");
+            }
+            other.commit().setAll(true).setMessage("Two").call();
+            other.push().call();
+            
+            assertTrue(repo.hasRemoteChanges(npw, 0));
+            repo.fetchFromRemote(npw, null, false);
+            assertFalse(repo.hasRemoteChanges(npw, 0));
+            
+            // Deleted branch
+            other.branchCreate().setName("branch").call();
+            other.push().add("branch").call();
+            repo.fetchFromRemote(npw, null, false);
+            assertFalse(repo.hasRemoteChanges(npw, 0));
+            
+            other.push().setRefSpecs(new RefSpec(":refs/heads/branch")).call();
+            assertTrue(repo.hasRemoteChanges(npw, 0));
+            repo.fetchFromRemote(npw, null, false);
+            assertNull(git.getRepository().exactRef("refs/remotes/origin/branch"));
+            assertFalse(repo.hasRemoteChanges(npw, 0));
+        }
+    }
+    
+    @Test
+    public void cloneModel_SingleBranchNoTags() throws Exception {
+        File remoteRepoFolder = new File(GitHelper.getTempTestsFolder(), "remoteRepo.git");
+        Git.init().setBare(true).setDirectory(remoteRepoFolder).call().close();
+        String URL = remoteRepoFolder.toURI().toString();
+        
+        File otherRepoFolder = new File(GitHelper.getTempTestsFolder(), "otherRepo");
+        
+        try(Git other = Git.cloneRepository().setURI(URL).setDirectory(otherRepoFolder).call()) {
+            try(FileWriter fw = new FileWriter(new File(otherRepoFolder, "test.txt"))) {
+                fw.write("One");
+            }
+            other.add().addFilepattern(".").call();
+            other.commit().setMessage("One").call();
+            other.branchCreate().setName("branch").call();
+            other.tag().setName("tag").call();
+            other.push().setPushAll().setPushTags().call();
+        }
+        
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        IArchiRepository repo = new ArchiRepository(localRepoFolder);
+        repo.cloneModel(URL, new UsernamePassword("user", "password".toCharArray()), null, "branch", true);
+        
+        try(Git git = Git.open(localRepoFolder)) {
+            Repository repository = git.getRepository();
+            
+            assertEquals("branch", repository.getBranch());
+            assertNotNull(repository.exactRef("refs/remotes/origin/branch"));
+            assertNull(repository.exactRef("refs/remotes/origin/master"));
+            assertNull(repository.exactRef("refs/tags/tag"));
+            
+            // Later fetches only fetch the branch and no tags
+            assertEquals("+refs/heads/branch:refs/remotes/origin/branch", repository.getConfig().getString("remote", "origin", "fetch"));
+            assertEquals("--no-tags", repository.getConfig().getString("remote", "origin", "tagopt"));
+        }
+    }
+    
 }
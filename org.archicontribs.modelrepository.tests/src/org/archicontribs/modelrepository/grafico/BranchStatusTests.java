@@ -0,0 +1,97 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class BranchStatusTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BranchStatusTests.class);
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        RepositoryPool.clear();
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void getBranchStatus_IsCachedUntilRefsChange() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        IArchiRepository archiRepo = new ArchiRepository(localRepoFolder);
+        
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder)) {
+            Git git = new Git(repository);
+            git.commit().setMessage("Commit 1").call();
+            
+            BranchStatus status = archiRepo.getBranchStatus();
+            assertSame(status, archiRepo.getBranchStatus());
+            
+            git.commit().setMessage("Commit 2").call();
+            assertNotSame(status, archiRepo.getBranchStatus());
+        }
+    }
+    
+    @Test
+    public void getBranchStatus_MergedStatusFollowsRefChanges() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        IArchiRepository archiRepo = new ArchiRepository(localRepoFolder);
+        
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder)) {
+            Git git = new Git(repository);
+            git.commit().setMessage("Commit 1").call();
+            
+            // Same commit as master
+            git.branchCreate().setName("feature").call();
+            assertTrue(getBranch(archiRepo, "feature").isMerged());
+            
+            // Commit on feature
+            git.checkout().setName("feature").call();
+            git.commit().setMessage("Commit 2").call();
+            git.checkout().setName(IGraficoConstants.MASTER).call();
+            assertFalse(getBranch(archiRepo, "feature").isMerged());
+            
+            // New branch containing feature
+            git.branchCreate().setName("other").setStartPoint("feature").call();
+            assertTrue(getBranch(archiRepo, "feature").isMerged());
+            
+            // And delete it again
+            git.branchDelete().setBranchNames("other").setForce(true).call();
+            assertFalse(getBranch(archiRepo, "feature").isMerged());
+            
+            // Master is unchanged
+            assertTrue(getBranch(archiRepo, IGraficoConstants.MASTER).isMerged());
+        }
+    }
+    
+    private BranchInfo getBranch(IArchiRepository archiRepo, String shortName) throws Exception {
+        for(BranchInfo info : archiRepo.getBranchStatus().getLocalBranches()) {
+            if(shortName.equals(info.getShortName())) {
+                return info;
+            }
+        }
+        return null;
+    }
+}
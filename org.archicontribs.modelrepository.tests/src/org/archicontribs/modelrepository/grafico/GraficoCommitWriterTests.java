@@ -0,0 +1,127 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.After;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoCommitWriterTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoCommitWriterTests.class);
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        RepositoryPool.clear();
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void commitModel_BareRepository() throws Exception {
+        File repoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo.git");
+        Git.init().setBare(true).setDirectory(repoFolder).call().close();
+        
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        
+        IArchimateElement element1 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        model.getDefaultFolderForObject(element1).getElements().add(element1);
+        
+        IArchimateElement element2 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        model.getDefaultFolderForObject(element2).getElements().add(element2);
+        
+        String path1 = IGraficoConstants.MODEL_FOLDER + "/" + FolderType.BUSINESS + "/BusinessActor_" + element1.getId() + ".xml";
+        String path2 = IGraficoConstants.MODEL_FOLDER + "/" + FolderType.BUSINESS + "/BusinessActor_" + element2.getId() + ".xml";
+        
+        GraficoCommitWriter writer = new GraficoCommitWriter(repoFolder);
+        writer.setRef("refs/heads/generated");
+        
+        String commitId1 = writer.commitModel(model, "First");
+        assertNotNull(commitId1);
+        
+        // Remove an element
+        model.getDefaultFolderForObject(element2).getElements().remove(element2);
+        
+        String commitId2 = writer.commitModel(model, "Second");
+        assertNotNull(commitId2);
+        
+        // No change so no commit
+        assertNull(writer.commitModel(model, "Third"));
+        
+        try(Repository repository = RepositoryPool.open(repoFolder); RevWalk revWalk = new RevWalk(repository)) {
+            RevCommit commit = revWalk.parseCommit(repository.resolve("refs/heads/generated"));
+            assertEquals(commitId2, commit.getName());
+            assertEquals("Second", commit.getFullMessage());
+            assertEquals(ObjectId.fromString(commitId1), commit.getParent(0));
+            
+            assertTrue(hasPath(repository, commit, path1));
+            assertFalse(hasPath(repository, commit, path2));
+            assertTrue(hasPath(repository, commit, IGraficoConstants.MODEL_FOLDER + "/" + IGraficoConstants.FOLDER_XML));
+        }
+    }
+    
+    @Test
+    public void commitModel_BranchName() throws Exception {
+        File repoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo.git");
+        Git.init().setBare(true).setDirectory(repoFolder).call().close();
+        
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        
+        GraficoCommitWriter writer = new GraficoCommitWriter(repoFolder);
+        writer.setRef("master");
+        
+        String commitId1 = writer.commitModel(model, "First");
+        assertNotNull(commitId1);
+        
+        model.setName("Changed");
+        String commitId2 = writer.commitModel(model, "Second");
+        assertNotNull(commitId2);
+        
+        try(Repository repository = RepositoryPool.open(repoFolder); RevWalk revWalk = new RevWalk(repository)) {
+            RevCommit commit = revWalk.parseCommit(repository.resolve("refs/heads/master"));
+            assertEquals(commitId2, commit.getName());
+            assertEquals(ObjectId.fromString(commitId1), commit.getParent(0));
+            
+            // No top level ref was created
+            assertNull(repository.exactRef("master"));
+            assertFalse(new File(repoFolder, "master").exists());
+        }
+    }
+    
+    private boolean hasPath(Repository repository, RevCommit commit, String path) throws IOException {
+        try(TreeWalk treeWalk = TreeWalk.forPath(repository, path, commit.getTree())) {
+            return treeWalk != null;
+        }
+    }
+}
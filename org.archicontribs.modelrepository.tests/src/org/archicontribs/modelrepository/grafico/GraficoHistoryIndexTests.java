@@ -0,0 +1,78 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.merge.MergeStrategy;
+import org.junit.After;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoHistoryIndexTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoHistoryIndexTests.class);
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        RepositoryPool.clear();
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void get_VersionInHistoryOfHead() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder); Git git = Git.wrap(repository)) {
+            commitFile(git, localRepoFolder, "x.xml", "Base");
+            git.branchCreate().setName("other").call();
+            
+            commitFile(git, localRepoFolder, "x.xml", "Ours");
+            commitFile(git, localRepoFolder, "y.xml", "Ours");
+            assertEquals("Ours", getContents(repository, "x.xml"));
+            
+            git.checkout().setName("other").call();
+            commitFile(git, localRepoFolder, "x.xml", "Theirs");
+            
+            // Only the history of HEAD is used
+            assertEquals("Theirs", getContents(repository, "x.xml"));
+            assertNull(GraficoHistoryIndex.open(repository).get("y.xml"));
+            
+            // Their version is not used when a merge keeps ours
+            git.checkout().setName(IGraficoConstants.MASTER).call();
+            git.merge().include(repository.resolve("other")).setStrategy(MergeStrategy.OURS).setMessage("Merge").call();
+            assertEquals("Ours", getContents(repository, "x.xml"));
+            assertEquals("Ours", getContents(repository, "y.xml"));
+        }
+    }
+    
+    private void commitFile(Git git, File localRepoFolder, String fileName, String contents) throws Exception {
+        Files.write(new File(localRepoFolder, fileName).toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        git.add().addFilepattern(fileName).call();
+        git.commit().setMessage(contents).call();
+    }
+    
+    private String getContents(Repository repository, String fileName) throws IOException {
+        GraficoHistoryIndex.Entry entry = GraficoHistoryIndex.open(repository).get(fileName);
+        return new String(repository.open(entry.blobId).getBytes(), StandardCharsets.UTF_8);
+    }
+}
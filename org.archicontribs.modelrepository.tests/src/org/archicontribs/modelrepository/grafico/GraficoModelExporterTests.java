@@ -0,0 +1,140 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoModelExporterTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoModelExporterTests.class);
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void exportModel_Incremental_OnlyWritesChangedFiles() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        
+        IArchimateElement element1 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        element1.setName("One");
+        model.getDefaultFolderForObject(element1).getElements().add(element1);
+        
+        IArchimateElement element2 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        element2.setName("Two");
+        model.getDefaultFolderForObject(element2).getElements().add(element2);
+        
+        GraficoModelExporter exporter = new GraficoModelExporter(model, localRepoFolder);
+        exporter.setIncremental(true);
+        exporter.exportModel();
+        
+        File businessFolder = new File(localRepoFolder, IGraficoConstants.MODEL_FOLDER + "/" + FolderType.BUSINESS);
+        File file1 = new File(businessFolder, "BusinessActor_" + element1.getId() + ".xml");
+        File file2 = new File(businessFolder, "BusinessActor_" + element2.getId() + ".xml");
+        assertTrue(file1.exists());
+        assertTrue(file2.exists());
+        
+        // Set an old time stamp so that we can see if the files are written again
+        long time = 1000000000000L;
+        file1.setLastModified(time);
+        file2.setLastModified(time);
+        
+        // Change one element, delete the other
+        element1.setDocumentation("Changed");
+        model.getDefaultFolderForObject(element2).getElements().remove(element2);
+        
+        exporter.exportModel();
+        
+        assertTrue(file1.exists());
+        assertTrue(file1.lastModified() != time);
+        assertFalse(file2.exists());
+        
+        // No change so file is not written
+        file1.setLastModified(time);
+        exporter.exportModel();
+        assertEquals(time, file1.lastModified());
+    }
+    
+    @Test
+    public void exportModel_WithRepository_StagesFiles() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        
+        IArchimateElement element1 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        model.getDefaultFolderForObject(element1).getElements().add(element1);
+        
+        IArchimateElement element2 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        model.getDefaultFolderForObject(element2).getElements().add(element2);
+        
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder); Git git = Git.wrap(repository)) {
+            GraficoModelExporter exporter = new GraficoModelExporter(model, localRepoFolder);
+            exporter.setRepository(repository);
+            exporter.exportModel();
+            
+            String path1 = IGraficoConstants.MODEL_FOLDER + "/" + FolderType.BUSINESS + "/BusinessActor_" + element1.getId() + ".xml";
+            String path2 = IGraficoConstants.MODEL_FOLDER + "/" + FolderType.BUSINESS + "/BusinessActor_" + element2.getId() + ".xml";
+            
+            // All files are staged
+            Status status = git.status().call();
+            assertTrue(status.getAdded().contains(path1));
+            assertTrue(status.getAdded().contains(path2));
+            assertTrue(status.getUntracked().isEmpty());
+            assertTrue(status.getModified().isEmpty());
+            
+            git.commit().setMessage("Commit").call();
+            
+            // Change one element, delete the other
+            element1.setName("Changed");
+            model.getDefaultFolderForObject(element2).getElements().remove(element2);
+            
+            exporter.exportModel();
+            assertEquals(Collections.singleton(path1), exporter.getChangedPaths());
+            
+            status = git.status().call();
+            assertEquals(Collections.singleton(path1), status.getChanged());
+            assertEquals(Collections.singleton(path2), status.getRemoved());
+            assertTrue(status.getMissing().isEmpty());
+            assertTrue(status.getModified().isEmpty());
+            
+            // No change so nothing is staged
+            git.commit().setMessage("Commit").call();
+            exporter.exportModel();
+            assertTrue(exporter.getChangedPaths().isEmpty());
+            assertTrue(git.status().call().isClean());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.util.ArchimateModelUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoModelImporterTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoModelImporterTests.class);
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void importAsModel_FromRepositoryTree() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        model.setName("Test Model");
+        
+        IArchimateElement actor = IArchimateFactory.eINSTANCE.createBusinessActor();
+        model.getDefaultFolderForObject(actor).getElements().add(actor);
+        IArchimateElement role = IArchimateFactory.eINSTANCE.createBusinessRole();
+        model.getDefaultFolderForObject(role).getElements().add(role);
+        IArchimateRelationship relation = IArchimateFactory.eINSTANCE.createAssignmentRelationship();
+        relation.connect(actor, role);
+        model.getDefaultFolderForObject(relation).getElements().add(relation);
+        
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder)) {
+            new GraficoModelExporter(model, localRepoFolder).exportModel();
+            
+            Git git = Git.wrap(repository);
+            git.add().addFilepattern(".").call();
+            RevCommit commit = git.commit().setAuthor("Test", "Test").setMessage("Message").call();
+            
+            // Delete the working tree files so that we know they are not used
+            FileUtils.deleteFolder(new File(localRepoFolder, IGraficoConstants.MODEL_FOLDER));
+            
+            GraficoModelImporter importer = new GraficoModelImporter(repository, commit.getTree());
+            IArchimateModel importedModel = importer.importAsModel();
+            
+            assertNotNull(importedModel);
+            assertNull(importer.getUnresolvedObjects());
+            assertEquals("Test Model", importedModel.getName());
+            
+            IArchimateRelationship importedRelation = (IArchimateRelationship)ArchimateModelUtils.getObjectByID(importedModel, relation.getId());
+            assertEquals(actor.getId(), importedRelation.getSource().getId());
+            assertEquals(role.getId(), importedRelation.getTarget().getId());
+        }
+    }
+}
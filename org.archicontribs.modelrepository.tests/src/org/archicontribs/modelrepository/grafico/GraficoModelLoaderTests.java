@@ -0,0 +1,79 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand.ResetType;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Test;
+
+import com.archimatetool.editor.model.IEditorModelManager;
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoModelLoaderTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoModelLoaderTests.class);
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        RepositoryPool.clear();
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void loadModel_SnapshotOfClosedModelIsNotRegistered() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        model.setName("Test");
+        
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder); Git git = Git.wrap(repository)) {
+            new GraficoCommitWriter(localRepoFolder).commitModel(model, "Commit");
+            git.reset().setMode(ResetType.HARD).call();
+            
+            IArchiRepository repo = new ArchiRepository(localRepoFolder);
+            GraficoModelLoader loader = new GraficoModelLoader(repo);
+            
+            // The model is imported and a snapshot of it is saved
+            IArchimateModel importedModel = loader.loadModel();
+            assertEquals("Test", importedModel.getName());
+            assertNull(repo.locateModel());
+            
+            String snapshotKey = ModelSnapshotCache.getKey(repository, repository.resolve("HEAD^{tree}"));
+            assertNotNull(new ModelSnapshotCache(repo, Long.MAX_VALUE).get(snapshotKey));
+            
+            // The model is loaded from the snapshot
+            IArchimateModel snapshotModel = loader.loadModel();
+            assertNotSame(importedModel, snapshotModel);
+            assertEquals("Test", snapshotModel.getName());
+            assertEquals(repo.getTempModelFile(), snapshotModel.getFile());
+            
+            // Neither is registered with the editor model manager
+            assertNull(repo.locateModel());
+            assertFalse(IEditorModelManager.INSTANCE.getModels().contains(snapshotModel));
+        }
+    }
+}
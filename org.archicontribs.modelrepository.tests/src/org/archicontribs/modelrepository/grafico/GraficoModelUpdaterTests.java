@@ -0,0 +1,223 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand.ResetType;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateDiagramModel;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+import com.archimatetool.model.IDiagramModelConnection;
+import com.archimatetool.model.IDiagramModelNote;
+import com.archimatetool.model.IFolder;
+import com.archimatetool.model.util.ArchimateModelUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoModelUpdaterTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoModelUpdaterTests.class);
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        RepositoryPool.clear();
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void updateModel_AddsUpdatesMovesAndDeletesObjects() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        
+        IArchimateElement element1 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        element1.setName("Element 1");
+        model.getDefaultFolderForObject(element1).getElements().add(element1);
+        
+        IArchimateElement element2 = IArchimateFactory.eINSTANCE.createBusinessRole();
+        model.getDefaultFolderForObject(element2).getElements().add(element2);
+        
+        IFolder folder = IArchimateFactory.eINSTANCE.createFolder();
+        folder.setType(FolderType.USER);
+        model.getFolder(FolderType.BUSINESS).getFolders().add(folder);
+        
+        IArchimateDiagramModel dm = IArchimateFactory.eINSTANCE.createArchimateDiagramModel();
+        model.getDefaultFolderForObject(dm).getElements().add(dm);
+        
+        IDiagramModelArchimateObject dmo = IArchimateFactory.eINSTANCE.createDiagramModelArchimateObject();
+        dmo.setArchimateElement(element1);
+        dmo.setBounds(10, 10, 100, 50);
+        dm.getChildren().add(dmo);
+        
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder); Git git = Git.wrap(repository)) {
+            GraficoCommitWriter writer = new GraficoCommitWriter(localRepoFolder);
+            writer.commitModel(model, "Base");
+            git.reset().setMode(ResetType.HARD).setRef("master").call();
+            
+            ObjectId baseTreeId = repository.resolve("HEAD^{tree}");
+            IArchimateModel liveModel = new GraficoModelImporter(localRepoFolder).importAsModel();
+            IArchimateElement liveElement1 = (IArchimateElement)ArchimateModelUtils.getObjectByID(liveModel, element1.getId());
+            IDiagramModelArchimateObject liveDmo = (IDiagramModelArchimateObject)ArchimateModelUtils.getObjectByID(liveModel, dmo.getId());
+            
+            // Rename element 1 and move it into the folder, delete element 2, add element 3 and move the diagram object
+            element1.setName("Changed");
+            folder.getElements().add(element1);
+            model.getDefaultFolderForObject(element2).getElements().remove(element2);
+            IArchimateElement element3 = IArchimateFactory.eINSTANCE.createBusinessEvent();
+            model.getDefaultFolderForObject(element3).getElements().add(element3);
+            dmo.setBounds(20, 30, 100, 50);
+            
+            writer.commitModel(model, "Changes");
+            git.reset().setMode(ResetType.HARD).setRef("master").call();
+            
+            GraficoModelUpdater updater = new GraficoModelUpdater(localRepoFolder, baseTreeId);
+            
+            // Element 1 is deleted and added, element 2 is deleted, element 3 is added and the diagram is modified
+            assertEquals(5, updater.findChanges());
+            assertTrue(updater.updateModel(liveModel));
+            
+            // Objects are updated in place
+            assertSame(liveElement1, ArchimateModelUtils.getObjectByID(liveModel, element1.getId()));
+            assertEquals("Changed", liveElement1.getName());
+            assertEquals(folder.getId(), ((IFolder)liveElement1.eContainer()).getId());
+            
+            assertSame(liveDmo, ArchimateModelUtils.getObjectByID(liveModel, dmo.getId()));
+            assertEquals(20, liveDmo.getBounds().getX());
+            assertEquals(30, liveDmo.getBounds().getY());
+            assertSame(liveElement1, liveDmo.getArchimateElement());
+            
+            assertNull(ArchimateModelUtils.getObjectByID(liveModel, element2.getId()));
+            
+            IArchimateElement liveElement3 = (IArchimateElement)ArchimateModelUtils.getObjectByID(liveModel, element3.getId());
+            assertNotNull(liveElement3);
+            assertSame(liveModel.getFolder(FolderType.BUSINESS), liveElement3.eContainer());
+        }
+    }
+    
+    @Test
+    public void updateModel_ConnectionsReferToObjectsInTheModel() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        
+        IArchimateDiagramModel dm = IArchimateFactory.eINSTANCE.createArchimateDiagramModel();
+        model.getDefaultFolderForObject(dm).getElements().add(dm);
+        
+        IDiagramModelNote note1 = IArchimateFactory.eINSTANCE.createDiagramModelNote();
+        dm.getChildren().add(note1);
+        IDiagramModelNote note2 = IArchimateFactory.eINSTANCE.createDiagramModelNote();
+        dm.getChildren().add(note2);
+        IDiagramModelNote note3 = IArchimateFactory.eINSTANCE.createDiagramModelNote();
+        dm.getChildren().add(note3);
+        
+        IDiagramModelConnection connection = IArchimateFactory.eINSTANCE.createDiagramModelConnection();
+        connection.connect(note1, note2);
+        
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder); Git git = Git.wrap(repository)) {
+            GraficoCommitWriter writer = new GraficoCommitWriter(localRepoFolder);
+            writer.commitModel(model, "Base");
+            git.reset().setMode(ResetType.HARD).setRef("master").call();
+            
+            ObjectId baseTreeId = repository.resolve("HEAD^{tree}");
+            IArchimateModel liveModel = new GraficoModelImporter(localRepoFolder).importAsModel();
+            IDiagramModelConnection liveConnection = (IDiagramModelConnection)ArchimateModelUtils.getObjectByID(liveModel, connection.getId());
+            IDiagramModelNote liveNote3 = (IDiagramModelNote)ArchimateModelUtils.getObjectByID(liveModel, note3.getId());
+            
+            // Reconnect the connection to note 3 and add a note
+            connection.connect(note1, note3);
+            IDiagramModelNote note4 = IArchimateFactory.eINSTANCE.createDiagramModelNote();
+            dm.getChildren().add(note4);
+            
+            writer.commitModel(model, "Changes");
+            git.reset().setMode(ResetType.HARD).setRef("master").call();
+            
+            GraficoModelUpdater updater = new GraficoModelUpdater(localRepoFolder, baseTreeId);
+            assertEquals(1, updater.findChanges());
+            assertTrue(updater.updateModel(liveModel));
+            
+            assertSame(liveConnection, ArchimateModelUtils.getObjectByID(liveModel, connection.getId()));
+            assertSame(liveNote3, liveConnection.getTarget());
+            assertTrue(liveNote3.getTargetConnections().contains(liveConnection));
+            assertNotNull(ArchimateModelUtils.getObjectByID(liveModel, note4.getId()));
+        }
+    }
+    
+    @Test
+    public void updateModel_FolderChangeIsNotApplied() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        
+        IArchimateElement element = IArchimateFactory.eINSTANCE.createBusinessActor();
+        element.setName("Element");
+        model.getDefaultFolderForObject(element).getElements().add(element);
+        
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder); Git git = Git.wrap(repository)) {
+            GraficoCommitWriter writer = new GraficoCommitWriter(localRepoFolder);
+            writer.commitModel(model, "Base");
+            git.reset().setMode(ResetType.HARD).setRef("master").call();
+            
+            ObjectId baseTreeId = repository.resolve("HEAD^{tree}");
+            IArchimateModel liveModel = new GraficoModelImporter(localRepoFolder).importAsModel();
+            
+            element.setName("Changed");
+            model.getFolder(FolderType.BUSINESS).setName("Changed");
+            
+            writer.commitModel(model, "Changes");
+            git.reset().setMode(ResetType.HARD).setRef("master").call();
+            
+            GraficoModelUpdater updater = new GraficoModelUpdater(localRepoFolder, baseTreeId);
+            assertEquals(2, updater.findChanges());
+            
+            // Nothing is changed
+            assertFalse(updater.updateModel(liveModel));
+            assertEquals("Element", ((IArchimateElement)ArchimateModelUtils.getObjectByID(liveModel, element.getId())).getName());
+        }
+    }
+    
+    @Test
+    public void findChanges_NoChanges() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder); Git git = Git.wrap(repository)) {
+            new GraficoCommitWriter(localRepoFolder).commitModel(model, "Base");
+            git.reset().setMode(ResetType.HARD).setRef("master").call();
+            
+            GraficoModelUpdater updater = new GraficoModelUpdater(localRepoFolder, repository.resolve("HEAD^{tree}"));
+            assertEquals(0, updater.findChanges());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class ModelSnapshotCacheTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ModelSnapshotCacheTests.class);
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        RepositoryPool.clear();
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void getKey_ChangesOnlyWhenModelChanges() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder); Git git = Git.wrap(repository)) {
+            GraficoCommitWriter writer = new GraficoCommitWriter(localRepoFolder);
+            writer.commitModel(model, "Base");
+            String key1 = ModelSnapshotCache.getKey(repository, repository.resolve("HEAD^{tree}"));
+            assertNotNull(key1);
+            
+            // A file outside of the model is committed
+            File file = new File(localRepoFolder, "readme.txt");
+            Files.write(file.toPath(), "Hello".getBytes());
+            git.add().addFilepattern("readme.txt").call();
+            git.commit().setMessage("Readme").call();
+            assertEquals(key1, ModelSnapshotCache.getKey(repository, repository.resolve("HEAD^{tree}")));
+            
+            // The model is changed
+            model.setName("Changed");
+            writer.commitModel(model, "Changed");
+            assertNotEquals(key1, ModelSnapshotCache.getKey(repository, repository.resolve("HEAD^{tree}")));
+        }
+    }
+    
+    @Test
+    public void putAndGet_LeastRecentlyUsedIsDeleted() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder)) {
+            File modelFile = new File(GitHelper.getTempTestsFolder(), "model.archimate");
+            byte[] bytes = new byte[100];
+            Files.write(modelFile.toPath(), bytes);
+            
+            // Room for two snapshots
+            ModelSnapshotCache cache = new ModelSnapshotCache(new ArchiRepository(localRepoFolder), 250);
+            assertNull(cache.get("key1"));
+            
+            cache.put("key1", modelFile);
+            cache.put("key2", modelFile);
+            assertArrayEquals(bytes, Files.readAllBytes(cache.get("key1").toPath()));
+            assertNotNull(cache.get("key2"));
+            
+            // key1 is the least recently used
+            cache.get("key1").setLastModified(1000);
+            cache.put("key3", modelFile);
+            
+            assertNull(cache.get("key1"));
+            assertNotNull(cache.get("key2"));
+            assertNotNull(cache.get("key3"));
+        }
+    }
+}
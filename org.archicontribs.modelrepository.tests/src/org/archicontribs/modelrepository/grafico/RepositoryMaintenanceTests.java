@@ -0,0 +1,119 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.junit.After;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class RepositoryMaintenanceTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RepositoryMaintenanceTests.class);
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        RepositoryPool.clear();
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void maintain_PacksLooseObjects() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder); Git git = Git.wrap(repository)) {
+            // Commit some files
+            for(int i = 0; i < 10; i++) {
+                Files.write(new File(localRepoFolder, "file" + i + ".txt").toPath(), ("Hello " + i).getBytes(StandardCharsets.UTF_8));
+                git.add().addFilepattern(".").call();
+                git.commit().setMessage("Commit " + i).call();
+            }
+            
+            // Default limits are not reached
+            assertFalse(RepositoryMaintenance.needsMaintenance(repository));
+            
+            StoredConfig config = repository.getConfig();
+            config.setInt(ConfigConstants.CONFIG_GC_SECTION, null, ConfigConstants.CONFIG_KEY_AUTO, 10);
+            config.save();
+            
+            assertTrue(RepositoryMaintenance.needsMaintenance(repository));
+            assertFalse(RepositoryMaintenance.isBusy(repository));
+            
+            RepositoryMaintenance.maintain(repository, NullProgressMonitor.INSTANCE);
+            
+            GC.RepoStatistics stats = new GC((FileRepository)repository).getStatistics();
+            assertEquals(0, stats.numberOfLooseObjects);
+            assertEquals(1, stats.numberOfPackFiles);
+            assertTrue(stats.numberOfBitmaps > 0);
+            
+            assertFalse(RepositoryMaintenance.needsMaintenance(repository));
+            
+            // All commits are still there
+            int count = 0;
+            for(@SuppressWarnings("unused") Object commit : git.log().call()) {
+                count++;
+            }
+            assertEquals(10, count);
+        }
+    }
+    
+    @Test
+    public void needsMaintenance_TurnedOff() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder); Git git = Git.wrap(repository)) {
+            Files.write(new File(localRepoFolder, "file.txt").toPath(), "Hello".getBytes(StandardCharsets.UTF_8));
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("Commit").call();
+            
+            StoredConfig config = repository.getConfig();
+            config.setInt(ConfigConstants.CONFIG_GC_SECTION, null, ConfigConstants.CONFIG_KEY_AUTO, 0);
+            config.setInt(ConfigConstants.CONFIG_GC_SECTION, null, ConfigConstants.CONFIG_KEY_AUTOPACKLIMIT, 0);
+            config.save();
+            
+            assertFalse(RepositoryMaintenance.needsMaintenance(repository));
+        }
+    }
+    
+    @Test
+    public void isBusy_LockFile() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder)) {
+            assertFalse(RepositoryMaintenance.isBusy(repository));
+            
+            File lockFile = new File(repository.getDirectory(), "index.lock");
+            lockFile.createNewFile();
+            assertTrue(RepositoryMaintenance.isBusy(repository));
+            
+            lockFile.delete();
+            assertFalse(RepositoryMaintenance.isBusy(repository));
+        }
+    }
+}
@@ -0,0 +1,365 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.merge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.archicontribs.modelrepository.grafico.ArchiRepository;
+import org.archicontribs.modelrepository.grafico.GraficoCommitWriter;
+import org.archicontribs.modelrepository.grafico.GraficoModelImporter;
+import org.archicontribs.modelrepository.grafico.IArchiRepository;
+import org.archicontribs.modelrepository.grafico.IGraficoConstants;
+import org.archicontribs.modelrepository.grafico.RepositoryPool;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeResult.MergeStatus;
+import org.eclipse.jgit.api.ResetCommand.ResetType;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateDiagramModel;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+import com.archimatetool.model.IDiagramModelConnection;
+import com.archimatetool.model.IDiagramModelNote;
+import com.archimatetool.model.util.ArchimateModelUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoMergerTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoMergerTests.class);
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        RepositoryPool.clear();
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void merge_ChangesToDifferentFeaturesOfAnObjectAreMerged() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        
+        IArchimateElement element = IArchimateFactory.eINSTANCE.createBusinessActor();
+        model.getDefaultFolderForObject(element).getElements().add(element);
+        
+        IArchimateDiagramModel dm = IArchimateFactory.eINSTANCE.createArchimateDiagramModel();
+        model.getDefaultFolderForObject(dm).getElements().add(dm);
+        
+        IDiagramModelArchimateObject dmo = IArchimateFactory.eINSTANCE.createDiagramModelArchimateObject();
+        dmo.setArchimateElement(element);
+        dmo.setBounds(10, 10, 100, 50);
+        dm.getChildren().add(dmo);
+        
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder); Git git = Git.wrap(repository)) {
+            GraficoCommitWriter writer = new GraficoCommitWriter(localRepoFolder);
+            writer.commitModel(model, "Base");
+            git.branchCreate().setName("other").call();
+            
+            // We move the object across
+            dmo.setBounds(20, 10, 100, 50);
+            writer.commitModel(model, "Ours");
+            
+            // They move the object down
+            dmo.setBounds(10, 30, 100, 50);
+            writer.setRef("refs/heads/other");
+            writer.commitModel(model, "Theirs");
+            
+            git.reset().setMode(ResetType.HARD).setRef("master").call();
+            
+            IArchiRepository repo = new ArchiRepository(localRepoFolder);
+            GraficoMerger merger = new GraficoMerger(repo);
+            
+            assertEquals(MergeStatus.MERGED, merger.merge("other"));
+            assertTrue(merger.getConflicts().isEmpty());
+            
+            // Nothing is changed until the merge is committed
+            assertEquals(20, loadDiagramObject(localRepoFolder, dmo.getId()).getBounds().getX());
+            assertEquals(10, loadDiagramObject(localRepoFolder, dmo.getId()).getBounds().getY());
+            
+            merger.commit("Merge");
+            
+            IDiagramModelArchimateObject merged = loadDiagramObject(localRepoFolder, dmo.getId());
+            assertEquals(20, merged.getBounds().getX());
+            assertEquals(30, merged.getBounds().getY());
+            
+            RevCommit commit = git.log().setMaxCount(1).call().iterator().next();
+            assertEquals("Merge", commit.getFullMessage());
+            assertEquals(2, commit.getParentCount());
+            assertTrue(git.status().call().isClean());
+        }
+    }
+    
+    @Test
+    public void merge_ReconnectedConnectionRefersToOurObjects() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        
+        IArchimateDiagramModel dm = IArchimateFactory.eINSTANCE.createArchimateDiagramModel();
+        model.getDefaultFolderForObject(dm).getElements().add(dm);
+        
+        IDiagramModelNote note1 = IArchimateFactory.eINSTANCE.createDiagramModelNote();
+        note1.setBounds(10, 10, 100, 50);
+        dm.getChildren().add(note1);
+        IDiagramModelNote note2 = IArchimateFactory.eINSTANCE.createDiagramModelNote();
+        dm.getChildren().add(note2);
+        IDiagramModelNote note3 = IArchimateFactory.eINSTANCE.createDiagramModelNote();
+        dm.getChildren().add(note3);
+        
+        IDiagramModelConnection connection = IArchimateFactory.eINSTANCE.createDiagramModelConnection();
+        connection.connect(note1, note2);
+        
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder); Git git = Git.wrap(repository)) {
+            GraficoCommitWriter writer = new GraficoCommitWriter(localRepoFolder);
+            writer.commitModel(model, "Base");
+            git.branchCreate().setName("other").call();
+            
+            // We move note 1
+            note1.setBounds(20, 10, 100, 50);
+            writer.commitModel(model, "Ours");
+            
+            // They reconnect the connection to note 3
+            note1.setBounds(10, 10, 100, 50);
+            connection.connect(note1, note3);
+            writer.setRef("refs/heads/other");
+            writer.commitModel(model, "Theirs");
+            
+            git.reset().setMode(ResetType.HARD).setRef("master").call();
+            
+            GraficoMerger merger = new GraficoMerger(new ArchiRepository(localRepoFolder));
+            assertEquals(MergeStatus.MERGED, merger.merge("other"));
+            assertTrue(merger.getConflicts().isEmpty());
+            merger.commit("Merge");
+            
+            IArchimateModel merged = new GraficoModelImporter(localRepoFolder).importAsModel();
+            IDiagramModelNote mergedNote1 = (IDiagramModelNote)ArchimateModelUtils.getObjectByID(merged, note1.getId());
+            IDiagramModelNote mergedNote3 = (IDiagramModelNote)ArchimateModelUtils.getObjectByID(merged, note3.getId());
+            IDiagramModelConnection mergedConnection = (IDiagramModelConnection)ArchimateModelUtils.getObjectByID(merged, connection.getId());
+            
+            assertEquals(20, mergedNote1.getBounds().getX());
+            assertSame(mergedNote1, mergedConnection.getSource());
+            assertSame(mergedNote3, mergedConnection.getTarget());
+            assertTrue(mergedNote3.getTargetConnections().contains(mergedConnection));
+        }
+    }
+    
+    @Test
+    public void merge_ConflictIsResolvedWithTheirs() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        
+        IArchimateElement element = IArchimateFactory.eINSTANCE.createBusinessActor();
+        element.setName("Base");
+        model.getDefaultFolderForObject(element).getElements().add(element);
+        
+        String path = IGraficoConstants.MODEL_FOLDER + "/" + FolderType.BUSINESS + "/BusinessActor_" + element.getId() + ".xml";
+        
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder); Git git = Git.wrap(repository)) {
+            GraficoCommitWriter writer = new GraficoCommitWriter(localRepoFolder);
+            writer.commitModel(model, "Base");
+            git.branchCreate().setName("other").call();
+            
+            element.setName("Ours");
+            writer.commitModel(model, "Ours");
+            
+            element.setName("Theirs");
+            writer.setRef("refs/heads/other");
+            writer.commitModel(model, "Theirs");
+            
+            git.reset().setMode(ResetType.HARD).setRef("master").call();
+            
+            GraficoMerger merger = new GraficoMerger(new ArchiRepository(localRepoFolder));
+            
+            assertEquals(MergeStatus.CONFLICTING, merger.merge("other"));
+            assertEquals(Collections.singleton(path), merger.getConflicts());
+            
+            merger.resolve(Collections.singleton(path), true);
+            assertTrue(merger.getConflicts().isEmpty());
+            
+            merger.commit("Merge");
+            
+            String contents = new String(Files.readAllBytes(new File(localRepoFolder, path).toPath()), StandardCharsets.UTF_8);
+            assertTrue(contents.contains("Theirs"));
+            assertTrue(git.status().call().isClean());
+        }
+    }
+    
+    @Test
+    public void merge_FastForwardAndUpToDate() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder); Git git = Git.wrap(repository)) {
+            GraficoCommitWriter writer = new GraficoCommitWriter(localRepoFolder);
+            writer.commitModel(model, "Base");
+            git.branchCreate().setName("other").call();
+            
+            model.setName("Theirs");
+            writer.setRef("refs/heads/other");
+            writer.commitModel(model, "Theirs");
+            
+            git.reset().setMode(ResetType.HARD).setRef("master").call();
+            
+            GraficoMerger merger = new GraficoMerger(new ArchiRepository(localRepoFolder));
+            
+            assertEquals(MergeStatus.FAST_FORWARD, merger.merge("other"));
+            merger.commit("Merge");
+            
+            assertEquals(repository.resolve("other"), repository.resolve("master"));
+            assertTrue(git.status().call().isClean());
+            
+            assertEquals(MergeStatus.ALREADY_UP_TO_DATE, new GraficoMerger(new ArchiRepository(localRepoFolder)).merge("other"));
+        }
+    }
+    
+    @Test
+    public void merge_MoreThanOneMergeBase() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        
+        IArchimateElement element1 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        element1.setName("Base");
+        model.getDefaultFolderForObject(element1).getElements().add(element1);
+        
+        IArchimateElement element2 = IArchimateFactory.eINSTANCE.createBusinessRole();
+        element2.setName("Base");
+        model.getDefaultFolderForObject(element2).getElements().add(element2);
+        
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder); Git git = Git.wrap(repository)) {
+            GraficoCommitWriter writer = new GraficoCommitWriter(localRepoFolder);
+            writer.commitModel(model, "Base");
+            git.branchCreate().setName("other").call();
+            
+            element1.setName("Ours");
+            String ourCommit = writer.commitModel(model, "Ours");
+            
+            element1.setName("Base");
+            element2.setName("Theirs");
+            writer.setRef("refs/heads/other");
+            writer.commitModel(model, "Theirs");
+            
+            // Each branch merges the other, so the next merge has two merge bases
+            git.reset().setMode(ResetType.HARD).setRef("master").call();
+            GraficoMerger merger = new GraficoMerger(new ArchiRepository(localRepoFolder));
+            assertEquals(MergeStatus.MERGED, merger.merge("other"));
+            merger.commit("Merge other");
+            
+            git.checkout().setName("other").call();
+            merger = new GraficoMerger(new ArchiRepository(localRepoFolder));
+            assertEquals(MergeStatus.MERGED, merger.merge(ourCommit));
+            merger.commit("Merge master");
+            
+            // They change element 2 again
+            element1.setName("Ours");
+            element2.setName("Theirs again");
+            writer.commitModel(model, "Theirs again");
+            
+            // We change element 1 again
+            element1.setName("Ours again");
+            element2.setName("Theirs");
+            writer.setRef("refs/heads/master");
+            writer.commitModel(model, "Ours again");
+            
+            git.reset().setMode(ResetType.HARD).setRef("other").call();
+            git.checkout().setName("master").call();
+            
+            merger = new GraficoMerger(new ArchiRepository(localRepoFolder));
+            assertEquals(MergeStatus.MERGED, merger.merge("other"));
+            
+            // Only their second change is incoming
+            assertEquals(1, merger.getIncomingChanges().size());
+            
+            merger.commit("Merge");
+            
+            IArchimateModel merged = new GraficoModelImporter(localRepoFolder).importAsModel();
+            assertEquals("Ours again", ((IArchimateElement)ArchimateModelUtils.getObjectByID(merged, element1.getId())).getName());
+            assertEquals("Theirs again", ((IArchimateElement)ArchimateModelUtils.getObjectByID(merged, element2.getId())).getName());
+            assertTrue(git.status().call().isClean());
+        }
+    }
+    
+    @Test
+    public void mergePreview_CountsIncomingChanges() throws Exception {
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        
+        IArchimateElement element1 = IArchimateFactory.eINSTANCE.createBusinessActor();
+        model.getDefaultFolderForObject(element1).getElements().add(element1);
+        
+        IArchimateElement element2 = IArchimateFactory.eINSTANCE.createBusinessRole();
+        model.getDefaultFolderForObject(element2).getElements().add(element2);
+        
+        try(Repository repository = GitHelper.createNewRepository(localRepoFolder); Git git = Git.wrap(repository)) {
+            GraficoCommitWriter writer = new GraficoCommitWriter(localRepoFolder);
+            writer.commitModel(model, "Base");
+            git.branchCreate().setName("other").call();
+            
+            element1.setName("Ours");
+            writer.commitModel(model, "Ours");
+            
+            // They change the same element, change the model, delete an element and add an element
+            element1.setName("Theirs");
+            model.setName("Theirs");
+            model.getDefaultFolderForObject(element2).getElements().remove(element2);
+            IArchimateElement element3 = IArchimateFactory.eINSTANCE.createBusinessEvent();
+            model.getDefaultFolderForObject(element3).getElements().add(element3);
+            writer.setRef("refs/heads/other");
+            writer.commitModel(model, "Theirs");
+            
+            git.reset().setMode(ResetType.HARD).setRef("master").call();
+            ObjectId head = repository.resolve("HEAD");
+            
+            MergePreview preview = new MergePreview(new ArchiRepository(localRepoFolder), "other");
+            
+            assertEquals(MergeStatus.CONFLICTING, preview.getMergeStatus());
+            assertEquals(1, preview.getAddedCount());
+            assertEquals(1, preview.getModifiedCount());
+            assertEquals(1, preview.getDeletedCount());
+            assertEquals(1, preview.getConflictingCount());
+            
+            // Nothing has changed
+            assertEquals(head, repository.resolve("HEAD"));
+            assertTrue(git.status().call().isClean());
+        }
+    }
+    
+    private IDiagramModelArchimateObject loadDiagramObject(File localRepoFolder, String id) throws IOException {
+        IArchimateModel model = new GraficoModelImporter(localRepoFolder).importAsModel();
+        return (IDiagramModelArchimateObject)ArchimateModelUtils.getObjectByID(model, id);
+    }
+}
@@ -17,6 +17,7 @@ import org.archicontribs.modelrepository.grafico.GraficoUtils;
 import org.archicontribs.modelrepository.grafico.IArchiRepository;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
 import org.archicontribs.modelrepository.grafico.RepositoryListenerManager;
+import org.archicontribs.modelrepository.grafico.RepositoryMaintenance;
 import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
 import org.eclipse.core.runtime.FileLocator;
 import org.eclipse.core.runtime.IStatus;
@@ -55,11 +56,15 @@ public class ModelRepositoryPlugin extends AbstractUIPlugin implements PropertyC
         
         // Set this first
         ProxyAuthenticator.init();
+        
+        // Repack local repositories in the background when they have changed
+        RepositoryMaintenance.INSTANCE.start();
     }
     
     @Override
     public void stop(BundleContext context) throws Exception {
         IEditorModelManager.INSTANCE.removePropertyChangeListener(this);
+        RepositoryMaintenance.INSTANCE.stop();
         super.stop(context);
     }
     
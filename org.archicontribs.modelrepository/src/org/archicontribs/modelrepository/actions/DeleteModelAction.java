@@ -12,6 +12,7 @@ import org.archicontribs.modelrepository.grafico.ArchiRepository;
 import org.archicontribs.modelrepository.grafico.GraficoUtils;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
 import org.archicontribs.modelrepository.grafico.RepositoryListenerManager;
+import org.archicontribs.modelrepository.grafico.RepositoryPool;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.ui.IWorkbenchWindow;
 
@@ -58,6 +59,9 @@ public class DeleteModelAction extends AbstractModelAction {
                 }
             }
             
+            // Close the shared Repository so that no files are held open
+            RepositoryPool.evict(getRepository().getLocalRepositoryFolder());
+            
             // Delete folder
             FileUtils.deleteFolder(getRepository().getLocalRepositoryFolder());
             
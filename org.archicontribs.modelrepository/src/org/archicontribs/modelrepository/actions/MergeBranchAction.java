@@ -16,19 +16,15 @@ import org.archicontribs.modelrepository.authentication.UsernamePassword;
 import org.archicontribs.modelrepository.grafico.BranchInfo;
 import org.archicontribs.modelrepository.grafico.GraficoModelLoader;
 import org.archicontribs.modelrepository.grafico.GraficoUtils;
+import org.archicontribs.modelrepository.merge.GraficoMerger;
 import org.archicontribs.modelrepository.merge.MergeConflictHandler;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.dialogs.ProgressMonitorDialog;
 import org.eclipse.jface.operation.IRunnableWithProgress;
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.MergeCommand.FastForwardMode;
-import org.eclipse.jgit.api.MergeResult;
 import org.eclipse.jgit.api.MergeResult.MergeStatus;
 import org.eclipse.jgit.api.errors.CanceledException;
 import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.merge.MergeStrategy;
 import org.eclipse.osgi.util.NLS;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.widgets.Display;
@@ -279,79 +275,71 @@ public class MergeBranchAction extends AbstractModelAction {
         pmDialog.getProgressMonitor().subTask(Messages.MergeBranchAction_13);
         Display.getCurrent().readAndDispatch();  // update dialog
 
-        try(Git git = Git.open(getRepository().getLocalRepositoryFolder())) {
-            ObjectId mergeBase = git.getRepository().resolve(branchToMerge.getShortName());
+        // Merge in memory. The working tree is only updated when the merge is committed.
+        GraficoMerger merger = new GraficoMerger(getRepository());
+        MergeStatus status = merger.merge(branchToMerge.getShortName());
+        
+        if(status == MergeStatus.ALREADY_UP_TO_DATE) {
+            return MERGE_STATUS_UP_TO_DATE;
+        }
+        
+        String mergeMessage = NLS.bind(Messages.MergeBranchAction_2, branchToMerge.getShortName(), currentBranch.getShortName());
+        
+        // Conflict
+        if(status == MergeStatus.CONFLICTING) {
+            // Try to handle the merge conflict
+            MergeConflictHandler handler = new MergeConflictHandler(merger, getRepository(), fWindow.getShell());
             
-            String mergeMessage = NLS.bind(Messages.MergeBranchAction_2, branchToMerge.getShortName(), currentBranch.getShortName());
+            try {
+                handler.init(pmDialog.getProgressMonitor());
+            }
+            // Nothing has been changed so there is nothing to clean up
+            catch(CanceledException ex) {
+                return MERGE_STATUS_MERGE_CANCEL;
+            }
             
-            MergeResult mergeResult = git.merge()
-                    .include(mergeBase)
-                    .setCommit(true)
-                    .setFastForward(FastForwardMode.FF)
-                    .setStrategy(MergeStrategy.RECURSIVE)
-                    .setSquash(false)
-                    .setMessage(mergeMessage)
-                    .call();
+            String dialogMessage = NLS.bind(Messages.MergeBranchAction_10,
+                    branchToMerge.getShortName(), currentBranch.getShortName());
             
-            MergeStatus status = mergeResult.getMergeStatus();
+            pmDialog.getShell().setVisible(false);
             
-            // Conflict
-            if(status == MergeStatus.CONFLICTING) {
-                // Try to handle the merge conflict
-                MergeConflictHandler handler = new MergeConflictHandler(mergeResult, branchToMerge.getShortName(),
-                        getRepository(), fWindow.getShell());
-                
-                try {
-                    handler.init(pmDialog.getProgressMonitor());
-                }
-                catch(IOException | GitAPIException ex) {
-                    handler.resetToLocalState(); // Clean up
-
-                    if(ex instanceof CanceledException) {
-                        return MERGE_STATUS_MERGE_CANCEL;
-                    }
-
-                    throw ex;
-                }
-                
-                String dialogMessage = NLS.bind(Messages.MergeBranchAction_10,
-                        branchToMerge.getShortName(), currentBranch.getShortName());
-                
-                pmDialog.getShell().setVisible(false);
-                
-                boolean result = handler.openConflictsDialog(dialogMessage);
-                
-                pmDialog.getShell().setVisible(true);
-                
-                if(result) {
-                    handler.merge();
-                }
-                // User cancelled - so we reset
-                else {
-                    handler.resetToLocalState();
-                    return MERGE_STATUS_MERGE_CANCEL;
-                }
-            }
+            boolean result = handler.openConflictsDialog(dialogMessage);
             
-            // Reload the model from the Grafico XML files
-            GraficoModelLoader loader = new GraficoModelLoader(getRepository());
-            loader.loadModel();
+            pmDialog.getShell().setVisible(true);
             
-            // Do a commit if needed
-            if(getRepository().hasChangesToCommit()) {
+            if(result) {
+                handler.merge();
                 mergeMessage = NLS.bind(Messages.MergeBranchAction_3, branchToMerge.getShortName(), currentBranch.getShortName());
-                
-                // Did we restore any missing objects?
-                String restoredObjects = loader.getRestoredObjectsAsString();
-                
-                // Add to commit message
-                if(restoredObjects != null) {
-                    mergeMessage += "\n\n" + Messages.RefreshModelAction_3 + "\n" + restoredObjects; //$NON-NLS-1$ //$NON-NLS-2$
-                }
-
-                // IMPORTANT!!! "amend" has to be false after a merge conflict or else the commit will be orphaned
-                getRepository().commitChanges(mergeMessage, false);
             }
+            // User cancelled - nothing has been changed
+            else {
+                return MERGE_STATUS_MERGE_CANCEL;
+            }
+        }
+        
+        // Set up the loader before HEAD is moved so that only the changes are loaded into the open model
+        GraficoModelLoader loader = new GraficoModelLoader(getRepository());
+        loader.setBaseCommit();
+        
+        // Commit the merge and update the working tree
+        merger.commit(mergeMessage);
+        
+        // Reload the model from the Grafico XML files
+        loader.loadModel();
+        
+        // Do a commit if needed
+        if(getRepository().hasChangesToCommit()) {
+            mergeMessage = NLS.bind(Messages.MergeBranchAction_3, branchToMerge.getShortName(), currentBranch.getShortName());
+            
+            // Did we restore any missing objects?
+            String restoredObjects = loader.getRestoredObjectsAsString();
+            
+            // Add to commit message
+            if(restoredObjects != null) {
+                mergeMessage += "\n\n" + Messages.RefreshModelAction_3 + "\n" + restoredObjects; //$NON-NLS-1$ //$NON-NLS-2$
+            }
+
+            getRepository().commitChanges(mergeMessage, false);
         }
         
         return MERGE_STATUS_OK;
@@ -120,6 +120,16 @@ public class Messages extends NLS {
 
     public static String OpenModelAction_0;
 
+    public static String PreviewIncomingChangesAction_0;
+
+    public static String PreviewIncomingChangesAction_1;
+
+    public static String PreviewIncomingChangesAction_2;
+
+    public static String PreviewIncomingChangesAction_3;
+
+    public static String PreviewIncomingChangesAction_4;
+
     public static String PropertiesAction_0;
 
     public static String PushModelAction_0;
@@ -132,6 +142,8 @@ public class Messages extends NLS {
 
     public static String RefreshModelAction_1;
 
+    public static String RefreshModelAction_10;
+
     public static String RefreshModelAction_2;
 
     public static String RefreshModelAction_3;
@@ -0,0 +1,138 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.actions;
+
+import java.lang.reflect.InvocationTargetException;
+import java.security.GeneralSecurityException;
+
+import org.archicontribs.modelrepository.IModelRepositoryImages;
+import org.archicontribs.modelrepository.authentication.EncryptedCredentialsStorage;
+import org.archicontribs.modelrepository.authentication.ProxyAuthenticator;
+import org.archicontribs.modelrepository.authentication.UsernamePassword;
+import org.archicontribs.modelrepository.grafico.BranchInfo;
+import org.archicontribs.modelrepository.grafico.BranchStatus;
+import org.archicontribs.modelrepository.grafico.GraficoUtils;
+import org.archicontribs.modelrepository.grafico.IRepositoryListener;
+import org.archicontribs.modelrepository.merge.MergePreview;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.dialogs.ProgressMonitorDialog;
+import org.eclipse.jface.operation.IRunnableWithProgress;
+import org.eclipse.jgit.api.MergeResult.MergeStatus;
+import org.eclipse.osgi.util.NLS;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.IWorkbenchWindow;
+
+/**
+ * Preview Incoming Changes action
+ * 
+ * 1. Get credentials for Fetch
+ * 2. Check Proxy
+ * 3. Fetch from Remote
+ * 4. Merge the remote branch in memory and report what would be added, changed, deleted and in conflict
+ * 
+ * The model is not saved or exported and the working tree, the index and HEAD are not changed.
+ */
+public class PreviewIncomingChangesAction extends AbstractModelAction {
+    
+    public PreviewIncomingChangesAction(IWorkbenchWindow window) {
+        super(window);
+        setImageDescriptor(IModelRepositoryImages.ImageFactory.getImageDescriptor(IModelRepositoryImages.ICON_SYNCED));
+        setText(Messages.PreviewIncomingChangesAction_0);
+        setToolTipText(Messages.PreviewIncomingChangesAction_0);
+    }
+    
+    @Override
+    public void run() {
+        try {
+            // Check primary key set
+            if(!EncryptedCredentialsStorage.checkPrimaryKeySet()) {
+                return;
+            }
+            
+            // Get this before opening the progress dialog
+            // UsernamePassword will be null if using SSH
+            UsernamePassword npw = getUsernamePassword();
+            // User cancelled on HTTP
+            if(npw == null && GraficoUtils.isHTTP(getRepository().getOnlineRepositoryURL())) {
+                return;
+            }
+            
+            // Do main action with PM dialog
+            Display.getCurrent().asyncExec(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ProgressMonitorDialog pmDialog = new ProgressMonitorDialog(fWindow.getShell());
+                        
+                        pmDialog.run(false, true, new IRunnableWithProgress() {
+                            @Override
+                            public void run(IProgressMonitor monitor) throws InvocationTargetException, InterruptedException {
+                                try {
+                                    // Update Proxy
+                                    ProxyAuthenticator.update();
+                                    
+                                    monitor.beginTask(Messages.PreviewIncomingChangesAction_1, -1);
+                                    String message = preview(npw, pmDialog);
+                                    
+                                    pmDialog.getShell().setVisible(false);
+                                    MessageDialog.openInformation(fWindow.getShell(), Messages.PreviewIncomingChangesAction_0, message);
+                                }
+                                catch(Exception ex) {
+                                    pmDialog.getShell().setVisible(false);
+                                    displayErrorDialog(Messages.PreviewIncomingChangesAction_0, ex);
+                                }
+                                finally {
+                                    // Remote branches may have been updated by the fetch
+                                    notifyChangeListeners(IRepositoryListener.BRANCHES_CHANGED);
+                                    
+                                    // Clear Proxy
+                                    ProxyAuthenticator.clear();
+                                }
+                            }
+                        });
+                    }
+                    catch(InvocationTargetException | InterruptedException ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            });
+        
+        }
+        catch(GeneralSecurityException ex) {
+            displayCredentialsErrorDialog(ex);
+        }
+        catch(Exception ex) {
+            displayErrorDialog(Messages.PreviewIncomingChangesAction_0, ex);
+        }
+    }
+    
+    private String preview(UsernamePassword npw, ProgressMonitorDialog pmDialog) throws Exception {
+        pmDialog.getProgressMonitor().subTask(Messages.PreviewIncomingChangesAction_2);
+        Display.getCurrent().readAndDispatch(); // update dialog
+        
+        getRepository().fetchFromRemote(npw, new ProgressMonitorWrapper(pmDialog.getProgressMonitor()), false);
+        
+        BranchStatus branchStatus = getRepository().getBranchStatus();
+        BranchInfo localBranch = branchStatus.getCurrentLocalBranch();
+        BranchInfo remoteBranch = branchStatus.getCurrentRemoteBranch();
+        
+        if(remoteBranch == null) {
+            return NLS.bind(Messages.PreviewIncomingChangesAction_3, localBranch.getShortName());
+        }
+        
+        pmDialog.getProgressMonitor().subTask(Messages.RefreshModelAction_7);
+        
+        MergePreview preview = new MergePreview(getRepository(), remoteBranch.getFullName());
+        
+        if(preview.getMergeStatus() == MergeStatus.ALREADY_UP_TO_DATE) {
+            return Messages.RefreshModelAction_2;
+        }
+        
+        return NLS.bind(Messages.PreviewIncomingChangesAction_4, new Object[] { localBranch.getShortName(), preview.getAddedCount(),
+                preview.getModifiedCount(), preview.getDeletedCount(), preview.getConflictingCount() });
+    }
+}
@@ -18,16 +18,15 @@ import org.archicontribs.modelrepository.grafico.BranchStatus;
 import org.archicontribs.modelrepository.grafico.GraficoModelLoader;
 import org.archicontribs.modelrepository.grafico.GraficoUtils;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
+import org.archicontribs.modelrepository.merge.GraficoMerger;
 import org.archicontribs.modelrepository.merge.MergeConflictHandler;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.dialogs.ProgressMonitorDialog;
 import org.eclipse.jface.operation.IRunnableWithProgress;
 import org.eclipse.jgit.api.MergeResult.MergeStatus;
-import org.eclipse.jgit.api.PullResult;
 import org.eclipse.jgit.api.errors.CanceledException;
 import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.api.errors.RefNotAdvertisedException;
 import org.eclipse.jgit.transport.FetchResult;
 import org.eclipse.osgi.util.NLS;
 import org.eclipse.swt.widgets.Display;
@@ -43,9 +42,10 @@ import com.archimatetool.model.IArchimateModel;
  * 2. If there are changes offer to Commit
  * 3. Get credentials for Pull
  * 4. Check Proxy
- * 5. Pull from Remote
- * 6. Handle Merge conflicts
- * 7. Reload temp file from Grafico files
+ * 5. Fetch from Remote
+ * 6. Merge the remote branch in memory and handle Merge conflicts
+ * 7. Commit the merge
+ * 8. Reload temp file from Grafico files
  * 
  * @author Jean-Baptiste Sarrodie
  * @author Phillip Beauvoir
@@ -174,30 +174,30 @@ public class RefreshModelAction extends AbstractModelAction {
     }
     
     protected int pull(UsernamePassword npw, ProgressMonitorDialog pmDialog) throws IOException, GitAPIException  {
-        PullResult pullResult = null;
-        
         pmDialog.getProgressMonitor().subTask(Messages.RefreshModelAction_6);
         Display.getCurrent().readAndDispatch(); // update dialog
         
-        try {
-            pullResult = getRepository().pullFromRemote(npw, new ProgressMonitorWrapper(pmDialog.getProgressMonitor()));
-        }
-        catch(Exception ex) {
-            // If this exception is thrown then the remote doesn't have the ref which can happen when pulling on a branch,
-            // So quietly absorb this and return OK
-            if(ex instanceof RefNotAdvertisedException) {
-                return PULL_STATUS_OK;
-            }
-            
-            throw ex;
-        }
+        FetchResult fetchResult = getRepository().fetchFromRemote(npw, new ProgressMonitorWrapper(pmDialog.getProgressMonitor()), false);
         
         // Check for tracking updates
-        FetchResult fetchResult = pullResult.getFetchResult();
         boolean newTrackingRefUpdates = fetchResult != null && !fetchResult.getTrackingRefUpdates().isEmpty();
         
+        BranchStatus branchStatus = getRepository().getBranchStatus();
+        
+        // The remote doesn't have the branch, which can happen when pulling on a branch, so return OK
+        if(branchStatus.getCurrentRemoteBranch() == null) {
+            return PULL_STATUS_OK;
+        }
+        
+        // Get the remote ref name
+        String remoteRef = branchStatus.getCurrentRemoteBranch().getFullName();
+        
+        // Merge in memory. The working tree is only updated when the merge is committed.
+        GraficoMerger merger = new GraficoMerger(getRepository());
+        MergeStatus mergeStatus = merger.merge(remoteRef);
+        
         // Merge is already up to date...
-        if(pullResult.getMergeResult().getMergeStatus() == MergeStatus.ALREADY_UP_TO_DATE) {
+        if(mergeStatus == MergeStatus.ALREADY_UP_TO_DATE) {
             // Check if any tracked refs were updated
             if(newTrackingRefUpdates) {
                 return PULL_STATUS_OK;
@@ -208,31 +208,19 @@ public class RefreshModelAction extends AbstractModelAction {
         
         pmDialog.getProgressMonitor().subTask(Messages.RefreshModelAction_7);
         
-        BranchStatus branchStatus = getRepository().getBranchStatus();
+        String commitMessage = NLS.bind(Messages.RefreshModelAction_10, branchStatus.getCurrentLocalBranch().getShortName());
         
-        // Setup the Graphico Model Loader
-        GraficoModelLoader loader = new GraficoModelLoader(getRepository());
-
-        // Merge failure
-        if(!pullResult.isSuccessful() && pullResult.getMergeResult().getMergeStatus() == MergeStatus.CONFLICTING) {
-            // Get the remote ref name
-            String remoteRef = branchStatus.getCurrentRemoteBranch().getFullName();
-            
+        // Merge conflicts
+        if(mergeStatus == MergeStatus.CONFLICTING) {
             // Try to handle the merge conflict
-            MergeConflictHandler handler = new MergeConflictHandler(pullResult.getMergeResult(), remoteRef,
-                    getRepository(), fWindow.getShell());
+            MergeConflictHandler handler = new MergeConflictHandler(merger, getRepository(), fWindow.getShell());
             
             try {
                 handler.init(pmDialog.getProgressMonitor());
             }
-            catch(IOException | GitAPIException ex) {
-                handler.resetToLocalState(); // Clean up
-
-                if(ex instanceof CanceledException) {
-                    return PULL_STATUS_MERGE_CANCEL;
-                }
-
-                throw ex;
+            // Nothing has been changed so there is nothing to clean up
+            catch(CanceledException ex) {
+                return PULL_STATUS_MERGE_CANCEL;
             }
             
             String dialogMessage = NLS.bind(Messages.RefreshModelAction_4, branchStatus.getCurrentLocalBranch().getShortName());
@@ -245,35 +233,38 @@ public class RefreshModelAction extends AbstractModelAction {
 
             if(result) {
                 handler.merge();
+                commitMessage = NLS.bind(Messages.RefreshModelAction_1, branchStatus.getCurrentLocalBranch().getShortName());
             }
-            // User cancelled - we assume they committed all changes so we can reset
+            // User cancelled - nothing has been changed
             else {
-                handler.resetToLocalState();
                 return PULL_STATUS_MERGE_CANCEL;
             }
-            
-            // We now have to check if model can be reloaded
-            pmDialog.getProgressMonitor().subTask(Messages.RefreshModelAction_8);
-            
-            // Reload the model from the Grafico XML files
-            try {
-            	loader.loadModel();
-            }
-            catch(IOException ex) {
-            	handler.resetToLocalState(); // Clean up
-            	throw ex;
-            }
-        } else { 
-		    // Reload the model from the Grafico XML files
-		    pmDialog.getProgressMonitor().subTask(Messages.RefreshModelAction_8);
-			loader.loadModel();
+        }
+        
+        // Setup the Graphico Model Loader before HEAD is moved so that only the changes are loaded into the open model
+        GraficoModelLoader loader = new GraficoModelLoader(getRepository());
+        loader.setBaseCommit();
+        
+        // Commit the merge and update the working tree
+        merger.commit(commitMessage);
+        
+        // Reload the model from the Grafico XML files
+        pmDialog.getProgressMonitor().subTask(Messages.RefreshModelAction_8);
+        
+        try {
+            loader.loadModel();
+        }
+        // The merged model can't be loaded so go back to where we were
+        catch(IOException ex) {
+            getRepository().resetToRef(merger.getOurCommit().getName());
+            throw ex;
         }
         
         // Do a commit if needed
         if(getRepository().hasChangesToCommit()) {
             pmDialog.getProgressMonitor().subTask(Messages.RefreshModelAction_9);
             
-            String commitMessage = NLS.bind(Messages.RefreshModelAction_1, branchStatus.getCurrentLocalBranch().getShortName());
+            commitMessage = NLS.bind(Messages.RefreshModelAction_1, branchStatus.getCurrentLocalBranch().getShortName());
             
             // Did we restore any missing objects?
             String restoredObjects = loader.getRestoredObjectsAsString();
@@ -283,7 +274,6 @@ public class RefreshModelAction extends AbstractModelAction {
                 commitMessage += "\n\n" + Messages.RefreshModelAction_3 + "\n" + restoredObjects; //$NON-NLS-1$ //$NON-NLS-2$
             }
 
-            // TODO - not sure if amend should be false or true here?
             getRepository().commitChanges(commitMessage, false);
         }
         
@@ -81,8 +81,13 @@ public class ResetToRemoteCommitAction extends UndoLastCommitAction {
             return;
         }
         
+        GraficoModelLoader loader = new GraficoModelLoader(getRepository());
+        
         // Do it!
         try {
+            // Only the changes from the remote commit need to be loaded into the open model
+            loader.setBaseCommit();
+            
             BranchInfo currentRemoteBranch = getCurrentRemoteBranchInfo();
             if(currentRemoteBranch != null) {
                 getRepository().resetToRef(currentRemoteBranch.getFullName());
@@ -94,7 +99,7 @@ public class ResetToRemoteCommitAction extends UndoLastCommitAction {
 
         // Reload the model from the Grafico XML files
         try {
-            new GraficoModelLoader(getRepository()).loadModel();
+            loader.loadModel();
 
             // Save the checksum
             getRepository().saveChecksum();
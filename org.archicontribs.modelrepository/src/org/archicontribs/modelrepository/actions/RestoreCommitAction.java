@@ -63,8 +63,13 @@ public class RestoreCommitAction extends AbstractModelAction {
             return;
         }
         
+        GraficoModelLoader graficoModelLoader = new GraficoModelLoader(getRepository());
+        
         // Delete the content folders first
         try {
+            // Only the files that are different in the restored commit need to be loaded into the open model
+            graficoModelLoader.setBaseCommit();
+            
             File modelFolder = new File(getRepository().getLocalRepositoryFolder(), IGraficoConstants.MODEL_FOLDER);
             FileUtils.deleteFolder(modelFolder);
             modelFolder.mkdirs();
@@ -105,7 +110,7 @@ public class RestoreCommitAction extends AbstractModelAction {
 
         // Reload the model from the Grafico XML files
         try {
-            IArchimateModel graficoModel = new GraficoModelLoader(getRepository()).loadModel();
+            IArchimateModel graficoModel = graficoModelLoader.loadModel();
             // If this is null then it failed because of no model in this commit
             if(graficoModel == null) {
                 // Reset
@@ -136,6 +136,13 @@ public class SwitchBranchAction extends AbstractModelAction {
     }
     
     protected void switchBranch(BranchInfo branchInfo, boolean doReloadGrafico) throws IOException, GitAPIException {
+        GraficoModelLoader loader = new GraficoModelLoader(getRepository());
+        
+        // Only the changes between the branches need to be loaded into the open model
+        if(doReloadGrafico) {
+            loader.setBaseCommit();
+        }
+        
         try(Git git = Git.open(getRepository().getLocalRepositoryFolder())) {
             // If the branch is local just checkout
             if(branchInfo.isLocal()) {
@@ -157,7 +164,7 @@ public class SwitchBranchAction extends AbstractModelAction {
             
             // Reload the model from the Grafico XML files
             if(doReloadGrafico) {
-                new GraficoModelLoader(getRepository()).loadModel();
+                loader.loadModel();
                 
                 // Save the checksum
                 getRepository().saveChecksum();
@@ -55,11 +55,15 @@ public class UndoLastCommitAction extends AbstractModelAction {
         }
         
         try {
+            // Only the changes in the last commit need to be loaded into the open model
+            GraficoModelLoader loader = new GraficoModelLoader(getRepository());
+            loader.setBaseCommit();
+            
             // Do it!
             getRepository().resetToRef("HEAD^"); //$NON-NLS-1$
             
             // Reload the model from the Grafico XML files
-            new GraficoModelLoader(getRepository()).loadModel();
+            loader.loadModel();
             
             // Save the checksum
             getRepository().saveChecksum();
@@ -7,16 +7,15 @@ package org.archicontribs.modelrepository.grafico;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.stream.Stream;
 
 import org.archicontribs.modelrepository.authentication.CredentialsAuthenticator;
@@ -30,13 +29,13 @@ import org.eclipse.jgit.api.CommitCommand;
 import org.eclipse.jgit.api.FetchCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.InitCommand;
+import org.eclipse.jgit.api.LsRemoteCommand;
 import org.eclipse.jgit.api.PullCommand;
 import org.eclipse.jgit.api.PullResult;
 import org.eclipse.jgit.api.PushCommand;
 import org.eclipse.jgit.api.RemoteAddCommand;
 import org.eclipse.jgit.api.ResetCommand;
 import org.eclipse.jgit.api.ResetCommand.ResetType;
-import org.eclipse.jgit.api.Status;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.lib.ConfigConstants;
@@ -53,6 +52,8 @@ import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.transport.FetchResult;
 import org.eclipse.jgit.transport.PushResult;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
 import org.eclipse.jgit.transport.URIish;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.filter.PathFilter;
@@ -121,8 +122,8 @@ public class ArchiRepository implements IArchiRepository {
     
     @Override
     public String getOnlineRepositoryURL() throws IOException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
-            return git.getRepository().getConfig().getString("remote", IGraficoConstants.ORIGIN, "url"); //$NON-NLS-1$ //$NON-NLS-2$
+        try(Repository repository = openRepository()) {
+            return repository.getConfig().getString("remote", IGraficoConstants.ORIGIN, "url"); //$NON-NLS-1$ //$NON-NLS-2$
         }
     }
     
@@ -141,16 +142,16 @@ public class ArchiRepository implements IArchiRepository {
 
     @Override
     public boolean hasChangesToCommit() throws IOException, GitAPIException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
-            Status status = git.status().call();
+        try(Repository repository = openRepository()) {
+            WorkingTreeStatus status = WorkingTreeStatusCache.INSTANCE.getStatus(repository);
             return !status.isClean();
         }
     }
     
     @Override
     public RevCommit commitChanges(String commitMessage, boolean amend) throws GitAPIException, IOException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
-            Status status = git.status().call();
+        try(Repository repository = openRepository(); Git git = Git.wrap(repository)) {
+            WorkingTreeStatus status = WorkingTreeStatusCache.INSTANCE.getStatus(repository);
             
             // Nothing changed
             if(status.isClean()) {
@@ -160,15 +161,39 @@ public class ArchiRepository implements IArchiRepository {
             // Check lock file is deleted
             checkDeleteLockFile();
             
-            // Add modified files to index
-            AddCommand addCommand = git.add();
-            addCommand.addFilepattern("."); //$NON-NLS-1$
-            addCommand.setUpdate(false);
-            addCommand.call();
+            // Stage new, modified and missing files from the status in one edit of the index
+            GraficoIndexWriter indexWriter = new GraficoIndexWriter(repository);
             
-            // Add missing files to index
-            for(String s : status.getMissing()) {
-                git.rm().addFilepattern(s).call();
+            if(indexWriter.canWrite()) {
+                try {
+                    for(String path : status.getUntracked()) {
+                        indexWriter.add(new File(getLocalRepositoryFolder(), path));
+                    }
+                    for(String path : status.getModified()) {
+                        indexWriter.add(new File(getLocalRepositoryFolder(), path));
+                    }
+                    for(String path : status.getMissing()) {
+                        indexWriter.remove(path);
+                    }
+                    
+                    indexWriter.commit();
+                }
+                finally {
+                    indexWriter.close();
+                }
+            }
+            // The index has conflicts so add them in the usual way which also resolves them
+            else {
+                // Add modified files to index
+                AddCommand addCommand = git.add();
+                addCommand.addFilepattern("."); //$NON-NLS-1$
+                addCommand.setUpdate(false);
+                addCommand.call();
+                
+                // Add missing files to index
+                for(String s : status.getMissing()) {
+                    git.rm().addFilepattern(s).call();
+                }
             }
             
             // Commit
@@ -183,11 +208,28 @@ public class ArchiRepository implements IArchiRepository {
     
     @Override
     public void cloneModel(String repoURL, UsernamePassword npw, ProgressMonitor monitor) throws GitAPIException, IOException {
+        cloneModel(repoURL, npw, monitor, null, false);
+    }
+    
+    @Override
+    public void cloneModel(String repoURL, UsernamePassword npw, ProgressMonitor monitor, String branch, boolean noTags) throws GitAPIException, IOException {
         CloneCommand cloneCommand = Git.cloneRepository();
         cloneCommand.setDirectory(getLocalRepositoryFolder());
         cloneCommand.setURI(repoURL);
         cloneCommand.setTransportConfigCallback(CredentialsAuthenticator.getTransportConfigCallback(repoURL, npw));
         cloneCommand.setProgressMonitor(monitor);
+        
+        // Single branch. This sets the fetch refspec of origin to this branch so it is the only one fetched later.
+        if(StringUtils.isSet(branch)) {
+            String branchName = Repository.shortenRefName(branch);
+            cloneCommand.setBranch(branchName);
+            cloneCommand.setBranchesToClone(Collections.singleton(Constants.R_HEADS + branchName));
+        }
+        
+        // This sets tagopt of origin so tags are not fetched later
+        if(noTags) {
+            cloneCommand.setNoTags();
+        }
 
         try(Git git = cloneCommand.call()) {
             setDefaultConfigSettings(git.getRepository());
@@ -196,7 +238,7 @@ public class ArchiRepository implements IArchiRepository {
 
     @Override
     public Iterable<PushResult> pushToRemote(UsernamePassword npw, ProgressMonitor monitor) throws IOException, GitAPIException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
+        try(Repository repository = openRepository(); Git git = Git.wrap(repository)) {
             PushCommand pushCommand = git.push();
             pushCommand.setTransportConfigCallback(CredentialsAuthenticator.getTransportConfigCallback(getOnlineRepositoryURL(), npw));
             pushCommand.setProgressMonitor(monitor);
@@ -204,7 +246,7 @@ public class ArchiRepository implements IArchiRepository {
             Iterable<PushResult> result = pushCommand.call();
             
             // After a successful push, ensure we are tracking the current branch
-            setTrackedBranch(git.getRepository(), git.getRepository().getBranch());
+            setTrackedBranch(repository, repository.getBranch());
             
             return result;
         }
@@ -212,7 +254,7 @@ public class ArchiRepository implements IArchiRepository {
     
     @Override
     public PullResult pullFromRemote(UsernamePassword npw, ProgressMonitor monitor) throws IOException, GitAPIException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
+        try(Repository repository = openRepository(); Git git = Git.wrap(repository)) {
             PullCommand pullCommand = git.pull();
             pullCommand.setTransportConfigCallback(CredentialsAuthenticator.getTransportConfigCallback(getOnlineRepositoryURL(), npw));
             pullCommand.setRebase(false); // Merge, not rebase
@@ -223,17 +265,80 @@ public class ArchiRepository implements IArchiRepository {
     
     @Override
     public FetchResult fetchFromRemote(UsernamePassword npw, ProgressMonitor monitor, boolean isDryrun) throws IOException, GitAPIException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
+        return fetchFromRemote(npw, monitor, isDryrun, 0);
+    }
+    
+    @Override
+    public FetchResult fetchFromRemote(UsernamePassword npw, ProgressMonitor monitor, boolean isDryrun, int timeout) throws IOException, GitAPIException {
+        try(Repository repository = openRepository(); Git git = Git.wrap(repository)) {
             // Check and set tracked master branch
-            setTrackedBranch(git.getRepository(), IGraficoConstants.MASTER);
+            setTrackedBranch(repository, IGraficoConstants.MASTER);
             FetchCommand fetchCommand = git.fetch();
             fetchCommand.setTransportConfigCallback(CredentialsAuthenticator.getTransportConfigCallback(getOnlineRepositoryURL(), npw));
             fetchCommand.setProgressMonitor(monitor);
             fetchCommand.setDryRun(isDryrun);
+            fetchCommand.setRemoveDeletedRefs(true); // Delete tracking branches whose remote branch has gone
+            if(timeout > 0) {
+                fetchCommand.setTimeout(timeout);
+            }
             return fetchCommand.call();
         }
     }
 
+    @Override
+    public boolean hasRemoteChanges(UsernamePassword npw, int timeout) throws IOException, GitAPIException {
+        try(Repository repository = openRepository()) {
+            RemoteConfig remoteConfig = new RemoteConfig(repository.getConfig(), IGraficoConstants.ORIGIN);
+            
+            LsRemoteCommand lsRemoteCommand = Git.lsRemoteRepository();
+            lsRemoteCommand.setRemote(getOnlineRepositoryURL());
+            lsRemoteCommand.setHeads(true);
+            lsRemoteCommand.setTransportConfigCallback(CredentialsAuthenticator.getTransportConfigCallback(getOnlineRepositoryURL(), npw));
+            if(timeout > 0) {
+                lsRemoteCommand.setTimeout(timeout);
+            }
+            
+            // Names of the tracking branches of the remote branches
+            Set<String> trackingRefNames = new HashSet<>();
+            
+            for(Ref remoteRef : lsRemoteCommand.call()) {
+                for(RefSpec refSpec : remoteConfig.getFetchRefSpecs()) {
+                    if(refSpec.matchSource(remoteRef)) {
+                        String trackingRefName = refSpec.expandFromSource(remoteRef).getDestination();
+                        trackingRefNames.add(trackingRefName);
+                        
+                        // New or moved
+                        Ref trackingRef = repository.exactRef(trackingRefName);
+                        if(trackingRef == null || !remoteRef.getObjectId().equals(trackingRef.getObjectId())) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            
+            // Deleted. fetchFromRemote() deletes tracking branches whose remote branch has gone.
+            for(RefSpec refSpec : remoteConfig.getFetchRefSpecs()) {
+                String destination = refSpec.getDestination();
+                if(destination == null) {
+                    continue;
+                }
+                
+                String prefix = refSpec.isWildcard() ? destination.substring(0, destination.indexOf('*')) : destination;
+                
+                for(Ref trackingRef : repository.getRefDatabase().getRefsByPrefix(prefix)) {
+                    if(!trackingRef.isSymbolic() && refSpec.matchDestination(trackingRef) && !trackingRefNames.contains(trackingRef.getName())) {
+                        return true;
+                    }
+                }
+            }
+            
+            return false;
+        }
+        catch(URISyntaxException ex) {
+            throw new IOException(ex);
+        }
+    }
+
     @Override
     public Git createNewLocalGitRepository(String URL) throws GitAPIException, IOException, URISyntaxException {
         if(getLocalRepositoryFolder().exists() && getLocalRepositoryFolder().list().length > 0) {
@@ -261,7 +366,7 @@ public class ArchiRepository implements IArchiRepository {
     public byte[] getFileContents(String path, String ref) throws IOException {
         byte[] bytes = null;
         
-        try(Repository repository = Git.open(getLocalRepositoryFolder()).getRepository()) {
+        try(Repository repository = openRepository()) {
             ObjectId lastCommitId = repository.resolve(ref);
 
             try(RevWalk revWalk = new RevWalk(repository)) {
@@ -296,12 +401,10 @@ public class ArchiRepository implements IArchiRepository {
     public String getWorkingTreeFileContents(String path) throws IOException {
         String str = ""; //$NON-NLS-1$
         
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
-            try(BufferedReader in = new BufferedReader(new FileReader(new File(getLocalRepositoryFolder(), path)))) {
-                String line;
-                while((line = in.readLine()) != null) {
-                    str += line + "\n"; //$NON-NLS-1$
-                }
+        try(BufferedReader in = new BufferedReader(new FileReader(new File(getLocalRepositoryFolder(), path)))) {
+            String line;
+            while((line = in.readLine()) != null) {
+                str += line + "\n"; //$NON-NLS-1$
             }
         }
         
@@ -313,7 +416,7 @@ public class ArchiRepository implements IArchiRepository {
         // Check lock file is deleted
         checkDeleteLockFile();
         
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
+        try(Repository repository = openRepository(); Git git = Git.wrap(repository)) {
             // Reset to master
             ResetCommand resetCommand = git.reset();
             resetCommand.setRef(ref);
@@ -329,7 +432,7 @@ public class ArchiRepository implements IArchiRepository {
     
     @Override
     public boolean isHeadAndRemoteSame() throws IOException, GitAPIException {
-        try(Repository repository = Git.open(getLocalRepositoryFolder()).getRepository()) {
+        try(Repository repository = openRepository()) {
             // Get remote branch ref
             BranchInfo currentRemoteBranch = getBranchStatus().getCurrentRemoteBranch();
             if(currentRemoteBranch == null) {
@@ -371,20 +474,24 @@ public class ArchiRepository implements IArchiRepository {
                     pm.beginTask(Messages.ArchiRepository_1, IProgressMonitor.UNKNOWN);
 
                     try {
-                        // Export
-                        GraficoModelExporter exporter = new GraficoModelExporter(model, getLocalRepositoryFolder());
-                        exporter.exportModel();
-                        
                         // Check lock file is deleted
                         checkDeleteLockFile();
-                        
-                        // Stage modified files to index - this can take a long time!
-                        // This will clear any different line endings and calls to git.status() will be faster
-                        try(Git git = Git.open(getLocalRepositoryFolder())) {
-                            AddCommand addCommand = git.add();
-                            addCommand.addFilepattern("."); //$NON-NLS-1$
-                            addCommand.setUpdate(false);
-                            addCommand.call();
+
+                        try(Repository repository = openRepository(); Git git = Git.wrap(repository)) {
+                            // Export, only writing files that have changed and staging them in the index as they are written
+                            GraficoModelExporter exporter = new GraficoModelExporter(model, getLocalRepositoryFolder());
+                            exporter.setIncremental(true);
+                            exporter.setRepository(repository);
+                            exporter.exportModel();
+
+                            // The files could not be staged because the index has conflicts so add them to the index now - this can take a long time!
+                            // This will clear any different line endings and calls to git.status() will be faster
+                            if(exporter.getChangedPaths() == null) {
+                                AddCommand addCommand = git.add();
+                                addCommand.addFilepattern("."); //$NON-NLS-1$
+                                addCommand.setUpdate(false);
+                                addCommand.call();
+                            }
                         }
                     }
                     catch(IOException | GitAPIException ex) {
@@ -407,8 +514,8 @@ public class ArchiRepository implements IArchiRepository {
     
     @Override
     public PersonIdent getUserDetails() throws IOException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
-            StoredConfig config = git.getRepository().getConfig();
+        try(Repository repository = openRepository()) {
+            StoredConfig config = repository.getConfig();
             String name = StringUtils.safeString(config.getString(ConfigConstants.CONFIG_USER_SECTION, null, ConfigConstants.CONFIG_KEY_NAME));
             String email = StringUtils.safeString(config.getString(ConfigConstants.CONFIG_USER_SECTION, null, ConfigConstants.CONFIG_KEY_EMAIL));
             return new PersonIdent(name, email);
@@ -428,8 +535,8 @@ public class ArchiRepository implements IArchiRepository {
         }
         
         // Save to local config
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
-            StoredConfig config = git.getRepository().getConfig();
+        try(Repository repository = openRepository()) {
+            StoredConfig config = repository.getConfig();
             
             // If global name == local name or blank then unset
             if(!StringUtils.isSet(name) || global.getName().equals(name)) {
@@ -460,6 +567,13 @@ public class ArchiRepository implements IArchiRepository {
         return false;
     }
     
+    /**
+     * @return The shared Repository for this repository's folder from the RepositoryPool. The caller must close it.
+     */
+    private Repository openRepository() throws IOException {
+        return RepositoryPool.open(getLocalRepositoryFolder());
+    }
+    
     /**
      * Set default settings in the config file 
      * @param repository
@@ -503,84 +617,21 @@ public class ArchiRepository implements IArchiRepository {
     
     @Override
     public boolean hasLocalChanges() throws IOException {
-        String latestChecksum = getLatestChecksum();
-        if(latestChecksum == null) {
-            return false;
-        }
-
-        String currentChecksum = createChecksum();
-        return !latestChecksum.equals(currentChecksum);
+        return ModelChecksum.hasChanges(getTempModelFile(), getChecksumFile());
     }
 
     @Override
     public boolean saveChecksum() throws IOException {
-        // Get the file's checksum as string
-        String checksum = createChecksum();
-        if(checksum == null) {
-            return false;
-        }
-
-        File checksumFile = new File(getLocalGitFolder(), "checksum"); //$NON-NLS-1$
-        Files.write(Paths.get(checksumFile.getAbsolutePath()), checksum.getBytes(), StandardOpenOption.CREATE);
-        
-        return true;
+        return ModelChecksum.save(getTempModelFile(), getChecksumFile());
     }
     
     @Override
     public BranchStatus getBranchStatus() throws IOException, GitAPIException {
-        return new BranchStatus(this);
+        return BranchStatusCache.INSTANCE.getBranchStatus(this);
     }
     
-    private String getLatestChecksum() throws IOException {
-        File checksumFile = new File(getLocalGitFolder(), "checksum"); //$NON-NLS-1$
-        if(!checksumFile.exists()) {
-            return null;
-        }
-        
-        byte[] bytes = Files.readAllBytes(Paths.get(checksumFile.getAbsolutePath()));
-        return new String(bytes);
-    }
-    
-    private String createChecksum() throws IOException {
-        File tempFile = getTempModelFile();
-        
-        if(tempFile == null) {
-            return null;
-        }
-        
-        MessageDigest digest = null;
-        try {
-            digest = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
-        }
-        catch(NoSuchAlgorithmException ex) {
-            throw new IOException("NoSuchAlgorithm Exception", ex); //$NON-NLS-1$
-        } 
-
-        // Get file input stream for reading the file content
-        FileInputStream fis = new FileInputStream(tempFile);
-
-        // Create byte array to read data in chunks
-        byte[] byteArray = new byte[1024];
-        int bytesCount = 0;
-
-        // Read file data and update in message digest
-        while((bytesCount = fis.read(byteArray)) != -1) {
-            digest.update(byteArray, 0, bytesCount);
-        }
-
-        fis.close();
-
-        // Get the hash's bytes
-        byte[] bytes = digest.digest();
-        
-        // This bytes[] has bytes in decimal format;
-        // Convert it to hexadecimal format
-        StringBuilder sb = new StringBuilder();
-        for(int i = 0; i < bytes.length; i++) {
-            sb.append(Integer.toString((bytes[i] & 0xff) + 0x100, 16).substring(1));
-        }
-        
-        return sb.toString();
+    private File getChecksumFile() {
+        return new File(getLocalGitFolder(), "checksum"); //$NON-NLS-1$
     }
     
     /**
@@ -7,19 +7,15 @@ package org.archicontribs.modelrepository.grafico;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.List;
 
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.ListBranchCommand.ListMode;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.BranchConfig;
-import org.eclipse.jgit.lib.BranchTrackingStatus;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevWalk;
-import org.eclipse.jgit.revwalk.RevWalkUtils;
 
 /**
  * BranchInfo
@@ -52,21 +48,76 @@ public class BranchInfo {
         init(repository, ref);
     }
     
+    BranchInfo(Repository repository, Ref ref, BranchStatusWalk walk) throws IOException {
+        repoDir = repository.getWorkTree();
+        init(repository, ref, walk);
+    }
+    
+    /**
+     * Create a BranchInfo for a ref that has not moved since previous was created.
+     * The commit status and merged status are copied from previous unless the refs they depend on have changed.
+     */
+    BranchInfo(Repository repository, Ref ref, BranchInfo previous, BranchStatus.RefChanges changes, BranchStatusWalk walk) throws IOException {
+        repoDir = repository.getWorkTree();
+        this.ref = ref;
+        
+        initRefStatus(repository);
+        
+        // Ahead and behind counts depend on the local and remote refs
+        if(changes.hasMoved(getLocalBranchNameFor()) || changes.hasMoved(getRemoteBranchNameFor())) {
+            getCommitStatus(walk);
+        }
+        else {
+            hasUnpushedCommits = previous.hasUnpushedCommits;
+            hasRemoteCommits = previous.hasRemoteCommits;
+        }
+        
+        latestCommit = previous.latestCommit;
+        
+        // Merged before and no ref has been removed or moved so it is still merged
+        if(previous.isMerged && !changes.hasRemovedOrMovedRefs()) {
+            isMerged = true;
+        }
+        // Not merged before and no ref has been added or moved so it is still not merged
+        else if(!previous.isMerged && changes.getMovedRefs().isEmpty()) {
+            isMerged = false;
+        }
+        else {
+            isMerged = isMasterBranch() || walk.isMerged(ref);
+        }
+    }
+    
     /**
      * Initialise this BranchInfo from the Repository and the Ref
      */
     private void init(Repository repository, Ref ref) throws IOException, GitAPIException {
+        try(BranchStatusWalk walk = new BranchStatusWalk(repository, Git.wrap(repository).branchList().setListMode(ListMode.ALL).call())) {
+            init(repository, ref, walk);
+        }
+    }
+    
+    private void init(Repository repository, Ref ref, BranchStatusWalk walk) throws IOException {
         this.ref = ref;
         
-        hasLocalRef = getHasLocalRef(repository);
-        hasRemoteRef = getHasRemoteRef(repository);
+        initRefStatus(repository);
 
-        getCommitStatus(repository);
+        getCommitStatus(walk);
+        
+        latestCommit = walk.getLatestCommit(ref);
         
+        // If this is the master branch isMerged is true
+        // Else this is merged if other branches are reachable from it
+        isMerged = isMasterBranch() || walk.isMerged(ref);
+    }
+    
+    /**
+     * Initialise the status that only depends on the existence of refs, the config and HEAD
+     */
+    private void initRefStatus(Repository repository) throws IOException {
+        hasLocalRef = getHasLocalRef(repository);
+        hasRemoteRef = getHasRemoteRef(repository);
         isRemoteDeleted = getIsRemoteDeleted(repository);
         isCurrentBranch = getIsCurrentBranch(repository);
-        
-        getRevWalkStatus(repository);
     }
     
     /**
@@ -75,9 +126,9 @@ public class BranchInfo {
      * @throws GitAPIException
      */
     public void refresh() throws IOException, GitAPIException {
-        try(Git git = Git.open(repoDir)) {
-            Ref ref = git.getRepository().findRef(getFullName());  // Ref will be a different object with a new Repository instance so renew it
-            init(git.getRepository(), ref);
+        try(Repository repository = RepositoryPool.open(repoDir)) {
+            Ref ref = repository.findRef(getFullName());  // Ref may have moved so renew it
+            init(repository, ref);
         }
     }
     
@@ -194,53 +245,11 @@ public class BranchInfo {
         return branchName;
     }
     
-    /**
-     * Get status of this branch from a RevWalk
-     * This will get the latest commit for this branch
-     * and whether this branch is merged into another
-     */
-    private void getRevWalkStatus(Repository repository) throws GitAPIException, IOException {
-        try(RevWalk revWalk = new RevWalk(repository)) {
-            // Get the latest commit for this branch
-            latestCommit = revWalk.parseCommit(ref.getObjectId());
-            
-            // If this is the master branch isMerged is true
-            if(isMasterBranch()) {
-                isMerged = true;
-            }
-            // Else this is another branch
-            else {
-                // Get all other branch refs
-            	// Setting ListMode to REMOTE lists only remote branches while ALL lists remote and local branches
-                List<Ref> otherRefs = Git.wrap(repository).branchList().setListMode(ListMode.ALL).call();
-                otherRefs.remove(ref); // remove this one
-                
-                // In-built method
-                List<Ref> refs = RevWalkUtils.findBranchesReachableFrom(latestCommit, revWalk, otherRefs);
-                isMerged = !refs.isEmpty(); // If there are other reachable branches then this is merged
-                
-                /* Another method to do this...
-                for(Ref otherRef : otherRefs) {
-                    // Get the other branch's latest commit
-                    RevCommit otherHead = revWalk.parseCommit(otherRef.getObjectId());
-
-                    // If this head is an ancestor of, or the same as, the other head then this is merged
-                    if(revWalk.isMergedInto(latestCommit, otherHead)) {
-                        isMerged = true;
-                        break;
-                    }
-                } */
-            }
-            
-            revWalk.dispose();
-        }
-    }
-    
-    private void getCommitStatus(Repository repository) throws IOException {
-        BranchTrackingStatus trackingStatus = BranchTrackingStatus.of(repository, getShortName());
+    private void getCommitStatus(BranchStatusWalk walk) throws IOException {
+        int[] trackingStatus = walk.getTrackingStatus(getShortName());
         if(trackingStatus != null) {
-            hasUnpushedCommits = trackingStatus.getAheadCount() > 0;
-            hasRemoteCommits = trackingStatus.getBehindCount() > 0;
+            hasUnpushedCommits = trackingStatus[0] > 0;
+            hasRemoteCommits = trackingStatus[1] > 0;
         }
     }
 
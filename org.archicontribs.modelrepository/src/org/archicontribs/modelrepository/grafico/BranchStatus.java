@@ -8,8 +8,11 @@ package org.archicontribs.modelrepository.grafico;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.eclipse.jgit.api.Git;
@@ -31,29 +34,65 @@ public class BranchStatus {
     private BranchInfo currentRemoteBranch;
     
     BranchStatus(IArchiRepository archiRepo) throws IOException, GitAPIException {
-        try(Git git = Git.open(archiRepo.getLocalRepositoryFolder())) {
-            Repository repository = git.getRepository();
-
-            // Get all known branches
-            for(Ref ref : git.branchList().setListMode(ListMode.ALL).call()) {
-                BranchInfo info = new BranchInfo(repository, ref);
+        try(Repository repository = RepositoryPool.open(archiRepo.getLocalRepositoryFolder())) {
+            init(repository, Git.wrap(repository).branchList().setListMode(ListMode.ALL).call(), null);
+        }
+    }
+    
+    /**
+     * Create a new BranchStatus from the given refs re-using the BranchInfos in previous for refs that have not moved
+     * @param previous The previous BranchStatus for this repository, or null to compute everything
+     */
+    BranchStatus(Repository repository, List<Ref> refs, BranchStatus previous) throws IOException, GitAPIException {
+        init(repository, refs, previous);
+    }
+    
+    private void init(Repository repository, List<Ref> refs, BranchStatus previous) throws IOException, GitAPIException {
+        RefChanges changes = previous != null ? new RefChanges(previous, refs) : null;
+        
+        // Get all known branches sharing one walk of the commits
+        try(BranchStatusWalk walk = new BranchStatusWalk(repository, refs)) {
+            for(Ref ref : refs) {
+                BranchInfo previousInfo = previous != null ? previous.infos.get(ref.getName()) : null;
+                
+                BranchInfo info = previousInfo != null && !changes.hasMoved(ref.getName()) ?
+                        new BranchInfo(repository, ref, previousInfo, changes, walk) : new BranchInfo(repository, ref, walk);
+                
                 infos.put(info.getFullName(), info);
             }
-            
-            // Get current local branch
-            String head = repository.getFullBranch();
-            if(head != null) {
-                currentLocalBranch = infos.get(head);
+        }
+        
+        // Get current local branch
+        String head = repository.getFullBranch();
+        if(head != null) {
+            currentLocalBranch = infos.get(head);
+        }
+        
+        // Get current remote branch
+        if(currentLocalBranch != null) {
+            String remoteName = currentLocalBranch.getRemoteBranchNameFor();
+            if(remoteName != null) {
+                currentRemoteBranch = infos.get(remoteName);
             }
-            
-            // Get current remote branch
-            if(currentLocalBranch != null) {
-                String remoteName = currentLocalBranch.getRemoteBranchNameFor();
-                if(remoteName != null) {
-                    currentRemoteBranch = infos.get(remoteName);
-                }
+        }
+    }
+    
+    /**
+     * @return true if the given refs are the same refs pointing to the same commits as in this BranchStatus
+     */
+    boolean hasSameRefs(List<Ref> refs) {
+        if(refs.size() != infos.size()) {
+            return false;
+        }
+        
+        for(Ref ref : refs) {
+            BranchInfo info = infos.get(ref.getName());
+            if(info == null || !Objects.equals(info.getRef().getObjectId(), ref.getObjectId())) {
+                return false;
             }
         }
+        
+        return true;
     }
     
     /**
@@ -98,4 +137,60 @@ public class BranchStatus {
     public BranchInfo getCurrentRemoteBranch() {
         return currentRemoteBranch;
     }
+    
+    /**
+     * Refs that have been added, removed or have moved since a previous BranchStatus
+     */
+    static class RefChanges {
+        private Set<String> movedRefNames = new HashSet<>();
+        private List<Ref> movedRefs = new ArrayList<>();
+        private boolean hasRemovedOrMovedRefs;
+        
+        RefChanges(BranchStatus previous, List<Ref> refs) {
+            Set<String> names = new HashSet<>();
+            
+            for(Ref ref : refs) {
+                names.add(ref.getName());
+                
+                BranchInfo info = previous.infos.get(ref.getName());
+                if(info == null) {
+                    movedRefNames.add(ref.getName());
+                    movedRefs.add(ref);
+                }
+                else if(!Objects.equals(info.getRef().getObjectId(), ref.getObjectId())) {
+                    movedRefNames.add(ref.getName());
+                    movedRefs.add(ref);
+                    hasRemovedOrMovedRefs = true;
+                }
+            }
+            
+            for(String name : previous.infos.keySet()) {
+                if(!names.contains(name)) {
+                    movedRefNames.add(name);
+                    hasRemovedOrMovedRefs = true;
+                }
+            }
+        }
+        
+        /**
+         * @return true if the ref has been added, removed or points to a different commit
+         */
+        boolean hasMoved(String refName) {
+            return movedRefNames.contains(refName);
+        }
+        
+        /**
+         * @return The refs that have been added or point to a different commit
+         */
+        List<Ref> getMovedRefs() {
+            return movedRefs;
+        }
+        
+        /**
+         * @return true if any ref has been removed or points to a different commit
+         */
+        boolean hasRemovedOrMovedRefs() {
+            return hasRemovedOrMovedRefs;
+        }
+    }
 }
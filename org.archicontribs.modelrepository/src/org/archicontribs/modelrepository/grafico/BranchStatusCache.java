@@ -0,0 +1,89 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ListBranchCommand.ListMode;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Cache of BranchStatus per repository
+ * 
+ * A cached BranchStatus is returned while the branch refs, HEAD and the repository config are unchanged.
+ * If any of these have changed a new BranchStatus is created that only recomputes the BranchInfos affected by the refs that moved.
+ */
+class BranchStatusCache implements IRepositoryListener {
+    
+    static final BranchStatusCache INSTANCE = new BranchStatusCache();
+    
+    private static class Entry {
+        BranchStatus status;
+        String head;
+        long configModified;
+    }
+    
+    private Map<File, Entry> fEntries = new ConcurrentHashMap<>();
+    
+    private BranchStatusCache() {
+        RepositoryListenerManager.INSTANCE.addListener(this);
+    }
+    
+    BranchStatus getBranchStatus(IArchiRepository archiRepo) throws IOException, GitAPIException {
+        File folder = archiRepo.getLocalRepositoryFolder().getAbsoluteFile();
+        
+        try(Repository repository = RepositoryPool.open(folder)) {
+            Git git = Git.wrap(repository);
+            
+            // Listing the refs is cheap as loose and packed refs are only re-read if their files have changed
+            List<Ref> refs = git.branchList().setListMode(ListMode.ALL).call();
+            String head = repository.getFullBranch();
+            long configModified = new File(repository.getDirectory(), Constants.CONFIG).lastModified();
+            
+            Entry entry = fEntries.get(folder);
+            
+            // Unchanged
+            if(entry != null && entry.configModified == configModified && Objects.equals(entry.head, head)
+                    && entry.status.hasSameRefs(refs)) {
+                return entry.status;
+            }
+            
+            // The config holds the tracked branches so if it changed compute everything
+            BranchStatus previous = entry != null && entry.configModified == configModified ? entry.status : null;
+            
+            Entry newEntry = new Entry();
+            newEntry.status = new BranchStatus(repository, refs, previous);
+            newEntry.head = head;
+            newEntry.configModified = configModified;
+            fEntries.put(folder, newEntry);
+            
+            return newEntry.status;
+        }
+    }
+    
+    /**
+     * Remove the cached BranchStatus for a repository
+     */
+    void remove(File localRepoFolder) {
+        fEntries.remove(localRepoFolder.getAbsoluteFile());
+    }
+    
+    @Override
+    public void repositoryChanged(String eventName, IArchiRepository repository) {
+        if(IRepositoryListener.REPOSITORY_DELETED.equals(eventName)) {
+            remove(repository.getLocalRepositoryFolder());
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jgit.lib.BranchConfig;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.RevWalkUtils;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+
+/**
+ * Computes the latest commit, merged status and ahead/behind counts for all branches with one shared RevWalk.
+ * 
+ * A branch is merged if another branch points to the same commit or its latest commit is an ancestor of another branch's
+ * latest commit. This is found for all branches together in one walk from the parents of all the latest commits,
+ * rather than one walk per branch against all the other branches.
+ * Results are computed when first asked for and then kept.
+ */
+class BranchStatusWalk implements AutoCloseable {
+    
+    private Repository fRepository;
+    
+    // Walk over the history without keeping commit bodies
+    private RevWalk fRevWalk;
+    
+    // The latest commits with their bodies
+    private RevWalk fLatestCommitsWalk;
+    
+    private Map<String, Ref> fRefs = new HashMap<>();
+    private Map<String, RevCommit> fLatestCommits = new HashMap<>();
+    
+    private Set<String> fMergedRefNames;
+    
+    private Map<String, int[]> fTrackingStatus = new HashMap<>();
+    
+    BranchStatusWalk(Repository repository, List<Ref> refs) throws IOException {
+        fRepository = repository;
+        
+        fRevWalk = new RevWalk(repository);
+        fRevWalk.setRetainBody(false);
+        
+        fLatestCommitsWalk = new RevWalk(repository);
+        
+        for(Ref ref : refs) {
+            fRefs.put(ref.getName(), ref);
+            fLatestCommits.put(ref.getName(), fLatestCommitsWalk.parseCommit(ref.getObjectId()));
+        }
+    }
+    
+    /**
+     * @return The latest commit of the ref
+     */
+    RevCommit getLatestCommit(Ref ref) throws IOException {
+        RevCommit commit = fLatestCommits.get(ref.getName());
+        return commit != null ? commit : fLatestCommitsWalk.parseCommit(ref.getObjectId());
+    }
+    
+    /**
+     * @return true if the ref's latest commit is reachable from another ref
+     */
+    boolean isMerged(Ref ref) throws IOException {
+        if(fMergedRefNames == null) {
+            fMergedRefNames = findMergedRefNames();
+        }
+        return fMergedRefNames.contains(ref.getName());
+    }
+    
+    /**
+     * @return The number of commits that the local branch with the short name is ahead of and behind its tracked branch
+     *         as {ahead, behind}, or null if it is not tracking a branch
+     */
+    int[] getTrackingStatus(String shortName) throws IOException {
+        if(!fTrackingStatus.containsKey(shortName)) {
+            fTrackingStatus.put(shortName, calculateTrackingStatus(shortName));
+        }
+        return fTrackingStatus.get(shortName);
+    }
+    
+    private Set<String> findMergedRefNames() throws IOException {
+        Set<String> mergedRefNames = new HashSet<>();
+        
+        // Refs for each latest commit
+        Map<ObjectId, List<String>> refNamesForCommit = new HashMap<>();
+        for(Ref ref : fRefs.values()) {
+            refNamesForCommit.computeIfAbsent(ref.getObjectId(), id -> new ArrayList<>()).add(ref.getName());
+        }
+        
+        // Latest commits that are not yet known to be reachable from another ref
+        Set<ObjectId> pending = new HashSet<>();
+        
+        for(Map.Entry<ObjectId, List<String>> entry : refNamesForCommit.entrySet()) {
+            // More than one ref points to this commit
+            if(entry.getValue().size() > 1) {
+                mergedRefNames.addAll(entry.getValue());
+            }
+            else {
+                pending.add(entry.getKey());
+            }
+        }
+        
+        if(pending.isEmpty()) {
+            return mergedRefNames;
+        }
+        
+        // Walk from the parents of all latest commits so that any latest commit we meet is an ancestor of another one
+        fRevWalk.reset();
+        fRevWalk.setRevFilter(RevFilter.ALL);
+        
+        for(ObjectId id : refNamesForCommit.keySet()) {
+            for(RevCommit parent : fRevWalk.parseCommit(id).getParents()) {
+                fRevWalk.markStart(fRevWalk.parseCommit(parent)); // Ignored if already started
+            }
+        }
+        
+        RevCommit commit;
+        while(!pending.isEmpty() && (commit = fRevWalk.next()) != null) {
+            if(pending.remove(commit)) {
+                mergedRefNames.addAll(refNamesForCommit.get(commit));
+            }
+        }
+        
+        return mergedRefNames;
+    }
+    
+    /**
+     * This is the same as BranchTrackingStatus but re-uses our RevWalk and the commits already parsed in it
+     */
+    private int[] calculateTrackingStatus(String shortName) throws IOException {
+        String trackingBranch = new BranchConfig(fRepository.getConfig(), shortName).getTrackingBranch();
+        if(trackingBranch == null) {
+            return null;
+        }
+        
+        Ref trackingRef = getRef(trackingBranch);
+        Ref localRef = getRef(Constants.R_HEADS + shortName);
+        if(trackingRef == null || localRef == null) {
+            return null;
+        }
+        
+        RevCommit localCommit = fRevWalk.parseCommit(localRef.getObjectId());
+        RevCommit trackingCommit = fRevWalk.parseCommit(trackingRef.getObjectId());
+        
+        fRevWalk.reset();
+        fRevWalk.setRevFilter(RevFilter.MERGE_BASE);
+        fRevWalk.markStart(localCommit);
+        fRevWalk.markStart(trackingCommit);
+        RevCommit mergeBase = fRevWalk.next();
+        
+        fRevWalk.reset();
+        fRevWalk.setRevFilter(RevFilter.ALL);
+        int aheadCount = RevWalkUtils.count(fRevWalk, localCommit, mergeBase);
+        int behindCount = RevWalkUtils.count(fRevWalk, trackingCommit, mergeBase);
+        
+        return new int[] { aheadCount, behindCount };
+    }
+    
+    private Ref getRef(String name) throws IOException {
+        Ref ref = fRefs.get(name);
+        return ref != null ? ref : fRepository.exactRef(name);
+    }
+    
+    @Override
+    public void close() {
+        fRevWalk.close();
+        fLatestCommitsWalk.close();
+    }
+}
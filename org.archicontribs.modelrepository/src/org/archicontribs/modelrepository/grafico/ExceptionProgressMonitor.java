@@ -0,0 +1,26 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.IOException;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+
+/**
+ * Use a ProgressMonitor to cancel running Jobs and track Exception
+ */
+class ExceptionProgressMonitor extends NullProgressMonitor {
+    
+    IOException ex;
+    
+    synchronized void catchException(IOException ex) {
+        // Keep the first one
+        if(this.ex == null) {
+            this.ex = ex;
+        }
+        setCanceled(true); // Cancel running job on exception
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import com.archimatetool.model.IArchimateModel;
+
+/**
+ * Commits a model as Grafico files directly to a ref without using a working tree, a temp.archimate file or the index.
+ * 
+ * The model is serialized to blobs in memory and written to the object database together with the trees and the commit,
+ * in one pack if the repository is file based. Files in the parent commit that are not in the model or images folders are kept.
+ * 
+ * This is meant for generating commits in batch jobs, typically in a bare repository.
+ * If the ref is checked out in a working tree then the working tree and index are not updated.
+ */
+public class GraficoCommitWriter {
+    
+    private File fRepoFolder;
+    private String fRefName = Constants.HEAD;
+    private PersonIdent fAuthor;
+    private PersonIdent fCommitter;
+    
+    /**
+     * @param repoFolder The repository folder. This can be a working folder, its .git folder or a bare repository.
+     */
+    public GraficoCommitWriter(File repoFolder) {
+        if(repoFolder == null) {
+            throw new IllegalArgumentException("Folder cannot be null"); //$NON-NLS-1$
+        }
+        
+        fRepoFolder = repoFolder;
+    }
+    
+    /**
+     * @param refName The ref to commit on, such as "refs/heads/master", or a branch name such as "master". The default is HEAD.
+     */
+    public void setRef(String refName) {
+        // A branch name. The ref is updated with the name as given so it has to be the full name.
+        if(!Constants.HEAD.equals(refName) && !refName.startsWith(Constants.R_REFS)) {
+            refName = Constants.R_HEADS + refName;
+        }
+        
+        fRefName = refName;
+    }
+    
+    /**
+     * @param author The author. The default is the user in the repository's config.
+     */
+    public void setAuthor(PersonIdent author) {
+        fAuthor = author;
+    }
+    
+    /**
+     * @param committer The committer. The default is the author.
+     */
+    public void setCommitter(PersonIdent committer) {
+        fCommitter = committer;
+    }
+    
+    /**
+     * Commit the model to the ref
+     * @param model The model
+     * @param commitMessage The commit message
+     * @return The new commit's id or null if the model is the same as in the ref's commit
+     * @throws IOException if the model could not be exported or the ref could not be updated
+     */
+    public String commitModel(IArchimateModel model, String commitMessage) throws IOException {
+        try(Repository repository = RepositoryPool.open(fRepoFolder)) {
+            RevCommit commit = commitModel(repository, model, commitMessage);
+            return commit != null ? commit.getName() : null;
+        }
+    }
+    
+    private RevCommit commitModel(Repository repository, IArchimateModel model, String commitMessage) throws IOException {
+        ObjectId parentId = repository.resolve(fRefName);
+        
+        try(ObjectInserter inserter = newObjectInserter(repository); RevWalk revWalk = new RevWalk(repository)) {
+            RevCommit parent = parentId != null ? revWalk.parseCommit(parentId) : null;
+            
+            DirCache dirCache = DirCache.newInCore();
+            DirCacheBuilder builder = dirCache.builder();
+            
+            // Keep other files in the parent commit
+            if(parent != null) {
+                addOtherFiles(repository, parent, builder);
+            }
+            
+            // Export the model and insert the blobs. Files are never written so the root folder is only used to get the paths.
+            File rootFolder = repository.getDirectory().getAbsoluteFile();
+            GraficoModelExporter exporter = new GraficoModelExporter(model, rootFolder);
+            
+            exporter.exportModel((file, bytes) -> {
+                String path = rootFolder.toPath().relativize(file.getAbsoluteFile().toPath()).toString().replace(File.separatorChar, '/');
+                
+                DirCacheEntry entry = new DirCacheEntry(path);
+                entry.setFileMode(FileMode.REGULAR_FILE);
+                
+                // Object inserters and builders are not thread safe
+                synchronized(inserter) {
+                    entry.setObjectId(inserter.insert(Constants.OBJ_BLOB, bytes));
+                }
+                synchronized(builder) {
+                    builder.add(entry);
+                }
+            });
+            
+            builder.finish();
+            ObjectId treeId = dirCache.writeTree(inserter);
+            
+            // Nothing changed
+            if(parent != null && treeId.equals(parent.getTree())) {
+                return null;
+            }
+            
+            PersonIdent author = fAuthor != null ? fAuthor : new PersonIdent(repository);
+            
+            CommitBuilder commitBuilder = new CommitBuilder();
+            commitBuilder.setTreeId(treeId);
+            if(parent != null) {
+                commitBuilder.setParentId(parent);
+            }
+            commitBuilder.setAuthor(author);
+            commitBuilder.setCommitter(fCommitter != null ? fCommitter : author);
+            commitBuilder.setMessage(commitMessage);
+            
+            ObjectId commitId = inserter.insert(commitBuilder);
+            inserter.flush();
+            
+            // Update the ref if it has not moved in the meantime
+            RevCommit commit = revWalk.parseCommit(commitId);
+            
+            RefUpdate refUpdate = repository.updateRef(fRefName);
+            refUpdate.setNewObjectId(commit);
+            refUpdate.setExpectedOldObjectId(parentId != null ? parentId : ObjectId.zeroId());
+            refUpdate.setRefLogMessage("commit: " + commit.getShortMessage(), false); //$NON-NLS-1$
+            
+            RefUpdate.Result result = refUpdate.update(revWalk);
+            switch(result) {
+                case NEW:
+                case FAST_FORWARD:
+                    return commit;
+                
+                default:
+                    throw new IOException("Could not update " + fRefName + ": " + result); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        }
+    }
+    
+    /**
+     * Add the files in commit that are not in the model or images folders
+     */
+    private void addOtherFiles(Repository repository, RevCommit commit, DirCacheBuilder builder) throws IOException {
+        try(TreeWalk treeWalk = new TreeWalk(repository)) {
+            treeWalk.addTree(commit.getTree());
+            
+            while(treeWalk.next()) {
+                String path = treeWalk.getPathString();
+                
+                if(treeWalk.isSubtree()) {
+                    if(!path.equals(IGraficoConstants.MODEL_FOLDER) && !path.equals(IGraficoConstants.IMAGES_FOLDER)) {
+                        treeWalk.enterSubtree();
+                    }
+                }
+                else {
+                    DirCacheEntry entry = new DirCacheEntry(path);
+                    entry.setFileMode(treeWalk.getFileMode(0));
+                    entry.setObjectId(treeWalk.getObjectId(0));
+                    builder.add(entry);
+                }
+            }
+        }
+    }
+    
+    /**
+     * @return An inserter that writes all objects to one pack if possible rather than one loose object file each
+     */
+    private ObjectInserter newObjectInserter(Repository repository) {
+        if(repository.getObjectDatabase() instanceof ObjectDirectory) {
+            return ((ObjectDirectory)repository.getObjectDatabase()).newPackInserter();
+        }
+        
+        return repository.newObjectInserter();
+    }
+}
@@ -0,0 +1,221 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Index of the last version of every file name in the commit history, used to restore missing objects.
+ * 
+ * The index is built in one pass over the first parent history of HEAD. Each commit's tree is only compared to its
+ * first parent's tree so only files that were added, changed or deleted in a commit are looked at and unchanged sub-trees
+ * are skipped. A merge commit brings in the changes from the merged branch in the same way, so the version of a file
+ * is always the one in HEAD's own history. Commits are visited newest first and the first version found for a file name
+ * is kept. For a deleted file that is the version before it was deleted.
+ * 
+ * The index is saved in the .git folder with the commit it was built from. When it is next used only the commits since
+ * then are looked at, so restoring objects is quick once the index exists. If that commit is not in the first parent
+ * history of HEAD any more, for example after switching branches, the index is built again.
+ */
+class GraficoHistoryIndex {
+    
+    /**
+     * Name of the index file in the .git folder
+     */
+    static final String INDEX_FILENAME = "grafico_history_index"; //$NON-NLS-1$
+    
+    private static final String VERSION = "grafico-history-index 2"; //$NON-NLS-1$
+    
+    /**
+     * The last version of a file
+     */
+    static class Entry {
+        /**
+         * The path of the file in the commit
+         */
+        final String path;
+        
+        /**
+         * The file's blob
+         */
+        final ObjectId blobId;
+        
+        Entry(String path, ObjectId blobId) {
+            this.path = path;
+            this.blobId = blobId;
+        }
+    }
+    
+    private Repository fRepository;
+    private File fIndexFile;
+    
+    // The commit whose history has been indexed
+    private ObjectId fTip;
+    
+    // File name -> Entry
+    private Map<String, Entry> fEntries = new HashMap<>();
+    
+    /**
+     * Load the index for a repository and bring it up to date with the history of HEAD
+     */
+    static GraficoHistoryIndex open(Repository repository) throws IOException {
+        GraficoHistoryIndex index = new GraficoHistoryIndex(repository);
+        index.load();
+        index.update();
+        return index;
+    }
+    
+    private GraficoHistoryIndex(Repository repository) {
+        fRepository = repository;
+        fIndexFile = new File(repository.getDirectory(), INDEX_FILENAME);
+    }
+    
+    /**
+     * @param fileName A file name without its path
+     * @return The last version of the file in the history, or null if it was never committed
+     */
+    Entry get(String fileName) {
+        return fEntries.get(fileName);
+    }
+    
+    /**
+     * Index commits in the first parent history of HEAD that are not yet indexed and save the index if any were found
+     */
+    private void update() throws IOException {
+        ObjectId head = fRepository.resolve(IGraficoConstants.HEAD);
+        if(head == null || head.equals(fTip)) {
+            return;
+        }
+        
+        Map<String, Entry> newEntries = new HashMap<>();
+        boolean reachedTip = false;
+        
+        try(RevWalk revWalk = new RevWalk(fRepository); TreeWalk treeWalk = new TreeWalk(fRepository)) {
+            // Only the trees and parents are needed
+            revWalk.setRetainBody(false);
+            
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(TreeFilter.ANY_DIFF);
+            
+            // Walk the first parents back to the indexed commit, or to the first commit
+            RevCommit commit = revWalk.parseCommit(head);
+            
+            while(commit != null) {
+                if(commit.equals(fTip)) {
+                    reachedTip = true;
+                    break;
+                }
+                
+                RevCommit parent = commit.getParentCount() > 0 ? revWalk.parseCommit(commit.getParent(0)) : null;
+                
+                treeWalk.reset();
+                treeWalk.addTree(commit.getTree());
+                
+                if(parent != null) {
+                    treeWalk.addTree(parent.getTree());
+                }
+                else {
+                    treeWalk.addTree(new EmptyTreeIterator());
+                }
+                
+                while(treeWalk.next()) {
+                    String fileName = treeWalk.getNameString();
+                    if(newEntries.containsKey(fileName)) {
+                        continue;
+                    }
+                    
+                    // Use the version in this commit, or in the parent if it was deleted in this commit
+                    int tree = treeWalk.getFileMode(0) != FileMode.MISSING ? 0 : 1;
+                    if(treeWalk.getFileMode(tree).getObjectType() == Constants.OBJ_BLOB) {
+                        newEntries.put(fileName, new Entry(treeWalk.getPathString(), treeWalk.getObjectId(tree)));
+                    }
+                }
+                
+                commit = parent;
+            }
+        }
+        
+        // The indexed commit is not in the history of HEAD so its entries can't be used
+        if(!reachedTip) {
+            fEntries.clear();
+        }
+        
+        // Newer versions replace older ones
+        fEntries.putAll(newEntries);
+        fTip = head.copy();
+        
+        save();
+    }
+    
+    /**
+     * Load the saved index. If it can't be read it is rebuilt.
+     */
+    private void load() {
+        if(!fIndexFile.exists()) {
+            return;
+        }
+        
+        try(BufferedReader reader = Files.newBufferedReader(fIndexFile.toPath(), StandardCharsets.UTF_8)) {
+            if(!VERSION.equals(reader.readLine())) {
+                return;
+            }
+            
+            // The indexed commit, then entries of file name, blob id and path
+            fTip = ObjectId.fromString(reader.readLine());
+            
+            String line;
+            while((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 3); //$NON-NLS-1$
+                fEntries.put(fields[0], new Entry(fields[2], ObjectId.fromString(fields[1])));
+            }
+        }
+        catch(IOException | RuntimeException ex) {
+            ex.printStackTrace();
+            fTip = null;
+            fEntries.clear();
+        }
+    }
+    
+    /**
+     * Save the index. It is written to a temporary file first so that a partly written index is never read.
+     */
+    private void save() throws IOException {
+        File tmpFile = new File(fIndexFile.getPath() + ".tmp"); //$NON-NLS-1$
+        
+        try(BufferedWriter writer = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(VERSION);
+            writer.newLine();
+            
+            writer.write(fTip.name());
+            writer.newLine();
+            
+            for(Map.Entry<String, Entry> e : fEntries.entrySet()) {
+                writer.write(e.getKey() + "\t" + e.getValue().blobId.name() + "\t" + e.getValue().path); //$NON-NLS-1$ //$NON-NLS-2$
+                writer.newLine();
+            }
+        }
+        
+        Files.move(tmpFile.toPath(), fIndexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,327 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEditor.DeletePath;
+import org.eclipse.jgit.dircache.DirCacheEditor.PathEdit;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.CoreConfig.AutoCRLF;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.WorkingTreeOptions;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.io.AutoLFInputStream;
+import org.eclipse.jgit.util.io.AutoLFInputStream.StreamFlag;
+
+/**
+ * Writes Grafico files to the working tree and stages them in the index at the same time.
+ * 
+ * Each file's content is already in memory so its blob id is computed from that. If the index already has that blob id
+ * for the path and the file on disk is unchanged since it was staged then nothing is written.
+ * Otherwise the file is written, the blob is inserted into the object database and the index entry is updated
+ * with the blob id, size and modification time. Index entries in the model and images folders that were not written
+ * are removed. All blobs are inserted with one inserter, which writes them to one pack if possible, and are flushed in commit()
+ * before all index changes are applied with one lock of the index.
+ * 
+ * This saves a "git add" over the whole working tree which has to read and hash every file.
+ * 
+ * Files already in the working tree can also be staged with add() and remove() so that all changes to the index
+ * are made in one edit rather than one "git add" or "git rm" command each, which would rewrite the index every time.
+ * 
+ * write() is thread safe. If commit() is not called close() should be called to release the inserter.
+ */
+class GraficoIndexWriter implements GraficoModelExporter.IFileWriter {
+    
+    private Repository fRepository;
+    private File fWorkTree;
+    
+    // The index before any changes
+    private DirCache fDirCache;
+    
+    // Size and modification time of the index file before any changes
+    private long fIndexSize;
+    private long fIndexModified;
+    
+    // Convert CRLF to LF in text files as "git add" would do
+    private boolean fConvertCRLF;
+    
+    // Inserts the blobs of all staged files, created when the first file is staged
+    private ObjectInserter fInserter;
+    
+    // Index entries to add or update
+    private Map<String, DirCacheEntry> fEntries = new ConcurrentHashMap<>();
+    
+    // All paths written, changed or not
+    private Set<String> fPaths = ConcurrentHashMap.newKeySet();
+    
+    // Index entries to remove
+    private Set<String> fRemovedPaths = ConcurrentHashMap.newKeySet();
+    
+    // Index entries removed by commit()
+    private Set<String> fStalePaths = new HashSet<>();
+    
+    GraficoIndexWriter(Repository repository) throws IOException {
+        fRepository = repository;
+        fWorkTree = repository.getWorkTree().getAbsoluteFile();
+        fIndexSize = repository.getIndexFile().length();
+        fIndexModified = repository.getIndexFile().lastModified();
+        fDirCache = DirCache.read(repository);
+        fConvertCRLF = repository.getConfig().get(WorkingTreeOptions.KEY).getAutoCRLF() != AutoCRLF.FALSE;
+    }
+    
+    /**
+     * @return false if the index has conflicts and files should be added in the usual way instead
+     */
+    boolean canWrite() {
+        return !fDirCache.hasUnmergedPaths();
+    }
+    
+    /**
+     * Write bytes to file and stage it, unless the file and its index entry already have this content
+     * @param file The file in the working tree
+     * @param bytes The file's content
+     */
+    @Override
+    public void write(File file, byte[] bytes) throws IOException {
+        String path = getPath(file);
+        fPaths.add(path);
+        
+        byte[] blobBytes = getBlobBytes(bytes);
+        ObjectId blobId = new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, blobBytes);
+        
+        // Unchanged if the index has the same blob and the file hasn't changed since it was staged
+        DirCacheEntry entry = fDirCache.getEntry(path);
+        BasicFileAttributes attributes = getAttributes(file);
+        if(entry != null && blobId.equals(entry.getObjectId()) && attributes != null && !entry.isSmudged()
+                && attributes.size() == entry.getLength()
+                && attributes.lastModifiedTime().toInstant().equals(entry.getLastModifiedInstant())) {
+            return;
+        }
+        
+        // Write the file if it is different
+        if(attributes == null || attributes.size() != bytes.length || !Arrays.equals(Files.readAllBytes(file.toPath()), bytes)) {
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), bytes, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            attributes = getAttributes(file);
+        }
+        
+        stage(path, blobBytes, blobId, attributes);
+    }
+    
+    /**
+     * Stage a file as it is in the working tree
+     * @param file The file in the working tree
+     */
+    void add(File file) throws IOException {
+        String path = getPath(file);
+        fPaths.add(path);
+        
+        BasicFileAttributes attributes = getAttributes(file);
+        if(attributes == null) {
+            throw new IOException("Not a file: " + file); //$NON-NLS-1$
+        }
+        
+        byte[] blobBytes = getBlobBytes(Files.readAllBytes(file.toPath()));
+        stage(path, blobBytes, new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, blobBytes), attributes);
+    }
+    
+    /**
+     * Remove a path from the index
+     * @param path The path relative to the working tree
+     */
+    void remove(String path) {
+        fRemovedPaths.add(path);
+    }
+    
+    /**
+     * Insert the blob and add the index entry for path
+     */
+    private void stage(String path, byte[] blobBytes, ObjectId blobId, BasicFileAttributes attributes) throws IOException {
+        insert(blobBytes);
+        
+        DirCacheEntry newEntry = new DirCacheEntry(path);
+        newEntry.setFileMode(FileMode.REGULAR_FILE);
+        newEntry.setObjectId(blobId);
+        newEntry.setLength(attributes.size());
+        newEntry.setLastModified(attributes.lastModifiedTime().toInstant());
+        fEntries.put(path, newEntry);
+    }
+    
+    /**
+     * Insert a blob. The inserter is not thread safe so one thread inserts at a time.
+     */
+    private synchronized void insert(byte[] blobBytes) throws IOException {
+        if(fInserter == null) {
+            fInserter = newObjectInserter();
+        }
+        
+        fInserter.insert(Constants.OBJ_BLOB, blobBytes);
+    }
+    
+    /**
+     * @return An inserter that writes all objects to one pack if possible rather than one loose object file each
+     */
+    private ObjectInserter newObjectInserter() {
+        if(fRepository.getObjectDatabase() instanceof ObjectDirectory) {
+            return ((ObjectDirectory)fRepository.getObjectDatabase()).newPackInserter();
+        }
+        
+        return fRepository.newObjectInserter();
+    }
+    
+    /**
+     * Release the inserter. Blobs that were inserted and not flushed by commit() are discarded.
+     */
+    synchronized void close() {
+        if(fInserter != null) {
+            fInserter.close();
+            fInserter = null;
+        }
+    }
+    
+    /**
+     * Update the index with the files written or added, remove entries for removed paths
+     * and remove entries in the given folders for files that were not written or added
+     * @param folders Folders relative to the working tree whose index entries are replaced by the files written
+     */
+    void commit(String... folders) throws IOException {
+        // Write the inserted blobs before the index refers to them
+        synchronized(this) {
+            try {
+                if(fInserter != null) {
+                    fInserter.flush();
+                }
+            }
+            finally {
+                close();
+            }
+        }
+        
+        Set<String> stalePaths = fStalePaths;
+        stalePaths.addAll(fRemovedPaths);
+        for(String folder : folders) {
+            for(DirCacheEntry entry : fDirCache.getEntriesWithin(folder)) {
+                if(!fPaths.contains(entry.getPathString())) {
+                    stalePaths.add(entry.getPathString());
+                }
+            }
+        }
+        
+        if(fEntries.isEmpty() && stalePaths.isEmpty()) {
+            return;
+        }
+        
+        DirCache dirCache = fRepository.lockDirCache();
+        
+        try {
+            DirCacheEditor editor = dirCache.editor();
+            
+            for(DirCacheEntry newEntry : fEntries.values()) {
+                editor.add(new PathEdit(newEntry) {
+                    @Override
+                    public void apply(DirCacheEntry ent) {
+                        ent.setFileMode(newEntry.getFileMode());
+                        ent.setObjectId(newEntry.getObjectId());
+                        ent.setLength(newEntry.getLength());
+                        ent.setLastModified(newEntry.getLastModifiedInstant());
+                    }
+                });
+            }
+            
+            for(String path : stalePaths) {
+                editor.add(new DeletePath(path));
+            }
+            
+            editor.commit();
+        }
+        finally {
+            dirCache.unlock();
+        }
+    }
+    
+    /**
+     * @return The paths of all files written, whether they changed or not
+     */
+    Set<String> getPaths() {
+        return Collections.unmodifiableSet(fPaths);
+    }
+    
+    /**
+     * @return The paths of files that were new or changed
+     */
+    Set<String> getChangedPaths() {
+        return Collections.unmodifiableSet(fEntries.keySet());
+    }
+    
+    /**
+     * @return The size of the index file when it was read, before any changes
+     */
+    long getIndexSize() {
+        return fIndexSize;
+    }
+    
+    /**
+     * @return The modification time of the index file when it was read, before any changes
+     */
+    long getIndexModified() {
+        return fIndexModified;
+    }
+    
+    /**
+     * @return The paths of index entries that were removed by commit()
+     */
+    Set<String> getRemovedPaths() {
+        return Collections.unmodifiableSet(fStalePaths);
+    }
+    
+    private byte[] getBlobBytes(byte[] bytes) throws IOException {
+        if(fConvertCRLF && !RawText.isBinary(bytes) && containsCR(bytes)) {
+            try(AutoLFInputStream in = AutoLFInputStream.create(new ByteArrayInputStream(bytes), StreamFlag.DETECT_BINARY)) {
+                ByteBuffer buffer = IO.readWholeStream(in, bytes.length);
+                return Arrays.copyOf(buffer.array(), buffer.limit());
+            }
+        }
+        return bytes;
+    }
+    
+    private boolean containsCR(byte[] bytes) {
+        for(byte b : bytes) {
+            if(b == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private String getPath(File file) {
+        return fWorkTree.toPath().relativize(file.getAbsoluteFile().toPath()).toString().replace(File.separatorChar, '/');
+    }
+    
+    private BasicFileAttributes getAttributes(File file) throws IOException {
+        return file.isFile() ? Files.readAttributes(file.toPath(), BasicFileAttributes.class) : null;
+    }
+}
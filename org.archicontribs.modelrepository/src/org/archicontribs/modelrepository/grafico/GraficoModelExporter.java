@@ -5,21 +5,28 @@
  */
 package org.archicontribs.modelrepository.grafico;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.archicontribs.modelrepository.ModelRepositoryPlugin;
 import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
-import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.Job;
@@ -33,6 +40,8 @@ import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
 import org.eclipse.emf.ecore.util.EcoreUtil;
 import org.eclipse.emf.ecore.xmi.XMLResource;
 import org.eclipse.emf.ecore.xmi.impl.XMLResourceFactoryImpl;
+import org.eclipse.emf.ecore.xmi.impl.XMLResourceImpl;
+import org.eclipse.jgit.lib.Repository;
 
 import com.archimatetool.editor.model.IArchiveManager;
 import com.archimatetool.editor.utils.FileUtils;
@@ -54,17 +63,14 @@ import com.archimatetool.model.IIdentifier;
  * @author Phillip Beauvoir
  */
 public class GraficoModelExporter {
-	
-    // Use a ProgressMonitor to cancel running Jobs and track Exception
-    private static class ExceptionProgressMonitor extends NullProgressMonitor {
-        IOException ex;
-        
-        void catchException(IOException ex) {
-            this.ex = ex;
-            setCanceled(true); // Cancel running job on exception
-        }
-    }
     
+    /**
+     * Receives the content of each exported file instead of it being saved to the file
+     */
+    interface IFileWriter {
+        void write(File file, byte[] bytes) throws IOException;
+    }
+	
 	/**
 	 * ResourceSet
 	 */
@@ -80,6 +86,41 @@ public class GraficoModelExporter {
      */
     private File fLocalRepoFolder;
     
+    /**
+     * If true only write files whose content has changed and delete stale files
+     */
+    private boolean fIncremental;
+    
+    /**
+     * Files that belong to the current export (used for incremental export)
+     */
+    private Set<File> fExportedFiles;
+    
+    /**
+     * Paths of files deleted by the last export
+     */
+    private Set<String> fDeletedPaths = new HashSet<>();
+    
+    /**
+     * If set, files are also staged in this repository's index
+     */
+    private Repository fRepository;
+    
+    /**
+     * Writes and stages files when there is a repository
+     */
+    private GraficoIndexWriter fIndexWriter;
+    
+    /**
+     * If set, files are written by this
+     */
+    private IFileWriter fFileWriter;
+    
+    /**
+     * File for each Resource
+     */
+    private Map<Resource, File> fResourceFiles;
+    
 	/**
 	 * @param model The model to export
 	 * @param folder The root folder in which to write the grafico XML files
@@ -96,20 +137,124 @@ public class GraficoModelExporter {
 	    fLocalRepoFolder = folder;
 	}
 	
+	/**
+	 * Set incremental export mode.
+	 * If true, existing files are left untouched (same content and same modification time) if their content has not changed,
+	 * only new and changed files are written and files that no longer belong to the model are deleted.
+	 * If false (the default) the model and images folders are deleted and all files are written again.
+	 * @param incremental
+	 */
+	public void setIncremental(boolean incremental) {
+	    fIncremental = incremental;
+	}
+	
+	/**
+	 * Stage the exported files in the index of a repository whose working tree is the export folder.
+	 * Each file is staged as it is written instead of having to add the whole working tree to the index afterwards.
+	 * Only new and changed files are written and staged and index entries for files that no longer belong to the model are removed.
+	 * This implies incremental mode.
+	 * If the index has conflicts files are not staged, see getChangedPaths().
+	 * @param repository The repository, or null to not stage files
+	 */
+	public void setRepository(Repository repository) {
+	    fRepository = repository;
+	}
+	
+	/**
+	 * @return The paths, relative to the working tree, of files that were new or changed and staged by the last export,
+	 *         or null if files were not staged
+	 */
+	public Set<String> getChangedPaths() {
+	    return fIndexWriter != null ? fIndexWriter.getChangedPaths() : null;
+	}
+	
+	/**
+	 * @return The paths, relative to the working tree, of all files whose working tree or index state may have been changed
+	 *         by the last export (files written or staged, files deleted and index entries removed), or null if files were not staged.
+	 *         The state of any other path in the model and images folders is as it was before the export.
+	 */
+	public Set<String> getTouchedPaths() {
+	    if(fIndexWriter == null) {
+	        return null;
+	    }
+	    
+	    Set<String> paths = new HashSet<>(fIndexWriter.getChangedPaths());
+	    paths.addAll(fIndexWriter.getRemovedPaths());
+	    paths.addAll(fDeletedPaths);
+	    return paths;
+	}
+	
     /**
      * Export the IArchimateModel as Grafico files
      * @throws IOException
      */
     public void exportModel() throws IOException {
         // Define target folders for model and images
-        // Delete them and re-create them (remark: FileUtils.deleteFolder() does sanity checks)
         File modelFolder = new File(fLocalRepoFolder, IGraficoConstants.MODEL_FOLDER);
-        FileUtils.deleteFolder(modelFolder);
-        modelFolder.mkdirs();
-
         File imagesFolder = new File(fLocalRepoFolder, IGraficoConstants.IMAGES_FOLDER);
-        FileUtils.deleteFolder(imagesFolder);
+        
+        // Stage files in the index as they are written
+        fIndexWriter = null;
+        if(fRepository != null) {
+            fIndexWriter = new GraficoIndexWriter(fRepository);
+            if(!fIndexWriter.canWrite()) {
+                fIndexWriter = null;
+            }
+        }
+        
+        boolean incremental = fIncremental || fRepository != null;
+        
+        // If not incremental delete them and re-create them (remark: FileUtils.deleteFolder() does sanity checks)
+        if(!incremental) {
+            FileUtils.deleteFolder(modelFolder);
+            FileUtils.deleteFolder(imagesFolder);
+        }
+        
+        modelFolder.mkdirs();
         imagesFolder.mkdirs();
+        
+        fDeletedPaths.clear();
+        
+        try {
+            export(fIndexWriter, modelFolder);
+            
+            // Delete files that are not part of the model any more
+            if(incremental) {
+                deleteStaleFiles(modelFolder);
+                deleteStaleFiles(imagesFolder);
+            }
+            
+            // Update the index and tell the status cache which paths were touched
+            if(fIndexWriter != null) {
+                fIndexWriter.commit(IGraficoConstants.MODEL_FOLDER, IGraficoConstants.IMAGES_FOLDER);
+                WorkingTreeStatusCache.INSTANCE.pathsChanged(fRepository, getTouchedPaths(), fIndexWriter.getIndexSize(), fIndexWriter.getIndexModified());
+            }
+        }
+        finally {
+            if(fIndexWriter != null) {
+                fIndexWriter.close();
+            }
+        }
+    }
+    
+    /**
+     * Export the IArchimateModel as Grafico files to a file writer.
+     * Nothing is written to disk, the folder is only used as the root of the files given to the writer.
+     * @param fileWriter Receives each file and its content. This is called from more than one thread.
+     * @throws IOException
+     */
+    void exportModel(IFileWriter fileWriter) throws IOException {
+        fIndexWriter = null;
+        export(fileWriter, new File(fLocalRepoFolder, IGraficoConstants.MODEL_FOLDER));
+    }
+    
+    /**
+     * Export model images and Resources, to the file writer if it is not null
+     */
+    private void export(IFileWriter fileWriter, File modelFolder) throws IOException {
+        fFileWriter = fileWriter;
+        fExportedFiles = new HashSet<>();
+        fResourceFiles = new HashMap<>();
 
         // Save model images (if any): this has to be done on original model (not a copy)
         saveImages();
@@ -137,7 +282,7 @@ public class GraficoModelExporter {
                 @Override
                 protected IStatus run(IProgressMonitor monitor) {
                     try {
-                        resource.save(null);
+                        saveResource(resource);
                     }
                     catch(IOException ex) {
                         pm.catchException(ex);
@@ -163,6 +308,48 @@ public class GraficoModelExporter {
         }
     }
     
+    /**
+     * Save a Resource to its file, or give it to the file writer if there is one
+     */
+    private void saveResource(Resource resource) throws IOException {
+        if(fFileWriter != null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            resource.save(out, null);
+            fFileWriter.write(fResourceFiles.get(resource), out.toByteArray());
+        }
+        else {
+            resource.save(null);
+        }
+    }
+    
+    /**
+     * Delete any files in folder that were not part of this export, and any empty sub-folders
+     * @param folder
+     * @throws IOException
+     */
+    private void deleteStaleFiles(File folder) throws IOException {
+        List<Path> paths;
+        
+        // Reverse order so that files are visited before their parent folders
+        try(Stream<Path> stream = Files.walk(folder.toPath())) {
+            paths = stream.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        
+        for(Path path : paths) {
+            File file = path.toFile();
+            
+            if(file.isFile()) {
+                if(!fExportedFiles.contains(file.getAbsoluteFile())) {
+                    Files.delete(path);
+                    fDeletedPaths.add(fLocalRepoFolder.toPath().relativize(path).toString().replace(File.separatorChar, '/'));
+                }
+            }
+            else if(!file.equals(folder) && file.list().length == 0) {
+                Files.delete(path);
+            }
+        }
+    }
+    
     /**
      * For each folder inside model, create a directory and a Resource to save it.
      * For each element, create a Resource to save it
@@ -178,7 +365,9 @@ public class GraficoModelExporter {
         
         for(IFolder tmpFolder : allFolders) {
             File tmpFolderFile = new File(folder, getNameFor(tmpFolder));
-            tmpFolderFile.mkdirs();
+            if(fFileWriter == null) {
+                tmpFolderFile.mkdirs();
+            }
             createAndSaveResource(new File(tmpFolderFile, IGraficoConstants.FOLDER_XML), tmpFolder);
             createAndSaveResourceForFolder(tmpFolder, tmpFolderFile);
         }
@@ -224,10 +413,29 @@ public class GraficoModelExporter {
         URI key = (!(object instanceof IArchimateModel) && file.getName().equals(IGraficoConstants.FOLDER_XML)) ? URI.createFileURI(file.getAbsolutePath()) : URI.createFileURI(file.getName());
         URI value = URI.createFileURI(file.getAbsolutePath());
         fResourceSet.getURIConverter().getURIMap().put(key, value);
+        
+        fExportedFiles.add(file.getAbsoluteFile());
 
         // Create a new resource for selected file and add object to persist
         XMLResource resource = (XMLResource)fResourceSet.createResource(key);
+        setSaveOptions(resource);
+        
+        // If incremental, serialize to memory first and only write the file if its content is different
+        // (The index writer does this itself)
+        if(fIncremental && fFileWriter == null) {
+            resource.getDefaultSaveOptions().put(Resource.OPTION_SAVE_ONLY_IF_CHANGED, Resource.OPTION_SAVE_ONLY_IF_CHANGED_MEMORY_BUFFER);
+        }
+
+        // Add the object to the resource
+        resource.getContents().add(object);
         
+        fResourceFiles.put(resource, file);
+    }
+    
+    /**
+     * Set the options to save a Resource as a Grafico XML file
+     */
+    private static void setSaveOptions(XMLResource resource) {
         // Use UTF-8 and don't start with an XML declaration
         resource.getDefaultSaveOptions().put(XMLResource.OPTION_ENCODING, "UTF-8"); //$NON-NLS-1$
         resource.getDefaultSaveOptions().put(XMLResource.OPTION_DECLARE_XML, Boolean.FALSE);
@@ -244,9 +452,27 @@ public class GraficoModelExporter {
         
         // Use UNIX line endings to avoid EOL diffs
         resource.getDefaultSaveOptions().put(Resource.OPTION_LINE_DELIMITER, "\n"); //$NON-NLS-1$
-
-        // Add the object to the resource
-        resource.getContents().add(object);
+    }
+    
+    /**
+     * Save an object that was loaded from a Grafico XML file with GraficoResourceLoader back to the same XML format.
+     * References to objects in other files are proxies and are saved with the same href as they were loaded with.
+     * @param eObject The object. This is added to a new Resource and then removed from it again.
+     * @return The file contents
+     */
+    public static byte[] saveEObject(EObject eObject) throws IOException {
+        XMLResource resource = new XMLResourceImpl();
+        setSaveOptions(resource);
+        resource.getContents().add(eObject);
+        
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            resource.save(out, null);
+            return out.toByteArray();
+        }
+        finally {
+            resource.getContents().remove(eObject);
+        }
     }
     
     /**
@@ -273,10 +499,26 @@ public class GraficoModelExporter {
                     }
                     
                     File file = new File(fLocalRepoFolder, imagePath);
-                    Files.write(file.toPath(), bytes, StandardOpenOption.CREATE);
+                    
+                    if(fFileWriter != null) {
+                        fFileWriter.write(file, bytes);
+                    }
+                    // If incremental don't write the image file if it is the same
+                    else if(!fIncremental || !isSameContent(file, bytes)) {
+                        Files.write(file.toPath(), bytes, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+                    }
+                    
+                    fExportedFiles.add(file.getAbsoluteFile());
                     added.add(imagePath);
                 }
             }
         }
     }
+    
+    /**
+     * @return true if file exists and has the same content as bytes
+     */
+    private boolean isSameContent(File file, byte[] bytes) throws IOException {
+        return file.isFile() && file.length() == bytes.length && Arrays.equals(Files.readAllBytes(file.toPath()), bytes);
+    }
 }
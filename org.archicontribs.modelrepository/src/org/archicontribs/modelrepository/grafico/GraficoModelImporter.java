@@ -7,16 +7,26 @@ package org.archicontribs.modelrepository.grafico;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.archicontribs.modelrepository.ModelRepositoryPlugin;
+import org.archicontribs.modelrepository.grafico.GraficoSource.FolderSource;
+import org.archicontribs.modelrepository.grafico.GraficoSource.RepositorySource;
+import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobGroup;
 import org.eclipse.emf.common.util.EList;
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.EObject;
@@ -24,6 +34,8 @@ import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.util.EcoreUtil;
 import org.eclipse.emf.ecore.xmi.impl.XMLResourceImpl;
 import org.eclipse.gef.commands.CommandStack;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
 
 import com.archimatetool.editor.model.IArchiveManager;
 import com.archimatetool.editor.model.compatibility.CompatibilityHandlerException;
@@ -72,6 +84,9 @@ public class GraficoModelImporter {
 	// ID -> Object lookup table
     private Map<String, IIdentifier> fIDLookup;
     
+    // Path -> Object table of objects that were loaded in parallel
+    private Map<String, IIdentifier> fLoadedObjects;
+    
     /**
      * Unresolved missing objects
      */
@@ -87,6 +102,17 @@ public class GraficoModelImporter {
      */
     private File fLocalRepoFolder;
     
+    /**
+     * Repository and tree id if importing from the git object database
+     */
+    private Repository fRepository;
+    private ObjectId fTreeId;
+    
+    /**
+     * Source of the grafico files
+     */
+    private GraficoSource fSource;
+    
     /**
      * @param folder The folder containing the grafico XML files
      */
@@ -97,29 +123,73 @@ public class GraficoModelImporter {
         
         fLocalRepoFolder = folder;
     }
+    
+    /**
+     * Import the grafico XML files directly from a tree in the git object database.
+     * No files are written to disk.
+     * @param repository The repository. This is not closed by the importer.
+     * @param treeId The id of the tree containing the "model" and "images" folders, for example RevCommit#getTree()
+     */
+    public GraficoModelImporter(Repository repository, ObjectId treeId) {
+        if(repository == null) {
+            throw new IllegalArgumentException("Repository cannot be null"); //$NON-NLS-1$
+        }
+        if(treeId == null) {
+            throw new IllegalArgumentException("Tree cannot be null"); //$NON-NLS-1$
+        }
+        
+        fRepository = repository;
+        fTreeId = treeId;
+    }
 	
     /**
      * Import the grafico XML files as a IArchimateModel
      * @throws IOException
      */
     public IArchimateModel importAsModel() throws IOException {
-    	// Create folders for model and images
-    	File modelFolder = new File(fLocalRepoFolder, IGraficoConstants.MODEL_FOLDER);
-        modelFolder.mkdirs();
-
-        File imagesFolder = new File(fLocalRepoFolder, IGraficoConstants.IMAGES_FOLDER);
-    	imagesFolder.mkdirs();
-    	
+        if(fRepository != null) {
+            fSource = new RepositorySource(fRepository, fTreeId);
+        }
+        else {
+            // Create folders for model and images
+            new File(fLocalRepoFolder, IGraficoConstants.MODEL_FOLDER).mkdirs();
+            new File(fLocalRepoFolder, IGraficoConstants.IMAGES_FOLDER).mkdirs();
+            fSource = new FolderSource(fLocalRepoFolder);
+        }
+        
+        try {
+            return importModel();
+        }
+        finally {
+            fSource = null;
+        }
+    }
+    
+    private IArchimateModel importModel() throws IOException {
+        String modelFolder = IGraficoConstants.MODEL_FOLDER;
+        
     	// If the top folder.xml does not exist then there is nothing to import, so return null
-    	if(!(new File(modelFolder, IGraficoConstants.FOLDER_XML)).isFile()) {
+    	if(!fSource.isFile(modelFolder + "/" + IGraficoConstants.FOLDER_XML)) { //$NON-NLS-1$
     	    return null;
     	}
     	
     	// Reset the ID -> Object lookup table
     	fIDLookup = new HashMap<String, IIdentifier>();
     	
+    	// Parse all the XML files in parallel first
+    	int maxThreads = ModelRepositoryPlugin.INSTANCE.getPreferenceStore().getInt(IPreferenceConstants.PREFS_IMPORT_MAX_THREADS);
+    	if(maxThreads > 1) {
+    	    loadFilesInParallel(modelFolder, maxThreads);
+    	}
+    	
         // Load the Model from files (it will contain unresolved proxies)
-    	fModel = loadModel(modelFolder);
+    	// This is always done on this thread so that the order of objects is the same
+    	try {
+    	    fModel = loadModel(modelFolder);
+    	}
+    	finally {
+    	    fLoadedObjects = null;
+    	}
     	
     	// Create a new Resource for the model object so we can work with it in the ModelCompatibility class
     	Resource resource = new XMLResourceImpl();
@@ -153,7 +223,7 @@ public class GraficoModelImporter {
         fModel.setAdapter(CommandStack.class, cmdStack);
     	
     	// Load images
-    	loadImages(imagesFolder, archiveManager);
+    	loadImages(IGraficoConstants.IMAGES_FOLDER, archiveManager);
 
     	return fModel;
     }
@@ -168,12 +238,12 @@ public class GraficoModelImporter {
     /**
      * Read images from images subfolder and load them into the model
      */
-    private void loadImages(File folder, IArchiveManager archiveManager) throws IOException {
+    private void loadImages(String folder, IArchiveManager archiveManager) throws IOException {
         // Add all images files
-        for(File imageFile : folder.listFiles()) {
-            if(imageFile.isFile()) {
-                byte[] bytes = Files.readAllBytes(imageFile.toPath());
-                archiveManager.addByteContentEntry("images/" + imageFile.getName(), bytes); //$NON-NLS-1$
+        for(String imagePath : fSource.list(folder)) {
+            if(fSource.isFile(imagePath)) {
+                byte[] bytes = fSource.getBytes(imagePath);
+                archiveManager.addByteContentEntry("images/" + GraficoSource.getName(imagePath), bytes); //$NON-NLS-1$
             }
         }
     }    
@@ -253,24 +323,99 @@ public class GraficoModelImporter {
         }
     }
     
-	private IArchimateModel loadModel(File folder) throws IOException {
-		IArchimateModel model = (IArchimateModel)loadElement(new File(folder, IGraficoConstants.FOLDER_XML));
+    /**
+     * Parse all XML files in the model folder using maxThreads threads and store the results in fLoadedObjects
+     * The ID -> Object lookup table and the model tree are not built here, that is done in loadModel() on the calling thread
+     */
+    private void loadFilesInParallel(String modelFolder, int maxThreads) throws IOException {
+        // Collect all of the files first
+        Queue<String> files = new ConcurrentLinkedQueue<String>();
+        files.add(modelFolder + "/" + IGraficoConstants.FOLDER_XML); //$NON-NLS-1$
+        for(FolderType folderType : getTopFolderTypes()) {
+            collectFiles(modelFolder + "/" + folderType.toString(), files); //$NON-NLS-1$
+        }
+        
+        fLoadedObjects = new ConcurrentHashMap<String, IIdentifier>();
+        
+        JobGroup jobgroup = new JobGroup("GraficoModelImporter", maxThreads, 1); //$NON-NLS-1$
+        
+        final ExceptionProgressMonitor pm = new ExceptionProgressMonitor();
+        
+        // Each Job takes the next file from the queue until it is empty
+        for(int i = 0; i < Math.min(maxThreads, files.size()); i++) {
+            Job job = new Job("Resource Load Job") { //$NON-NLS-1$
+                @Override
+                protected IStatus run(IProgressMonitor monitor) {
+                    String file;
+                    while(!pm.isCanceled() && (file = files.poll()) != null) {
+                        try {
+                            fLoadedObjects.put(file, fSource.loadEObject(file));
+                        }
+                        catch(IOException ex) {
+                            pm.catchException(ex);
+                        }
+                    }
+                    return Status.OK_STATUS;
+                }
+            };
+            
+            job.setJobGroup(jobgroup);
+            job.schedule();
+        }
+        
+        try {
+            jobgroup.join(0, pm);
+        }
+        catch(OperationCanceledException | InterruptedException ex) {
+            if(pm.ex == null) {
+                throw new IOException(ex);
+            }
+        }
+        
+        // Throw on any exception
+        if(pm.ex != null) {
+            throw pm.ex;
+        }
+    }
+    
+    /**
+     * Add all files in folder and its sub-folders to files
+     */
+    private void collectFiles(String folder, Queue<String> files) {
+        for(String fileOrFolder : fSource.list(folder)) {
+            if(fSource.isFile(fileOrFolder)) {
+                files.add(fileOrFolder);
+            }
+            else {
+                collectFiles(fileOrFolder, files);
+            }
+        }
+    }
+    
+    /**
+     * @return The top level folder types in the order that they are added to the model
+     */
+    private List<FolderType> getTopFolderTypes() {
+        List<FolderType> folderList = new ArrayList<FolderType>();
+        folderList.add(FolderType.STRATEGY);
+        folderList.add(FolderType.BUSINESS);
+        folderList.add(FolderType.APPLICATION);
+        folderList.add(FolderType.TECHNOLOGY);
+        folderList.add(FolderType.MOTIVATION);
+        folderList.add(FolderType.IMPLEMENTATION_MIGRATION);
+        folderList.add(FolderType.OTHER);
+        folderList.add(FolderType.RELATIONS);
+        folderList.add(FolderType.DIAGRAMS);
+        return folderList;
+    }
+    
+	private IArchimateModel loadModel(String folder) throws IOException {
+		IArchimateModel model = (IArchimateModel)loadElement(folder + "/" + IGraficoConstants.FOLDER_XML); //$NON-NLS-1$
 		IFolder tmpFolder;
 		
-		List<FolderType> folderList = new ArrayList<FolderType>();
-		folderList.add(FolderType.STRATEGY);
-		folderList.add(FolderType.BUSINESS);
-		folderList.add(FolderType.APPLICATION);
-		folderList.add(FolderType.TECHNOLOGY);
-		folderList.add(FolderType.MOTIVATION);
-		folderList.add(FolderType.IMPLEMENTATION_MIGRATION);
-		folderList.add(FolderType.OTHER);
-		folderList.add(FolderType.RELATIONS);
-		folderList.add(FolderType.DIAGRAMS);
-
 		// Loop based on FolderType enumeration
-		for(FolderType folderType : folderList) {
-		    if((tmpFolder = loadFolder(new File(folder, folderType.toString()))) != null) {
+		for(FolderType folderType : getTopFolderTypes()) {
+		    if((tmpFolder = loadFolder(folder + "/" + folderType.toString())) != null) { //$NON-NLS-1$
 		        model.getFolders().add(tmpFolder);
 		    }
 		}
@@ -285,18 +430,20 @@ public class GraficoModelImporter {
 	 * @return Model folder
 	 * @throws IOException 
 	 */
-    private IFolder loadFolder(File folder) throws IOException {
-        if(!folder.isDirectory() || !(new File(folder, IGraficoConstants.FOLDER_XML)).isFile()) {
+    private IFolder loadFolder(String folder) throws IOException {
+        String folderXML = folder + "/" + IGraficoConstants.FOLDER_XML; //$NON-NLS-1$
+        
+        if(!fSource.isFolder(folder) || !fSource.isFile(folderXML)) {
             throw new IOException("File is not directory or folder.xml does not exist."); //$NON-NLS-1$
         }
 
         // Load folder object itself
-        IFolder currentFolder = (IFolder)loadElement(new File(folder, IGraficoConstants.FOLDER_XML));
+        IFolder currentFolder = (IFolder)loadElement(folderXML);
 
         // Load each elements (except folder.xml) and add them to folder
-        for(File fileOrFolder : folder.listFiles()) {
-            if(!fileOrFolder.getName().equals(IGraficoConstants.FOLDER_XML)) {
-                if(fileOrFolder.isFile()) {
+        for(String fileOrFolder : fSource.list(folder)) {
+            if(!fileOrFolder.equals(folderXML)) {
+                if(fSource.isFile(fileOrFolder)) {
                     currentFolder.getElements().add(loadElement(fileOrFolder));
                 }
                 else {
@@ -315,8 +462,12 @@ public class GraficoModelImporter {
      * @return
      * @throws IOException 
      */
-    private EObject loadElement(File file) throws IOException {
-        IIdentifier eObject = GraficoResourceLoader.loadEObject(file);
+    private EObject loadElement(String file) throws IOException {
+        // Already parsed in parallel, else parse it now
+        IIdentifier eObject = fLoadedObjects != null ? fLoadedObjects.remove(file) : null;
+        if(eObject == null) {
+            eObject = fSource.loadEObject(file);
+        }
         
         // Update an ID -> Object mapping table (used as a cache to resolve proxies)
         fIDLookup.put(eObject.getId(), eObject);
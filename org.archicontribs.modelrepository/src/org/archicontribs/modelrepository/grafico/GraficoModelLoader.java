@@ -8,20 +8,23 @@ package org.archicontribs.modelrepository.grafico;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import org.archicontribs.modelrepository.ModelRepositoryPlugin;
 import org.archicontribs.modelrepository.grafico.GraficoModelImporter.UnresolvedObject;
+import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
 import org.eclipse.emf.ecore.EObject;
 import org.eclipse.emf.ecore.util.EcoreUtil;
-import org.eclipse.jgit.api.Git;
+import org.eclipse.gef.commands.CommandStack;
+import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
-import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.swt.custom.BusyIndicator;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.IEditorInput;
@@ -30,6 +33,7 @@ import org.eclipse.ui.PartInitException;
 import org.eclipse.ui.PlatformUI;
 
 import com.archimatetool.editor.diagram.DiagramEditorInput;
+import com.archimatetool.editor.model.IArchiveManager;
 import com.archimatetool.editor.model.IEditorModelManager;
 import com.archimatetool.editor.ui.services.EditorManager;
 import com.archimatetool.editor.utils.StringUtils;
@@ -50,10 +54,44 @@ public class GraficoModelLoader {
     
     private List<IIdentifier> fRestoredObjects;
     
+    // The tree of the commit that the open model was loaded from
+    private ObjectId fBaseTreeId;
+    
     public GraficoModelLoader(IArchiRepository repository) {
         fRepository = repository;
     }
     
+    /**
+     * Use HEAD as the commit that the open model was loaded from. Call this before a pull, merge, switch, reset or restore changes
+     * HEAD or the working tree, and loadModel() will then only load the Grafico files that have changed since then into the open model.
+     * If the open model or the working tree have changes that are not committed the model has to be loaded in full, so HEAD is not used.
+     * @throws IOException
+     */
+    public void setBaseCommit() throws IOException {
+        fBaseTreeId = null;
+        
+        IArchimateModel model = fRepository.locateModel();
+        if(model == null || IEditorModelManager.INSTANCE.isModelDirty(model) || fRepository.hasLocalChanges()) {
+            return;
+        }
+        
+        try {
+            if(fRepository.hasChangesToCommit()) {
+                return;
+            }
+        }
+        catch(GitAPIException ex) {
+            throw new IOException(ex);
+        }
+        
+        try(Repository repository = RepositoryPool.open(fRepository.getLocalRepositoryFolder()); RevWalk revWalk = new RevWalk(repository)) {
+            ObjectId headId = repository.resolve(IGraficoConstants.HEAD);
+            if(headId != null) {
+                fBaseTreeId = revWalk.parseCommit(headId).getTree();
+            }
+        }
+    }
+    
     /**
      * Load the model
      * @return
@@ -62,6 +100,12 @@ public class GraficoModelLoader {
     public IArchimateModel loadModel() throws IOException {
         fRestoredObjects = null;
         
+        // Only load the changes into the open model if we can
+        IArchimateModel openModel = fRepository.locateModel();
+        if(openModel != null && fBaseTreeId != null && loadChanges(openModel)) {
+            return openModel;
+        }
+        
         // Store ids of open diagrams
         List<String> openModelIDs = null;
         
@@ -73,6 +117,20 @@ public class GraficoModelLoader {
             while(Display.getCurrent().readAndDispatch()); // Stops flickering in tree
         }
         
+        // Open the model from its snapshot if it has already been imported from the same Grafico files
+        ModelSnapshotCache snapshotCache = getSnapshotCache();
+        String snapshotKey = snapshotCache != null ? getSnapshotKey() : null;
+        
+        if(snapshotKey != null) {
+            IArchimateModel snapshotModel = loadSnapshot(snapshotCache, snapshotKey, model != null);
+            if(snapshotModel != null) {
+                if(model != null) {
+                    reopenEditors(snapshotModel, openModelIDs);
+                }
+                return snapshotModel;
+            }
+        }
+        
         // Import Grafico Model
         GraficoModelImporter importer = new GraficoModelImporter(fRepository.getLocalRepositoryFolder());
         
@@ -108,6 +166,16 @@ public class GraficoModelLoader {
         // Save it
         IEditorModelManager.INSTANCE.saveModel(graficoModel[0]);
         
+        // Save a snapshot of it, but not if objects were restored as it's not the same as the Grafico files
+        if(snapshotKey != null && fRestoredObjects == null) {
+            try {
+                snapshotCache.put(snapshotKey, fRepository.getTempModelFile());
+            }
+            catch(IOException ex) { // Not fatal
+                ex.printStackTrace();
+            }
+        }
+        
         // And re-open it if we already had it open
         if(model != null) {
             IEditorModelManager.INSTANCE.openModel(graficoModel[0]);
@@ -117,6 +185,110 @@ public class GraficoModelLoader {
         return graficoModel[0];
     }
     
+    /**
+     * @return The snapshot cache, or null if snapshots are not used
+     */
+    private ModelSnapshotCache getSnapshotCache() {
+        long maxSize = ModelRepositoryPlugin.INSTANCE.getPreferenceStore().getLong(IPreferenceConstants.PREFS_SNAPSHOT_CACHE_MAX_SIZE);
+        return maxSize > 0 ? new ModelSnapshotCache(fRepository, maxSize * 1024 * 1024) : null;
+    }
+    
+    /**
+     * @return The snapshot key of the model in HEAD, or null if the working tree has changes so the model is not the same as HEAD
+     */
+    private String getSnapshotKey() throws IOException {
+        try {
+            if(fRepository.hasChangesToCommit()) {
+                return null;
+            }
+        }
+        catch(GitAPIException ex) {
+            throw new IOException(ex);
+        }
+        
+        try(Repository repository = RepositoryPool.open(fRepository.getLocalRepositoryFolder()); RevWalk revWalk = new RevWalk(repository)) {
+            ObjectId headId = repository.resolve(IGraficoConstants.HEAD);
+            return headId != null ? ModelSnapshotCache.getKey(repository, revWalk.parseCommit(headId).getTree()) : null;
+        }
+    }
+    
+    /**
+     * Copy the snapshot of the model to the temp model file and load it
+     * @param open true to open the model in the models tree. If false the model is loaded without registering it
+     *             with the editor model manager, as it is when it is imported.
+     * @return The model, or null if there is no snapshot
+     */
+    private IArchimateModel loadSnapshot(ModelSnapshotCache snapshotCache, String snapshotKey, boolean open) throws IOException {
+        File snapshotFile = snapshotCache.get(snapshotKey);
+        if(snapshotFile == null) {
+            return null;
+        }
+        
+        File tempModelFile = fRepository.getTempModelFile();
+        Files.copy(snapshotFile.toPath(), tempModelFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        
+        if(open) {
+            return IEditorModelManager.INSTANCE.openModel(tempModelFile);
+        }
+        
+        // IEditorModelManager.loadModel() would register the model so that locateModel() would find it
+        return IArchiveManager.FACTORY.loadModel(tempModelFile);
+    }
+    
+    /**
+     * Update the open model with the Grafico files that have changed since the base commit, without closing and re-opening it
+     * @return false if the model has to be loaded in full because it has changed, there are too many changes or they can't be applied
+     */
+    private boolean loadChanges(IArchimateModel model) throws IOException {
+        // The model has been changed since the base commit was set
+        if(IEditorModelManager.INSTANCE.isModelDirty(model)) {
+            return false;
+        }
+        
+        GraficoModelUpdater updater = new GraficoModelUpdater(fRepository.getLocalRepositoryFolder(), fBaseTreeId);
+        
+        int changes = updater.findChanges();
+        if(changes == 0) {
+            return true;
+        }
+        
+        int maxChanges = ModelRepositoryPlugin.INSTANCE.getPreferenceStore().getInt(IPreferenceConstants.PREFS_IMPORT_MAX_INCREMENTAL_CHANGES);
+        if(changes > maxChanges) {
+            return false;
+        }
+        
+        boolean[] updated = new boolean[1];
+        IOException[] exception = new IOException[1];
+        
+        BusyIndicator.showWhile(Display.getCurrent(), () -> {
+            try {
+                updated[0] = updater.updateModel(model);
+            }
+            catch(IOException ex) {
+                exception[0] = ex;
+            }
+        });
+        
+        if(exception[0] != null) {
+            throw exception[0];
+        }
+        
+        if(!updated[0]) {
+            return false;
+        }
+        
+        // The undo history can refer to objects that have been replaced or removed
+        CommandStack commandStack = (CommandStack)model.getAdapter(CommandStack.class);
+        if(commandStack != null) {
+            commandStack.flush();
+        }
+        
+        // Save it
+        IEditorModelManager.INSTANCE.saveModel(model);
+        
+        return true;
+    }
+    
     /**
      * @return The list of resolved objects as a message string or null
      */
@@ -149,61 +321,36 @@ public class GraficoModelLoader {
         
         List<String> restoredIdentifiers = new ArrayList<String>();
         
-        try(Repository repository = Git.open(fRepository.getLocalRepositoryFolder()).getRepository()) {
-            try(RevWalk revWalk = new RevWalk(repository)) {
-                for(UnresolvedObject unresolved : unresolvedObjects) {
-                    String missingFileName = unresolved.missingObjectURI.lastSegment();
-                    String missingObjectID = unresolved.missingObjectURI.fragment();
-                    
-                    // Already got this one
-                    if(restoredIdentifiers.contains(missingObjectID)) {
-                        continue;
-                    }
+        try(Repository repository = RepositoryPool.open(fRepository.getLocalRepositoryFolder())) {
+            // Index of the last version of each file name in the history, built or updated in one pass for all missing objects
+            GraficoHistoryIndex historyIndex = GraficoHistoryIndex.open(repository);
+            
+            for(UnresolvedObject unresolved : unresolvedObjects) {
+                String missingFileName = unresolved.missingObjectURI.lastSegment();
+                String missingObjectID = unresolved.missingObjectURI.fragment();
+                
+                // Already got this one
+                if(restoredIdentifiers.contains(missingObjectID)) {
+                    continue;
+                }
+                
+                // We can't look up the file's path as its path is not correct, so look up its name
+                GraficoHistoryIndex.Entry entry = historyIndex.get(missingFileName);
+                
+                // File is found
+                if(entry != null) {
+                    // Save file
+                    ObjectLoader loader = repository.open(entry.blobId);
                     
-                    boolean found = false;
+                    File file = new File(fRepository.getLocalRepositoryFolder(), entry.path);
+                    file.getParentFile().mkdirs();
                     
-                    // Reset RevWalk
-                    revWalk.reset();
-                    ObjectId id = repository.resolve(IGraficoConstants.HEAD);
-                    if(id != null) {
-                        revWalk.markStart(revWalk.parseCommit(id)); 
+                    try(FileOutputStream out = new FileOutputStream(file)) {
+                        loader.copyTo(out);
                     }
                     
-                    // Iterate all commits
-                    for(RevCommit commit : revWalk ) {
-                        try(TreeWalk treeWalk = new TreeWalk(repository)) {
-                            treeWalk.addTree(commit.getTree());
-                            treeWalk.setRecursive(true);
-                            
-                            // Iterate through all files
-                            // We can't use a PathFilter for the file name as its path is not correct
-                            while(!found && treeWalk.next()) {
-                                // File is found
-                                if(treeWalk.getPathString().endsWith(missingFileName)) {
-                                    // Save file
-                                    ObjectId objectId = treeWalk.getObjectId(0);
-                                    ObjectLoader loader = repository.open(objectId);
-
-                                    File file = new File(fRepository.getLocalRepositoryFolder(), treeWalk.getPathString());
-                                    file.getParentFile().mkdirs();
-                                    
-                                    try(FileOutputStream out = new FileOutputStream(file)) {
-                                        loader.copyTo(out);
-                                    }
-                                    
-                                    restoredIdentifiers.add(missingObjectID);
-                                    found = true;
-                                }
-                            }
-                        }
-                        
-                        if(found) {
-                            break;
-                        }
-                    }
+                    restoredIdentifiers.add(missingObjectID);
                 }
-                
-                revWalk.dispose();
             }
         }
         
@@ -0,0 +1,534 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+
+import org.eclipse.emf.common.util.ECollections;
+import org.eclipse.emf.common.util.EList;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.EStructuralFeature.Setting;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+
+import com.archimatetool.editor.model.IArchiveManager;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IFolder;
+import com.archimatetool.model.IIdentifier;
+
+/**
+ * Updates a model that was loaded from the Grafico files of a commit with the files that are different in the working tree,
+ * for example after a pull, merge, switch or reset has changed the working tree.
+ * 
+ * Only the changed files are parsed. Changed objects, and the objects that they contain such as the children of a diagram,
+ * are updated in place so that other objects, the model tree and open diagram editors keep referring to the same objects. Added objects are added to their folder and deleted objects are removed.
+ * 
+ * Changes to folders or to the model itself, and changes that would leave references to objects that are not in the model,
+ * can't be applied this way. updateModel() then returns false without changing the model and the model should be imported again.
+ */
+public class GraficoModelUpdater {
+    
+    private File fLocalRepoFolder;
+    private ObjectId fBaseTreeId;
+    
+    private List<String> fAddedPaths = new ArrayList<>();
+    private List<String> fModifiedPaths = new ArrayList<>();
+    private List<String> fDeletedPaths = new ArrayList<>();
+    
+    /**
+     * @param localRepoFolder The local repository folder
+     * @param baseTreeId The tree of the commit that the model was loaded from
+     */
+    public GraficoModelUpdater(File localRepoFolder, ObjectId baseTreeId) {
+        fLocalRepoFolder = localRepoFolder;
+        fBaseTreeId = baseTreeId;
+    }
+    
+    /**
+     * Find the Grafico files and images that are different in the working tree
+     * Files that are not changed since the index was written are not read.
+     * @return The number of added, modified and deleted files
+     * @throws IOException
+     */
+    public int findChanges() throws IOException {
+        fAddedPaths.clear();
+        fModifiedPaths.clear();
+        fDeletedPaths.clear();
+        
+        try(Repository repository = RepositoryPool.open(fLocalRepoFolder); TreeWalk treeWalk = new TreeWalk(repository)) {
+            int baseIndex = treeWalk.addTree(fBaseTreeId);
+            int dirCacheIndex = treeWalk.addTree(new DirCacheIterator(repository.readDirCache()));
+            
+            // Use the index's ids for files that have not changed since the index was written so that they are not hashed
+            FileTreeIterator workingTree = new FileTreeIterator(repository);
+            int workingTreeIndex = treeWalk.addTree(workingTree);
+            workingTree.setDirCacheIterator(treeWalk, dirCacheIndex);
+            
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(PathFilterGroup.createFromStrings(IGraficoConstants.MODEL_FOLDER, IGraficoConstants.IMAGES_FOLDER));
+            
+            while(treeWalk.next()) {
+                boolean inBase = treeWalk.getRawMode(baseIndex) != 0;
+                boolean inWorkingTree = treeWalk.getRawMode(workingTreeIndex) != 0;
+                
+                if(inBase && !inWorkingTree) {
+                    fDeletedPaths.add(treeWalk.getPathString());
+                }
+                else if(!inBase && inWorkingTree) {
+                    fAddedPaths.add(treeWalk.getPathString());
+                }
+                else if(inBase && inWorkingTree && !treeWalk.idEqual(baseIndex, workingTreeIndex)) {
+                    fModifiedPaths.add(treeWalk.getPathString());
+                }
+            }
+        }
+        
+        return fAddedPaths.size() + fModifiedPaths.size() + fDeletedPaths.size();
+    }
+    
+    /**
+     * Apply the changes found by findChanges() to the model.
+     * All changed files are loaded and checked first, the model is only changed if all of the changes can be applied.
+     * @param model The model that was loaded from the base commit and has not been changed since
+     * @return true if the model was updated, false if the changes can't be applied and the model was not changed
+     * @throws IOException if a file could not be loaded
+     */
+    public boolean updateModel(IArchimateModel model) throws IOException {
+        Map<String, IIdentifier> index = createObjectIndex(model);
+        
+        // Objects in the model that are deleted, by id
+        Map<String, IIdentifier> deletedObjects = new HashMap<>();
+        
+        // Objects that are added, and the folder that they are added to
+        Map<IIdentifier, IFolder> addedObjects = new LinkedHashMap<>();
+        
+        // Objects in the model that are moved to another folder
+        Map<IIdentifier, IFolder> movedObjects = new LinkedHashMap<>();
+        
+        // Objects in the model and the loaded objects that they are updated from
+        Map<IIdentifier, IIdentifier> updatedObjects = new LinkedHashMap<>();
+        
+        // Loaded objects of added, moved and modified files by id
+        Map<String, IIdentifier> loadedObjects = new HashMap<>();
+        
+        // Image path -> image bytes
+        Map<String, byte[]> images = new LinkedHashMap<>();
+        
+        boolean useParserPool = GraficoResourceLoader.useParserPool();
+        
+        for(String path : fDeletedPaths) {
+            // Unused images are not saved with the model so there is nothing to do
+            if(isImageFile(path)) {
+                continue;
+            }
+            
+            String id = getObjectID(path);
+            if(id == null || !index.containsKey(id)) {
+                return false;
+            }
+            
+            deletedObjects.put(id, index.get(id));
+        }
+        
+        for(String path : fModifiedPaths) {
+            if(isImageFile(path)) {
+                images.put(path, Files.readAllBytes(new File(fLocalRepoFolder, path).toPath()));
+                continue;
+            }
+            
+            if(getObjectID(path) == null) {
+                return false;
+            }
+            
+            IIdentifier loadedObject = GraficoResourceLoader.loadEObject(new File(fLocalRepoFolder, path), useParserPool);
+            IIdentifier object = index.get(loadedObject.getId());
+            if(object == null || object.eClass() != loadedObject.eClass() || deletedObjects.containsKey(loadedObject.getId())) {
+                return false;
+            }
+            
+            updatedObjects.put(object, loadedObject);
+            loadedObjects.put(loadedObject.getId(), loadedObject);
+        }
+        
+        for(String path : fAddedPaths) {
+            if(isImageFile(path)) {
+                images.put(path, Files.readAllBytes(new File(fLocalRepoFolder, path).toPath()));
+                continue;
+            }
+            
+            if(getObjectID(path) == null) {
+                return false;
+            }
+            
+            IFolder folder = getFolder(model, path, index);
+            if(folder == null) {
+                return false;
+            }
+            
+            IIdentifier loadedObject = GraficoResourceLoader.loadEObject(new File(fLocalRepoFolder, path), useParserPool);
+            IIdentifier object = index.get(loadedObject.getId());
+            
+            // New object
+            if(object == null) {
+                addedObjects.put(loadedObject, folder);
+            }
+            // Moved from another folder, so its old file is deleted
+            else if(object.eClass() == loadedObject.eClass() && deletedObjects.remove(loadedObject.getId()) != null) {
+                movedObjects.put(object, folder);
+                updatedObjects.put(object, loadedObject);
+            }
+            else {
+                return false;
+            }
+            
+            loadedObjects.put(loadedObject.getId(), loadedObject);
+        }
+        
+        // Deleted objects and the objects that they contain
+        Set<EObject> removedObjects = new HashSet<>();
+        for(IIdentifier object : deletedObjects.values()) {
+            removedObjects.add(object);
+            object.eAllContents().forEachRemaining(removedObjects::add);
+        }
+        
+        Map<String, IIdentifier> addedObjectsByID = new HashMap<>();
+        for(IIdentifier addedObject : addedObjects.keySet()) {
+            addedObjectsByID.put(addedObject.getId(), addedObject);
+        }
+        
+        // Resolve the references to objects in other files to the objects that will be in the model
+        for(IIdentifier loadedObject : loadedObjects.values()) {
+            if(!resolveProxies(loadedObject, index, addedObjectsByID, removedObjects)) {
+                return false;
+            }
+        }
+        
+        // Objects that are not deleted or updated must not refer to deleted objects
+        if(!removedObjects.isEmpty() && hasReferences(model, removedObjects, updatedObjects.keySet())) {
+            return false;
+        }
+        
+        // Everything can be applied
+        
+        for(Entry<IIdentifier, IFolder> entry : addedObjects.entrySet()) {
+            entry.getValue().getElements().add(entry.getKey());
+        }
+        
+        for(Entry<IIdentifier, IFolder> entry : movedObjects.entrySet()) {
+            entry.getValue().getElements().add(entry.getKey());
+        }
+        
+        for(Entry<IIdentifier, IIdentifier> entry : updatedObjects.entrySet()) {
+            update(entry.getKey(), entry.getValue());
+        }
+        
+        for(IIdentifier object : deletedObjects.values()) {
+            EcoreUtil.remove(object);
+        }
+        
+        if(!images.isEmpty()) {
+            IArchiveManager archiveManager = (IArchiveManager)model.getAdapter(IArchiveManager.class);
+            for(Entry<String, byte[]> entry : images.entrySet()) {
+                archiveManager.addByteContentEntry("images/" + GraficoSource.getName(entry.getKey()), entry.getValue()); //$NON-NLS-1$
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Replace proxies in a loaded object and the objects it contains with the objects that they will refer to in the model
+     * @return false if a proxy refers to an object that will not be in the model
+     */
+    private boolean resolveProxies(IIdentifier loadedObject, Map<String, IIdentifier> index, Map<String, IIdentifier> addedObjectsByID,
+            Set<EObject> removedObjects) {
+        List<EObject> eObjects = new ArrayList<>();
+        eObjects.add(loadedObject);
+        loadedObject.eAllContents().forEachRemaining(eObjects::add);
+        
+        for(EObject eObject : eObjects) {
+            for(EReference reference : eObject.eClass().getEAllReferences()) {
+                if(reference.isContainment() || reference.isContainer() || reference.isDerived() || reference.isTransient()
+                        || !reference.isChangeable()) {
+                    continue;
+                }
+                
+                if(reference.isMany()) {
+                    @SuppressWarnings("unchecked")
+                    EList<EObject> values = (EList<EObject>)eObject.eGet(reference, false);
+                    for(int i = 0; i < values.size(); i++) {
+                        EObject value = values.get(i);
+                        if(value.eIsProxy()) {
+                            EObject resolved = resolve(value, index, addedObjectsByID, removedObjects);
+                            if(resolved == null) {
+                                return false;
+                            }
+                            values.set(i, resolved);
+                        }
+                    }
+                }
+                else {
+                    EObject value = (EObject)eObject.eGet(reference, false);
+                    if(value != null && value.eIsProxy()) {
+                        EObject resolved = resolve(value, index, addedObjectsByID, removedObjects);
+                        if(resolved == null) {
+                            return false;
+                        }
+                        eObject.eSet(reference, resolved);
+                    }
+                }
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * @return The object that a proxy refers to, or null if it will not be in the model.
+     *         Updated objects are updated in place so references to them are resolved to the object in the model.
+     */
+    private EObject resolve(EObject proxy, Map<String, IIdentifier> index, Map<String, IIdentifier> addedObjectsByID, Set<EObject> removedObjects) {
+        String id = EcoreUtil.getURI(proxy).fragment();
+        
+        EObject eObject = addedObjectsByID.get(id);
+        if(eObject == null) {
+            eObject = index.get(id);
+        }
+        
+        return eObject == null || removedObjects.contains(eObject) ? null : eObject;
+    }
+    
+    /**
+     * @return true if an object in the model that is not removed or updated refers to a removed object
+     */
+    private boolean hasReferences(IArchimateModel model, Set<EObject> removedObjects, Set<IIdentifier> updatedObjects) {
+        for(Collection<Setting> settings : EcoreUtil.UsageCrossReferencer.findAll(removedObjects, model).values()) {
+            for(Setting setting : settings) {
+                EStructuralFeature feature = setting.getEStructuralFeature();
+                if(feature.isDerived() || feature.isTransient()) {
+                    continue;
+                }
+                
+                // The references of removed and updated objects and their contents don't matter
+                EObject eObject = setting.getEObject();
+                while(eObject != null && !removedObjects.contains(eObject) && !updatedObjects.contains(eObject)) {
+                    eObject = eObject.eContainer();
+                }
+                
+                if(eObject == null) {
+                    return true;
+                }
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Set the features of an object in the model to those of the loaded object. Features that are the same are not set.
+     * Contained objects that are in both are updated in the same way, so that the children of a diagram and the references
+     * to them stay on the same objects. Contained objects that are only in the loaded object are moved from it.
+     */
+    private void update(EObject object, EObject loadedObject) {
+        update(object, loadedObject, matchContents(object, loadedObject));
+    }
+    
+    /**
+     * @return Loaded object -> object in the model, for the loaded object and the objects that it contains that are also in the model.
+     *         Objects with an ID are matched by their ID, anywhere in the object, other objects by their position in the matched container.
+     */
+    private Map<EObject, EObject> matchContents(EObject object, EObject loadedObject) {
+        Map<String, EObject> objectsByID = new HashMap<>();
+        for(Iterator<EObject> iter = object.eAllContents(); iter.hasNext();) {
+            EObject eObject = iter.next();
+            if(eObject instanceof IIdentifier) {
+                objectsByID.putIfAbsent(((IIdentifier)eObject).getId(), eObject);
+            }
+        }
+        
+        Map<EObject, EObject> matches = new HashMap<>();
+        matches.put(loadedObject, object);
+        
+        // Containers come before their contents
+        for(Iterator<EObject> iter = loadedObject.eAllContents(); iter.hasNext();) {
+            EObject loadedContent = iter.next();
+            EObject content = null;
+            
+            if(loadedContent instanceof IIdentifier) {
+                content = objectsByID.get(((IIdentifier)loadedContent).getId());
+            }
+            else {
+                EObject container = matches.get(loadedContent.eContainer());
+                if(container != null) {
+                    EReference reference = loadedContent.eContainmentFeature();
+                    int index = getValues(loadedContent.eContainer(), reference).indexOf(loadedContent);
+                    List<Object> values = getValues(container, reference);
+                    if(index < values.size() && !(values.get(index) instanceof IIdentifier)) {
+                        content = (EObject)values.get(index);
+                    }
+                }
+            }
+            
+            if(content != null && content.eClass() == loadedContent.eClass()) {
+                matches.put(loadedContent, content);
+            }
+        }
+        
+        return matches;
+    }
+    
+    /**
+     * Set the features of an object to those of a loaded object, replacing loaded objects with the objects in the model that they match.
+     * An unmatched loaded object is updated from itself so that its references to matched objects are replaced.
+     */
+    private void update(EObject object, EObject loadedObject, Map<EObject, EObject> matches) {
+        for(EStructuralFeature feature : object.eClass().getEAllStructuralFeatures()) {
+            if(feature.isDerived() || feature.isTransient() || !feature.isChangeable()) {
+                continue;
+            }
+            
+            if(!loadedObject.eIsSet(feature)) {
+                if(object.eIsSet(feature)) {
+                    object.eUnset(feature);
+                }
+                continue;
+            }
+            
+            List<Object> newValues = getValues(loadedObject, feature);
+            
+            for(int i = 0; i < newValues.size(); i++) {
+                Object newValue = newValues.get(i);
+                EObject match = matches.get(newValue);
+                
+                if(feature instanceof EReference && ((EReference)feature).isContainment()) {
+                    EObject newObject = (EObject)newValue;
+                    update(match != null ? match : newObject, newObject, matches);
+                }
+                
+                if(match != null) {
+                    newValues.set(i, match);
+                }
+            }
+            
+            setValues(object, feature, newValues);
+        }
+    }
+    
+    /**
+     * @return A copy of the values of a feature as a list
+     */
+    private List<Object> getValues(EObject eObject, EStructuralFeature feature) {
+        Object value = eObject.eGet(feature, false);
+        
+        if(feature.isMany()) {
+            return new ArrayList<>((Collection<?>)value);
+        }
+        
+        List<Object> values = new ArrayList<>();
+        if(value != null) {
+            values.add(value);
+        }
+        return values;
+    }
+    
+    /**
+     * Set the values of a feature if they are different. The values of a list are added, moved and removed so that the objects
+     * that are already in it are not removed first.
+     */
+    @SuppressWarnings("unchecked")
+    private void setValues(EObject eObject, EStructuralFeature feature, List<Object> values) {
+        if(feature.isMany()) {
+            EList<Object> list = (EList<Object>)eObject.eGet(feature, false);
+            if(!list.equals(values)) {
+                ECollections.setEList(list, values);
+            }
+        }
+        else {
+            Object value = values.isEmpty() ? null : values.get(0);
+            if(!Objects.equals(eObject.eGet(feature, false), value)) {
+                eObject.eSet(feature, value);
+            }
+        }
+    }
+    
+    /**
+     * @return The folder that the object in a file is in, or null if the folder is not in the model
+     */
+    private IFolder getFolder(IArchimateModel model, String path, Map<String, IIdentifier> index) {
+        String folderPath = path.substring(0, path.lastIndexOf('/'));
+        String folderName = GraficoSource.getName(folderPath);
+        
+        // Top level folders are named by their type
+        if(folderPath.equals(IGraficoConstants.MODEL_FOLDER + "/" + folderName)) { //$NON-NLS-1$
+            for(IFolder folder : model.getFolders()) {
+                if(folder.getType().toString().equals(folderName)) {
+                    return folder;
+                }
+            }
+            return null;
+        }
+        
+        // User folders are named by their id
+        IIdentifier folder = index.get(folderName);
+        return folder instanceof IFolder ? (IFolder)folder : null;
+    }
+    
+    /**
+     * @return The id of the object in a Grafico file from its file name, which is the object's class name and id,
+     *         or null if this is not a file of an object in a folder
+     */
+    private String getObjectID(String path) {
+        String name = GraficoSource.getName(path);
+        
+        if(!path.startsWith(IGraficoConstants.MODEL_FOLDER + "/") || path.indexOf('/') == path.lastIndexOf('/') //$NON-NLS-1$
+                || name.equals(IGraficoConstants.FOLDER_XML) || !name.endsWith(".xml") || name.indexOf('_') == -1) { //$NON-NLS-1$
+            return null;
+        }
+        
+        return name.substring(name.indexOf('_') + 1, name.length() - ".xml".length()); //$NON-NLS-1$
+    }
+    
+    private boolean isImageFile(String path) {
+        return path.startsWith(IGraficoConstants.IMAGES_FOLDER + "/"); //$NON-NLS-1$
+    }
+    
+    /**
+     * @return ID -> Object lookup table of the model. The first object with an ID wins, as it does for ArchimateModelUtils.getObjectByID()
+     */
+    private Map<String, IIdentifier> createObjectIndex(IArchimateModel model) {
+        Map<String, IIdentifier> index = new HashMap<>();
+        index.put(model.getId(), model);
+        
+        for(Iterator<EObject> iter = model.eAllContents(); iter.hasNext();) {
+            EObject eObject = iter.next();
+            if(eObject instanceof IIdentifier) {
+                index.putIfAbsent(((IIdentifier)eObject).getId(), (IIdentifier)eObject);
+            }
+        }
+        
+        return index;
+    }
+}
@@ -8,14 +8,18 @@ package org.archicontribs.modelrepository.grafico;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.archicontribs.modelrepository.ModelRepositoryPlugin;
+import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.xmi.XMLParserPool;
 import org.eclipse.emf.ecore.xmi.XMLResource;
+import org.eclipse.emf.ecore.xmi.impl.XMLParserPoolImpl;
 import org.eclipse.emf.ecore.xmi.impl.XMLResourceImpl;
 
 import com.archimatetool.editor.model.compatibility.IncompatibleModelException;
@@ -26,41 +30,86 @@ import com.archimatetool.model.IIdentifier;
  * Load an EObject from a file or input stream
  */
 public class GraficoResourceLoader {
+    
+    /**
+     * Don't allow DTD loading in case of XSS exploits
+     */
+    private static final Map<String, Boolean> PARSER_FEATURES = createParserFeatures();
+    
+    /**
+     * Shared pool of SAX parsers. This is thread safe.
+     */
+    private static final XMLParserPool PARSER_POOL = new XMLParserPoolImpl();
+    
+    /**
+     * Load options for the parser pool mode.
+     * One per thread because the XML name to feature map is filled in when loading and is not thread safe.
+     */
+    private static final ThreadLocal<Map<Object, Object>> POOLED_LOAD_OPTIONS = ThreadLocal.withInitial(() -> {
+        Map<Object, Object> options = new HashMap<Object, Object>();
+        options.put(XMLResource.OPTION_ENCODING, "UTF-8"); //$NON-NLS-1$
+        options.put(XMLResource.OPTION_PARSER_FEATURES, PARSER_FEATURES);
+        options.put(XMLResource.OPTION_USE_PARSER_POOL, PARSER_POOL);
+        options.put(XMLResource.OPTION_USE_XML_NAME_TO_FEATURE_MAP, new HashMap<Object, Object>());
+        options.put(XMLResource.OPTION_USE_DEPRECATED_METHODS, Boolean.FALSE);
+        return options;
+    });
 
     public static IIdentifier loadEObject(File file) throws IOException {
-        XMLResource resource = new XMLResourceImpl(URI.createFileURI(file.getAbsolutePath()));
-        return load(resource, null);
+        return loadEObject(file, useParserPool());
     }
     
     public static IIdentifier loadEObject(InputStream inputStream) throws IOException {
+        return loadEObject(inputStream, useParserPool());
+    }
+    
+    /**
+     * @param useParserPool The value of useParserPool(), read once by the caller when loading many files
+     */
+    static IIdentifier loadEObject(File file, boolean useParserPool) throws IOException {
+        XMLResource resource = new XMLResourceImpl(URI.createFileURI(file.getAbsolutePath()));
+        return load(resource, null, useParserPool);
+    }
+    
+    /**
+     * @param useParserPool The value of useParserPool(), read once by the caller when loading many files
+     */
+    static IIdentifier loadEObject(InputStream inputStream, boolean useParserPool) throws IOException {
         XMLResource resource = new XMLResourceImpl();
-        return load(resource, inputStream);
+        return load(resource, inputStream, useParserPool);
     }
     
-    private static IIdentifier load(XMLResource resource, InputStream inputStream) throws IOException {
-        resource.getDefaultLoadOptions().put(XMLResource.OPTION_ENCODING, "UTF-8"); //$NON-NLS-1$
+    private static IIdentifier load(XMLResource resource, InputStream inputStream, boolean useParserPool) throws IOException {
+        Map<Object, Object> loadOptions = null;
+        ModelCompatibility modelCompatibility = null;
         
-        // Don't allow DTD loading in case of XSS exploits
-        Map<String, Object> parserFeatures = new HashMap<String, Object>();
-        parserFeatures.put("http://apache.org/xml/features/disallow-doctype-decl", Boolean.TRUE); //$NON-NLS-1$
-        parserFeatures.put("http://apache.org/xml/features/nonvalidating/load-external-dtd", Boolean.FALSE); //$NON-NLS-1$
-        parserFeatures.put("http://xml.org/sax/features/external-general-entities", Boolean.FALSE); //$NON-NLS-1$
-        parserFeatures.put("http://xml.org/sax/features/external-parameter-entities", Boolean.FALSE); //$NON-NLS-1$
-        resource.getDefaultLoadOptions().put(XMLResource.OPTION_PARSER_FEATURES, parserFeatures);
-       
-        ModelCompatibility modelCompatibility = new ModelCompatibility(resource);
+        // Re-use pooled parsers and cached options
+        if(useParserPool) {
+            loadOptions = POOLED_LOAD_OPTIONS.get();
+        }
+        // Else set up a new parser for each load
+        else {
+            resource.getDefaultLoadOptions().put(XMLResource.OPTION_ENCODING, "UTF-8"); //$NON-NLS-1$
+            resource.getDefaultLoadOptions().put(XMLResource.OPTION_PARSER_FEATURES, new HashMap<String, Boolean>(PARSER_FEATURES));
+            modelCompatibility = new ModelCompatibility(resource);
+        }
         
         // Load the Resource so we can trap any exceptions
         try {
             if(inputStream != null) {
-                resource.load(inputStream, null);
+                resource.load(inputStream, loadOptions);
                 inputStream.close();
             }
             else {
-                resource.load(null);
+                resource.load(loadOptions);
             }
         }
         catch(IOException ex) {
+            // Only create a ModelCompatibility when we need to check the errors
+            if(modelCompatibility == null) {
+                modelCompatibility = new ModelCompatibility(resource);
+            }
+            
             // Check to see if it's an exception that is OK or not
             try {
                 modelCompatibility.checkErrors();
@@ -82,4 +131,21 @@ public class GraficoResourceLoader {
         
         return (IIdentifier)eObject;
     }
+    
+    /**
+     * @return true if pooled parsers are used, from the preferences
+     */
+    static boolean useParserPool() {
+        return ModelRepositoryPlugin.INSTANCE.getPreferenceStore().getBoolean(IPreferenceConstants.PREFS_IMPORT_USE_PARSER_POOL);
+    }
+    
+    @SuppressWarnings("nls")
+    private static Map<String, Boolean> createParserFeatures() {
+        Map<String, Boolean> parserFeatures = new HashMap<String, Boolean>();
+        parserFeatures.put("http://apache.org/xml/features/disallow-doctype-decl", Boolean.TRUE);
+        parserFeatures.put("http://apache.org/xml/features/nonvalidating/load-external-dtd", Boolean.FALSE);
+        parserFeatures.put("http://xml.org/sax/features/external-general-entities", Boolean.FALSE);
+        parserFeatures.put("http://xml.org/sax/features/external-parameter-entities", Boolean.FALSE);
+        return Collections.unmodifiableMap(parserFeatures);
+    }
 }
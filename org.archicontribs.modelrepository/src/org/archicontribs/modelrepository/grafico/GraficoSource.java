@@ -0,0 +1,198 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+
+import com.archimatetool.model.IIdentifier;
+
+/**
+ * The source of Grafico files for an import.
+ * Paths are relative to the root of the repository and use "/" as separator, for example "model/business/folder.xml"
+ */
+abstract class GraficoSource {
+    
+    // Read once for the import rather than for each file
+    final boolean fUseParserPool = GraficoResourceLoader.useParserPool();
+    
+    /**
+     * @return true if path is a file
+     */
+    abstract boolean isFile(String path);
+    
+    /**
+     * @return true if path is a folder
+     */
+    abstract boolean isFolder(String path);
+    
+    /**
+     * @return The paths of the files and sub-folders of a folder. Never null.
+     */
+    abstract List<String> list(String folderPath);
+    
+    /**
+     * @return The EObject loaded from the file at path
+     */
+    abstract IIdentifier loadEObject(String path) throws IOException;
+    
+    /**
+     * @return The contents of the file at path
+     */
+    abstract byte[] getBytes(String path) throws IOException;
+    
+    /**
+     * @return The last segment of a path
+     */
+    static String getName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+    
+    /**
+     * Grafico files in a folder on disk, usually the working tree of the repository
+     */
+    static class FolderSource extends GraficoSource {
+        private File fRootFolder;
+        
+        FolderSource(File rootFolder) {
+            fRootFolder = rootFolder;
+        }
+        
+        @Override
+        boolean isFile(String path) {
+            return new File(fRootFolder, path).isFile();
+        }
+        
+        @Override
+        boolean isFolder(String path) {
+            return new File(fRootFolder, path).isDirectory();
+        }
+        
+        @Override
+        List<String> list(String folderPath) {
+            List<String> paths = new ArrayList<>();
+            
+            File[] files = new File(fRootFolder, folderPath).listFiles();
+            if(files != null) {
+                for(File file : files) {
+                    paths.add(folderPath + "/" + file.getName()); //$NON-NLS-1$
+                }
+            }
+            
+            return paths;
+        }
+        
+        @Override
+        IIdentifier loadEObject(String path) throws IOException {
+            return GraficoResourceLoader.loadEObject(new File(fRootFolder, path), fUseParserPool);
+        }
+        
+        @Override
+        byte[] getBytes(String path) throws IOException {
+            return Files.readAllBytes(new File(fRootFolder, path).toPath());
+        }
+    }
+    
+    /**
+     * Grafico files in a tree in the git object database. Blobs are streamed from the repository and nothing is written to disk.
+     */
+    static class RepositorySource extends GraficoSource {
+        private Repository fRepository;
+        
+        // path -> blob id
+        private Map<String, ObjectId> fBlobs = new HashMap<>();
+        
+        // folder path -> child paths in tree order
+        private Map<String, List<String>> fFolders = new HashMap<>();
+        
+        /**
+         * @param repository The repository. It is not closed by this class.
+         * @param treeId The id of the root tree, for example the tree of a commit
+         */
+        RepositorySource(Repository repository, ObjectId treeId) throws IOException {
+            fRepository = repository;
+            
+            try(TreeWalk treeWalk = new TreeWalk(repository)) {
+                treeWalk.addTree(treeId);
+                treeWalk.setRecursive(true);
+                treeWalk.setFilter(PathFilterGroup.createFromStrings(IGraficoConstants.MODEL_FOLDER, IGraficoConstants.IMAGES_FOLDER));
+                
+                while(treeWalk.next()) {
+                    String path = treeWalk.getPathString();
+                    fBlobs.put(path, treeWalk.getObjectId(0));
+                    addToParentFolder(path);
+                }
+            }
+        }
+        
+        private void addToParentFolder(String path) {
+            int index = path.lastIndexOf('/');
+            if(index == -1) {
+                return;
+            }
+            
+            String parentPath = path.substring(0, index);
+            
+            List<String> children = fFolders.get(parentPath);
+            if(children == null) {
+                children = new ArrayList<>();
+                fFolders.put(parentPath, children);
+                addToParentFolder(parentPath); // First time we have seen this folder so add it to its parent
+            }
+            
+            children.add(path);
+        }
+        
+        @Override
+        boolean isFile(String path) {
+            return fBlobs.containsKey(path);
+        }
+        
+        @Override
+        boolean isFolder(String path) {
+            return fFolders.containsKey(path);
+        }
+        
+        @Override
+        List<String> list(String folderPath) {
+            List<String> children = fFolders.get(folderPath);
+            return children != null ? children : Collections.emptyList();
+        }
+        
+        @Override
+        IIdentifier loadEObject(String path) throws IOException {
+            try(InputStream in = fRepository.open(getBlobId(path), Constants.OBJ_BLOB).openStream()) {
+                return GraficoResourceLoader.loadEObject(in, fUseParserPool);
+            }
+        }
+        
+        @Override
+        byte[] getBytes(String path) throws IOException {
+            return fRepository.open(getBlobId(path), Constants.OBJ_BLOB).getBytes(Integer.MAX_VALUE);
+        }
+        
+        private ObjectId getBlobId(String path) throws IOException {
+            ObjectId id = fBlobs.get(path);
+            if(id == null) {
+                throw new IOException("File not found: " + path); //$NON-NLS-1$
+            }
+            return id;
+        }
+    }
+}
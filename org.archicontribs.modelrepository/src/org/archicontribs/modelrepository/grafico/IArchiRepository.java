@@ -85,6 +85,18 @@ public interface IArchiRepository extends IGraficoConstants {
      */
     void cloneModel(String repoURL, UsernamePassword npw, ProgressMonitor monitor) throws GitAPIException, IOException;
 
+    /**
+     * Clone a model
+     * @param repoURL
+     * @param npw
+     * @param monitor
+     * @param branch If set only this branch is cloned and later fetched, otherwise all branches are
+     * @param noTags If true tags are not cloned or later fetched
+     * @throws GitAPIException
+     * @throws IOException
+     */
+    void cloneModel(String repoURL, UsernamePassword npw, ProgressMonitor monitor, String branch, boolean noTags) throws GitAPIException, IOException;
+
     /**
      * Push to Remote
      * @param userName
@@ -105,7 +117,7 @@ public interface IArchiRepository extends IGraficoConstants {
     PullResult pullFromRemote(UsernamePassword npw, ProgressMonitor monitor) throws IOException, GitAPIException;
 
     /**
-     * Fetch from Remote
+     * Fetch from Remote, deleting the remote tracking branches of branches that have been deleted on the Remote
      * @param userName
      * @param userPassword
      * @param isDryrun
@@ -114,6 +126,27 @@ public interface IArchiRepository extends IGraficoConstants {
      */
     FetchResult fetchFromRemote(UsernamePassword npw, ProgressMonitor monitor, boolean isDryrun) throws IOException, GitAPIException;
 
+    /**
+     * Fetch from Remote, deleting the remote tracking branches of branches that have been deleted on the Remote
+     * @param npw
+     * @param monitor
+     * @param isDryrun
+     * @param timeout Timeout in seconds for each read or write on the connection, or 0 for no timeout
+     * @throws IOException
+     * @throws GitAPIException
+     */
+    FetchResult fetchFromRemote(UsernamePassword npw, ProgressMonitor monitor, boolean isDryrun, int timeout) throws IOException, GitAPIException;
+
+    /**
+     * List the branches on the Remote and compare them with the remote tracking branches, without fetching
+     * @param npw
+     * @param timeout Timeout in seconds for each read or write on the connection, or 0 for no timeout
+     * @return true if a branch has been added, deleted or moved on the Remote since the last fetch
+     * @throws IOException
+     * @throws GitAPIException
+     */
+    boolean hasRemoteChanges(UsernamePassword npw, int timeout) throws IOException, GitAPIException;
+
     /**
      * Create a new, local Git repository with name set to "origin"
      * @param URL online URL
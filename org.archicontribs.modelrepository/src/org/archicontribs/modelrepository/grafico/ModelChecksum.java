@@ -0,0 +1,197 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Detects whether a repository's temp model file has changed since its checksum was saved.
+ * 
+ * The checksum file holds the MD5 checksum of the model file followed by the model file's size and modification time
+ * when the checksum was saved. The model file is only hashed if its size is the same but its modification time is different.
+ * The result is cached per model file until the model file or the checksum file changes.
+ */
+class ModelChecksum {
+    
+    /**
+     * A file modified less than this long before it was looked at might be modified again without its modification time changing
+     */
+    private static final long RACY_INTERVAL = 2000;
+    
+    private static final int BUFFER_SIZE = 256 * 1024;
+    
+    /**
+     * Size and modification time of a file
+     */
+    private static class FileStamp {
+        long size;
+        long modified;
+        
+        FileStamp(long size, long modified) {
+            this.size = size;
+            this.modified = modified;
+        }
+        
+        boolean isSame(FileStamp other) {
+            return other != null && size == other.size && modified == other.modified;
+        }
+    }
+    
+    /**
+     * Cached result for a model file
+     */
+    private static class CachedResult {
+        FileStamp modelStamp;
+        FileStamp checksumStamp;
+        boolean hasChanges;
+    }
+    
+    private static Map<File, CachedResult> cache = new ConcurrentHashMap<>();
+    
+    private ModelChecksum() {
+    }
+    
+    /**
+     * @return true if the model file has changed since the checksum was saved.
+     *         If there is no saved checksum or no model file, false is returned
+     */
+    static boolean hasChanges(File modelFile, File checksumFile) throws IOException {
+        FileStamp modelStamp = getFileStamp(modelFile);
+        FileStamp checksumStamp = getFileStamp(checksumFile);
+        
+        if(modelStamp == null || checksumStamp == null) {
+            return false;
+        }
+        
+        CachedResult cached = cache.get(modelFile);
+        if(cached != null && modelStamp.isSame(cached.modelStamp) && checksumStamp.isSame(cached.checksumStamp)) {
+            return cached.hasChanges;
+        }
+        
+        boolean hasChanges = calculateHasChanges(modelFile, modelStamp, checksumFile);
+        
+        // Only cache if a later change to the model file will change its stamp
+        if(!isRacy(modelStamp)) {
+            CachedResult result = new CachedResult();
+            result.modelStamp = modelStamp;
+            result.checksumStamp = checksumStamp;
+            result.hasChanges = hasChanges;
+            cache.put(modelFile, result);
+        }
+        
+        return hasChanges;
+    }
+    
+    /**
+     * Save the checksum, size and modification time of the model file to the checksum file
+     * @return true if saved, false if there is no model file
+     */
+    static boolean save(File modelFile, File checksumFile) throws IOException {
+        FileStamp modelStamp = getFileStamp(modelFile);
+        if(modelStamp == null) {
+            return false;
+        }
+        
+        String checksum = createChecksum(modelFile);
+        
+        // If the model file could still be changed without changing its modification time don't store the time so that it is hashed next time
+        long modified = isRacy(modelStamp) ? -1 : modelStamp.modified;
+        
+        String contents = checksum + "\n" + modelStamp.size + "\n" + modified; //$NON-NLS-1$ //$NON-NLS-2$
+        Files.write(checksumFile.toPath(), contents.getBytes(StandardCharsets.US_ASCII),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        
+        cache.remove(modelFile);
+        
+        return true;
+    }
+    
+    private static boolean calculateHasChanges(File modelFile, FileStamp modelStamp, File checksumFile) throws IOException {
+        String[] saved = new String(Files.readAllBytes(checksumFile.toPath()), StandardCharsets.US_ASCII).trim().split("\\s+"); //$NON-NLS-1$
+        
+        // Checksum files from previous versions only have the checksum
+        if(saved.length >= 3) {
+            try {
+                FileStamp savedStamp = new FileStamp(Long.parseLong(saved[1]), Long.parseLong(saved[2]));
+                
+                // Same size and time so no change
+                if(savedStamp.isSame(modelStamp)) {
+                    return false;
+                }
+                
+                // Different size so it has changed
+                if(savedStamp.size != modelStamp.size) {
+                    return true;
+                }
+            }
+            catch(NumberFormatException ex) {
+                // Ignore and compare the checksum
+            }
+        }
+        
+        return !saved[0].equals(createChecksum(modelFile));
+    }
+    
+    private static FileStamp getFileStamp(File file) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return new FileStamp(attributes.size(), attributes.lastModifiedTime().toMillis());
+        }
+        catch(NoSuchFileException ex) {
+            return null;
+        }
+    }
+    
+    private static boolean isRacy(FileStamp stamp) {
+        return System.currentTimeMillis() - stamp.modified < RACY_INTERVAL;
+    }
+    
+    /**
+     * @return The MD5 checksum of the file as a hex string.
+     * This does not use a memory mapped file as on Windows that would lock the file until the mapping is garbage collected.
+     */
+    static String createChecksum(File file) throws IOException {
+        MessageDigest digest = null;
+        try {
+            digest = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+        }
+        catch(NoSuchAlgorithmException ex) {
+            throw new IOException("NoSuchAlgorithm Exception", ex); //$NON-NLS-1$
+        }
+        
+        Path path = file.toPath();
+        
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(BUFFER_SIZE, Math.max(channel.size(), 1)));
+            while(channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        
+        // Convert to hexadecimal format
+        StringBuilder sb = new StringBuilder();
+        for(byte b : digest.digest()) {
+            sb.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
+        }
+        
+        return sb.toString();
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+/**
+ * Snapshots of models imported from Grafico files, saved as *.archimate files in the repository's .git folder
+ * 
+ * A snapshot is keyed by the ids of the git trees of the "model" and "images" folders, which only change if a file in them changes.
+ * A model that has already been imported from the same files, for example before switching to another branch and back,
+ * can be opened from its snapshot instead of parsing all of the Grafico files again.
+ * The least recently used snapshots are deleted when the snapshots take up more than the maximum size.
+ */
+public class ModelSnapshotCache {
+    
+    private static final String SNAPSHOTS_FOLDER = "snapshots"; //$NON-NLS-1$
+    private static final String SNAPSHOT_EXTENSION = ".archimate"; //$NON-NLS-1$
+    
+    private File fFolder;
+    private long fMaxSize;
+    
+    /**
+     * @param repo The repository
+     * @param maxSize The maximum size of all snapshots in bytes
+     */
+    public ModelSnapshotCache(IArchiRepository repo, long maxSize) {
+        fFolder = new File(repo.getLocalGitFolder(), SNAPSHOTS_FOLDER);
+        fMaxSize = maxSize;
+    }
+    
+    /**
+     * @param repository The repository
+     * @param treeId The root tree of a commit
+     * @return The key of the model in the tree, or null if there is no model in the tree
+     * @throws IOException
+     */
+    public static String getKey(Repository repository, ObjectId treeId) throws IOException {
+        ObjectId modelTreeId = getTreeId(repository, treeId, IGraficoConstants.MODEL_FOLDER);
+        if(modelTreeId == null) {
+            return null;
+        }
+        
+        ObjectId imagesTreeId = getTreeId(repository, treeId, IGraficoConstants.IMAGES_FOLDER);
+        
+        return modelTreeId.name() + (imagesTreeId != null ? "_" + imagesTreeId.name() : ""); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    
+    private static ObjectId getTreeId(Repository repository, ObjectId treeId, String path) throws IOException {
+        try(TreeWalk treeWalk = TreeWalk.forPath(repository, path, treeId)) {
+            return treeWalk != null ? treeWalk.getObjectId(0) : null;
+        }
+    }
+    
+    /**
+     * @param key The key of the model
+     * @return The snapshot file of the model, or null if there is no snapshot
+     */
+    public File get(String key) {
+        File file = getFile(key);
+        if(!file.isFile()) {
+            return null;
+        }
+        
+        // Most recently used
+        file.setLastModified(System.currentTimeMillis());
+        
+        return file;
+    }
+    
+    /**
+     * Save a copy of a model file as the snapshot of a model and delete the least recently used snapshots if there are too many
+     * @param key The key of the model
+     * @param modelFile The saved model file
+     * @throws IOException
+     */
+    public void put(String key, File modelFile) throws IOException {
+        fFolder.mkdirs();
+        
+        // Copy to a temporary file first so that a snapshot is never incomplete
+        File tmpFile = File.createTempFile("snapshot", null, fFolder); //$NON-NLS-1$
+        
+        try {
+            Files.copy(modelFile.toPath(), tmpFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmpFile.toPath(), getFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            tmpFile.delete();
+        }
+        
+        getFile(key).setLastModified(System.currentTimeMillis());
+        
+        deleteLeastRecentlyUsed();
+    }
+    
+    /**
+     * Delete the least recently used snapshots until the snapshots take up no more than the maximum size
+     */
+    private void deleteLeastRecentlyUsed() {
+        File[] files = getSnapshotFiles();
+        
+        long size = 0;
+        for(File file : files) {
+            size += file.length();
+        }
+        
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        
+        for(int i = 0; i < files.length && size > fMaxSize; i++) {
+            size -= files[i].length();
+            files[i].delete();
+        }
+    }
+    
+    private File[] getSnapshotFiles() {
+        File[] files = fFolder.listFiles((dir, name) -> name.endsWith(SNAPSHOT_EXTENSION));
+        return files != null ? files : new File[0];
+    }
+    
+    private File getFile(String key) {
+        return new File(fFolder, key + SNAPSHOT_EXTENSION);
+    }
+}
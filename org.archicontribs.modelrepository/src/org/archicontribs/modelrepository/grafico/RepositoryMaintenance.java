@@ -0,0 +1,269 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.EmptyProgressMonitor;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.pack.PackConfig;
+
+/**
+ * Background maintenance of local repositories
+ * 
+ * Every commit adds loose objects to a repository and every fetch adds a pack, which makes status, log and fetch slower over time.
+ * When a repository's history or branches change it is queued and, once no more changes have been seen for a while,
+ * the number of loose objects and packs is counted. If there are more than the "gc.auto" and "gc.autoPackLimit" config
+ * settings allow (or Git's defaults) all objects are repacked into one pack with a bitmap index and the loose objects are deleted.
+ * Setting "gc.auto" to 0 turns this off for a repository, as it does for Git.
+ * 
+ * Maintenance runs in a low priority Job and keeps out of the way of user operations. A repository is skipped if a Git lock file
+ * shows that something else is changing it. Refs are not packed and unreachable loose objects are only deleted once they are older
+ * than "gc.pruneExpire" (two weeks by default), so refs and objects that a user operation is writing are never locked or deleted.
+ * Repacking keeps the old packs readable until the new pack is written.
+ */
+public class RepositoryMaintenance implements IRepositoryListener {
+    
+    public static final RepositoryMaintenance INSTANCE = new RepositoryMaintenance();
+    
+    /**
+     * Time to wait after the last change to a repository before maintaining it
+     */
+    static final long DELAY = 60000;
+    
+    /**
+     * Git's default for "gc.auto"
+     */
+    static final int DEFAULT_AUTO = 6700;
+    
+    /**
+     * Git's default for "gc.autoPackLimit"
+     */
+    static final int DEFAULT_AUTO_PACK_LIMIT = 50;
+    
+    /**
+     * Lock files in the .git folder that show that a Git operation is running
+     */
+    private static final String[] LOCK_FILES = {
+            "index.lock", //$NON-NLS-1$
+            "HEAD.lock", //$NON-NLS-1$
+            "packed-refs.lock", //$NON-NLS-1$
+            "gc.pid" //$NON-NLS-1$
+    };
+    
+    // Local repository folders waiting to be maintained
+    private Set<File> fQueue = new LinkedHashSet<>();
+    
+    private Job fJob = new Job("Repository Maintenance Job") { //$NON-NLS-1$
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+            File folder;
+            
+            while((folder = next()) != null) {
+                if(monitor.isCanceled()) {
+                    return Status.CANCEL_STATUS;
+                }
+                
+                maintain(folder, monitor);
+            }
+            
+            return Status.OK_STATUS;
+        }
+    };
+    
+    private RepositoryMaintenance() {
+        fJob.setSystem(true);
+        fJob.setPriority(Job.DECORATE);
+    }
+    
+    /**
+     * Start listening to repository changes
+     */
+    public void start() {
+        RepositoryListenerManager.INSTANCE.addListener(this);
+    }
+    
+    /**
+     * Stop listening to repository changes and cancel any running maintenance
+     */
+    public void stop() {
+        RepositoryListenerManager.INSTANCE.removeListener(this);
+        
+        synchronized(this) {
+            fQueue.clear();
+        }
+        
+        fJob.cancel();
+    }
+    
+    /**
+     * Queue a local repository for maintenance. Maintenance starts when no repository has been queued for DELAY milliseconds.
+     */
+    public void schedule(File localRepoFolder) {
+        synchronized(this) {
+            fQueue.add(localRepoFolder.getAbsoluteFile());
+        }
+        
+        fJob.schedule(DELAY);
+    }
+    
+    /**
+     * @return The next local repository folder to maintain, or null if there are none
+     */
+    private synchronized File next() {
+        Iterator<File> iter = fQueue.iterator();
+        if(!iter.hasNext()) {
+            return null;
+        }
+        
+        File folder = iter.next();
+        iter.remove();
+        return folder;
+    }
+    
+    private void maintain(File localRepoFolder, IProgressMonitor monitor) {
+        // Deleted
+        if(!new File(localRepoFolder, ".git").isDirectory()) { //$NON-NLS-1$
+            return;
+        }
+        
+        try(Repository repository = RepositoryPool.open(localRepoFolder)) {
+            if(needsMaintenance(repository) && !isBusy(repository)) {
+                maintain(repository, new EmptyProgressMonitor() {
+                    @Override
+                    public boolean isCancelled() {
+                        return monitor.isCanceled();
+                    }
+                });
+            }
+        }
+        catch(IOException ex) {
+            // Cancelled or a Git operation got in the way, so leave it until next time
+            ex.printStackTrace();
+        }
+    }
+    
+    /**
+     * @return true if the repository has more loose objects or packs than its "gc.auto" and "gc.autoPackLimit" settings allow
+     */
+    static boolean needsMaintenance(Repository repository) {
+        if(!(repository instanceof FileRepository)) {
+            return false;
+        }
+        
+        int auto = repository.getConfig().getInt(ConfigConstants.CONFIG_GC_SECTION, ConfigConstants.CONFIG_KEY_AUTO, DEFAULT_AUTO);
+        if(auto <= 0) {
+            return false;
+        }
+        
+        int autoPackLimit = repository.getConfig().getInt(ConfigConstants.CONFIG_GC_SECTION, ConfigConstants.CONFIG_KEY_AUTOPACKLIMIT,
+                DEFAULT_AUTO_PACK_LIMIT);
+        
+        File objectsFolder = ((FileRepository)repository).getObjectsDirectory();
+        
+        return countLooseObjects(objectsFolder, auto) > auto
+                || (autoPackLimit > 0 && countPacks(objectsFolder) > autoPackLimit);
+    }
+    
+    /**
+     * Repack all objects into one pack with a bitmap index, delete the loose objects that are now packed
+     * and delete unreachable loose objects that have expired
+     */
+    static void maintain(Repository repository, ProgressMonitor monitor) throws IOException {
+        PackConfig packConfig = new PackConfig(repository);
+        packConfig.setBuildBitmaps(true);
+        
+        GC gc = new GC((FileRepository)repository);
+        gc.setPackConfig(packConfig);
+        gc.setProgressMonitor(monitor);
+        
+        gc.repack();
+        gc.prunePacked();
+        
+        try {
+            gc.prune(Collections.emptySet());
+        }
+        // Bad "gc.pruneExpire" setting
+        catch(ParseException ex) {
+            throw new IOException(ex);
+        }
+    }
+    
+    /**
+     * @return true if a lock file shows that a Git operation is running in the repository
+     */
+    static boolean isBusy(Repository repository) {
+        for(String name : LOCK_FILES) {
+            if(new File(repository.getDirectory(), name).exists()) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * @return The number of loose objects, counting no further than limit + 1
+     */
+    private static int countLooseObjects(File objectsFolder, int limit) {
+        int count = 0;
+        
+        // Loose objects are in the folders 00 to ff
+        for(int i = 0; i < 256 && count <= limit; i++) {
+            String[] names = new File(objectsFolder, String.format("%02x", i)).list(); //$NON-NLS-1$
+            if(names != null) {
+                count += names.length;
+            }
+        }
+        
+        return count;
+    }
+    
+    /**
+     * @return The number of packs that are not kept
+     */
+    private static int countPacks(File objectsFolder) {
+        File packFolder = new File(objectsFolder, "pack"); //$NON-NLS-1$
+        
+        String[] names = packFolder.list((dir, name) -> name.endsWith(".pack") //$NON-NLS-1$
+                && !new File(dir, name.substring(0, name.length() - 5) + ".keep").exists()); //$NON-NLS-1$
+        
+        return names == null ? 0 : names.length;
+    }
+    
+    @Override
+    public void repositoryChanged(String eventName, IArchiRepository repository) {
+        switch(eventName) {
+            case IRepositoryListener.HISTORY_CHANGED:
+            case IRepositoryListener.BRANCHES_CHANGED:
+                schedule(repository.getLocalRepositoryFolder());
+                break;
+            
+            case IRepositoryListener.REPOSITORY_DELETED:
+                synchronized(this) {
+                    fQueue.remove(repository.getLocalRepositoryFolder().getAbsoluteFile());
+                }
+                break;
+            
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryCache;
+import org.eclipse.jgit.lib.RepositoryCache.FileKey;
+import org.eclipse.jgit.lib.RepositoryCacheConfig;
+import org.eclipse.jgit.util.FS;
+
+/**
+ * Pool of shared Repository instances, one per local repository folder.
+ * 
+ * Opening a Repository reads its config and scans its packs, so rather than opening a new one for each operation
+ * the same instance is shared and reference counted. Each call to open() must be matched by a call to Repository.close()
+ * (use try-with-resources) which releases it back to the pool. A Repository that has not been used for a while is closed.
+ * 
+ * This uses JGit's RepositoryCache which is private to this plug-in as JGit is bundled in it.
+ */
+public class RepositoryPool {
+    
+    /**
+     * Time after which an unused Repository is closed
+     */
+    private static final long EXPIRE_AFTER = TimeUnit.MINUTES.toMillis(10);
+    
+    static {
+        RepositoryCacheConfig config = new RepositoryCacheConfig();
+        config.setExpireAfter(EXPIRE_AFTER);
+        config.setCleanupDelay(RepositoryCacheConfig.AUTO_CLEANUP_DELAY);
+        config.install();
+    }
+    
+    private RepositoryPool() {
+    }
+    
+    /**
+     * Get the shared Repository for a local repository folder. It must be closed by the caller when done.
+     * @param localRepoFolder The local repository working folder (or its .git folder)
+     * @return The Repository
+     * @throws IOException if the Repository does not exist or can't be opened
+     */
+    public static Repository open(File localRepoFolder) throws IOException {
+        return RepositoryCache.open(FileKey.lenient(localRepoFolder, FS.DETECTED));
+    }
+    
+    /**
+     * Close and remove the shared Repository for a local repository folder, even if it is in use.
+     * Call this before deleting or replacing the folder.
+     * @param localRepoFolder The local repository working folder (or its .git folder)
+     * @throws IOException
+     */
+    public static void evict(File localRepoFolder) throws IOException {
+        File gitDir = FileKey.resolve(localRepoFolder, FS.DETECTED);
+        if(gitDir == null) {
+            return;
+        }
+        
+        FileKey key = FileKey.exact(gitDir, FS.DETECTED);
+        if(RepositoryCache.getRegisteredKeys().contains(key)) {
+            // This closes it and removes it from the cache
+            RepositoryCache.close(RepositoryCache.open(key));
+        }
+    }
+    
+    /**
+     * Close and remove all shared Repository instances
+     */
+    public static void clear() {
+        RepositoryCache.clear();
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.IndexDiff;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+
+/**
+ * Status of the working tree and index compared to HEAD for a set of paths, as given by "git status" for those paths.
+ */
+class WorkingTreeStatus {
+    
+    private Set<String> fAdded;
+    private Set<String> fChanged;
+    private Set<String> fRemoved;
+    private Set<String> fMissing;
+    private Set<String> fModified;
+    private Set<String> fUntracked;
+    private Set<String> fConflicting;
+    
+    /**
+     * Compute the status of paths
+     * @param repository The repository
+     * @param paths Paths of files or folders relative to the working tree
+     */
+    WorkingTreeStatus(Repository repository, Collection<String> paths) throws IOException {
+        if(paths.isEmpty()) {
+            fAdded = fChanged = fRemoved = fMissing = fModified = fUntracked = fConflicting = Collections.emptySet();
+            return;
+        }
+        
+        IndexDiff diff = new IndexDiff(repository, Constants.HEAD, new FileTreeIterator(repository));
+        diff.setFilter(PathFilterGroup.createFromStrings(paths));
+        diff.diff();
+        
+        fAdded = new HashSet<>(diff.getAdded());
+        fChanged = new HashSet<>(diff.getChanged());
+        fRemoved = new HashSet<>(diff.getRemoved());
+        fMissing = new HashSet<>(diff.getMissing());
+        fModified = new HashSet<>(diff.getModified());
+        fUntracked = new HashSet<>(diff.getUntracked());
+        fConflicting = new HashSet<>(diff.getConflicting());
+    }
+    
+    private WorkingTreeStatus() {
+    }
+    
+    /**
+     * @return A new status which is this one with the status of paths computed again
+     * @param repository The repository
+     * @param paths Paths of files relative to the working tree
+     */
+    WorkingTreeStatus update(Repository repository, Collection<String> paths) throws IOException {
+        WorkingTreeStatus pathsStatus = new WorkingTreeStatus(repository, paths);
+        
+        WorkingTreeStatus status = new WorkingTreeStatus();
+        status.fAdded = merge(fAdded, pathsStatus.fAdded, paths);
+        status.fChanged = merge(fChanged, pathsStatus.fChanged, paths);
+        status.fRemoved = merge(fRemoved, pathsStatus.fRemoved, paths);
+        status.fMissing = merge(fMissing, pathsStatus.fMissing, paths);
+        status.fModified = merge(fModified, pathsStatus.fModified, paths);
+        status.fUntracked = merge(fUntracked, pathsStatus.fUntracked, paths);
+        status.fConflicting = merge(fConflicting, pathsStatus.fConflicting, paths);
+        return status;
+    }
+    
+    private Set<String> merge(Set<String> set, Set<String> pathsSet, Collection<String> paths) {
+        Set<String> result = new HashSet<>(set);
+        result.removeAll(paths);
+        result.addAll(pathsSet);
+        return result;
+    }
+    
+    /**
+     * @return true if there are no changes and no untracked files
+     */
+    boolean isClean() {
+        return fAdded.isEmpty() && fChanged.isEmpty() && fRemoved.isEmpty() && fMissing.isEmpty()
+                && fModified.isEmpty() && fUntracked.isEmpty() && fConflicting.isEmpty();
+    }
+    
+    /**
+     * @return Files added to the index, not in HEAD
+     */
+    Set<String> getAdded() {
+        return Collections.unmodifiableSet(fAdded);
+    }
+    
+    /**
+     * @return Files changed from HEAD to the index
+     */
+    Set<String> getChanged() {
+        return Collections.unmodifiableSet(fChanged);
+    }
+    
+    /**
+     * @return Files removed from the index, but in HEAD
+     */
+    Set<String> getRemoved() {
+        return Collections.unmodifiableSet(fRemoved);
+    }
+    
+    /**
+     * @return Files in the index but not in the working tree
+     */
+    Set<String> getMissing() {
+        return Collections.unmodifiableSet(fMissing);
+    }
+    
+    /**
+     * @return Files modified in the working tree compared to the index
+     */
+    Set<String> getModified() {
+        return Collections.unmodifiableSet(fModified);
+    }
+    
+    /**
+     * @return Files in the working tree but not in the index
+     */
+    Set<String> getUntracked() {
+        return Collections.unmodifiableSet(fUntracked);
+    }
+    
+    /**
+     * @return Files with unresolved conflicts
+     */
+    Set<String> getConflicting() {
+        return Collections.unmodifiableSet(fConflicting);
+    }
+}
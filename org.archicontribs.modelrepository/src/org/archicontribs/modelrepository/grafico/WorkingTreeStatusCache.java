@@ -0,0 +1,215 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Cache of the working tree status of the model and images folders per repository
+ * 
+ * Only the model and images folders are looked at as these hold the Grafico files, so the rest of the working tree is not walked.
+ * The cached status is used while HEAD, the index file and the modification times of the folders are unchanged.
+ * A folder's modification time changes when a file is added to it or deleted from it, but not when a file in it is written.
+ * Files are only written by the exporter and by Git commands. The exporter reports the paths it touched with pathsChanged() and
+ * only these paths are looked at again. Git commands update the index so the status is computed again.
+ */
+class WorkingTreeStatusCache implements IRepositoryListener {
+    
+    static final WorkingTreeStatusCache INSTANCE = new WorkingTreeStatusCache();
+    
+    /**
+     * A file modified less than this long before it was looked at might be modified again without its modification time changing
+     */
+    private static final long RACY_INTERVAL = 2000;
+    
+    private static final List<String> PATHS = Arrays.asList(IGraficoConstants.MODEL_FOLDER, IGraficoConstants.IMAGES_FOLDER);
+    
+    private static class Entry {
+        WorkingTreeStatus status;
+        ObjectId head;
+        long indexSize;
+        long indexModified;
+        Map<File, Long> folderModified;
+        Set<String> changedPaths = new HashSet<>();
+    }
+    
+    private Map<File, Entry> fEntries = new HashMap<>();
+    
+    private WorkingTreeStatusCache() {
+        RepositoryListenerManager.INSTANCE.addListener(this);
+    }
+    
+    /**
+     * @return The status of the model and images folders
+     */
+    synchronized WorkingTreeStatus getStatus(Repository repository) throws IOException {
+        File workTree = repository.getWorkTree().getAbsoluteFile();
+        File indexFile = repository.getIndexFile();
+        ObjectId head = repository.resolve(Constants.HEAD);
+        
+        Entry entry = fEntries.get(workTree);
+        
+        if(entry != null && Objects.equals(entry.head, head) && entry.indexSize == indexFile.length()
+                && entry.indexModified == indexFile.lastModified() && !hasFoldersChanged(entry.folderModified)) {
+            // Only look at the paths that were reported
+            if(!entry.changedPaths.isEmpty()) {
+                entry.status = entry.status.update(repository, entry.changedPaths);
+                entry.changedPaths.clear();
+            }
+            
+            return entry.status;
+        }
+        
+        // Read these before getting the status so that any change made while getting it is seen next time
+        entry = new Entry();
+        entry.head = head;
+        entry.indexSize = indexFile.length();
+        entry.indexModified = getModified(indexFile);
+        entry.folderModified = getFolders(workTree);
+        entry.status = new WorkingTreeStatus(repository, PATHS);
+        fEntries.put(workTree, entry);
+        
+        return entry.status;
+    }
+    
+    /**
+     * Paths in the working tree and index have been changed by the exporter.
+     * If nothing else changed since the last status, the next status only looks at these paths again rather than all paths.
+     * @param repository The repository
+     * @param paths Paths of files relative to the working tree that were written, deleted, staged or removed from the index
+     * @param indexSize The size of the index file before the paths were changed
+     * @param indexModified The modification time of the index file before the paths were changed
+     */
+    synchronized void pathsChanged(Repository repository, Collection<String> paths, long indexSize, long indexModified) throws IOException {
+        File workTree = repository.getWorkTree().getAbsoluteFile();
+        File indexFile = repository.getIndexFile();
+        
+        Entry entry = fEntries.get(workTree);
+        if(entry == null) {
+            return;
+        }
+        
+        // Only the parent folders of the paths should have changed
+        Set<File> parentFolders = getParentFolders(workTree, paths);
+        Map<File, Long> otherFolders = new HashMap<>(entry.folderModified);
+        otherFolders.keySet().removeAll(parentFolders);
+        
+        // Something else changed
+        if(!Objects.equals(entry.head, repository.resolve(Constants.HEAD)) || entry.indexSize != indexSize
+                || entry.indexModified != indexModified || hasFoldersChanged(otherFolders)) {
+            fEntries.remove(workTree);
+            return;
+        }
+        
+        entry.changedPaths.addAll(paths);
+        
+        // The index and folders now include these changes
+        entry.indexSize = indexFile.length();
+        entry.indexModified = indexFile.lastModified();
+        
+        for(File folder : parentFolders) {
+            if(folder.isDirectory()) {
+                entry.folderModified.put(folder, folder.lastModified());
+            }
+            else {
+                entry.folderModified.remove(folder);
+            }
+        }
+    }
+    
+    /**
+     * Remove the cached status for a repository
+     */
+    synchronized void remove(File localRepoFolder) {
+        fEntries.remove(localRepoFolder.getAbsoluteFile());
+    }
+    
+    /**
+     * @return true if any folder's modification time is different or the folder has been deleted
+     */
+    private boolean hasFoldersChanged(Map<File, Long> folderModified) {
+        for(Map.Entry<File, Long> e : folderModified.entrySet()) {
+            long modified = e.getKey().lastModified(); // This is 0 if the folder doesn't exist
+            if(modified == 0 || modified != e.getValue()) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * @return The modification times of the working tree folder, the model and images folders and all of their sub-folders.
+     *         The working tree folder is included so that the creation or deletion of the model or images folder is seen.
+     */
+    private Map<File, Long> getFolders(File workTree) throws IOException {
+        Map<File, Long> folders = new HashMap<>();
+        
+        folders.put(workTree, getModified(workTree));
+        
+        for(String path : PATHS) {
+            File folder = new File(workTree, path);
+            if(folder.isDirectory()) {
+                try(Stream<Path> stream = Files.walk(folder.toPath())) {
+                    for(Path p : stream.filter(Files::isDirectory).collect(Collectors.toList())) {
+                        File file = p.toFile();
+                        folders.put(file, getModified(file));
+                    }
+                }
+            }
+        }
+        
+        return folders;
+    }
+    
+    /**
+     * @return The parent folders of paths
+     */
+    private Set<File> getParentFolders(File workTree, Collection<String> paths) {
+        Set<File> folders = new HashSet<>();
+        
+        for(String path : paths) {
+            File parent = new File(workTree, path).getParentFile();
+            while(parent != null && !parent.equals(workTree) && folders.add(parent)) {
+                parent = parent.getParentFile();
+            }
+        }
+        
+        return folders;
+    }
+    
+    /**
+     * @return The modification time of a file, or -1 if it was modified so recently that a change could be missed
+     */
+    private long getModified(File file) {
+        long modified = file.lastModified();
+        return System.currentTimeMillis() - modified < RACY_INTERVAL ? -1 : modified;
+    }
+    
+    @Override
+    public void repositoryChanged(String eventName, IArchiRepository repository) {
+        if(IRepositoryListener.REPOSITORY_DELETED.equals(eventName)) {
+            remove(repository.getLocalRepositoryFolder());
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.merge;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.archicontribs.modelrepository.grafico.GraficoModelExporter;
+import org.archicontribs.modelrepository.grafico.GraficoResourceLoader;
+import org.eclipse.emf.common.util.ECollections;
+import org.eclipse.emf.common.util.EList;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.emf.ecore.util.EcoreUtil.EqualityHelper;
+
+import com.archimatetool.model.IIdentifier;
+
+/**
+ * Three-way merge of the object in a Grafico XML file, feature by feature
+ * 
+ * A text merge of a Grafico XML file conflicts when both sides changed lines that are close together, even if they changed
+ * different things such as the name and the documentation of an element or the bounds of two different objects in a diagram.
+ * Here the base, ours and theirs versions of the file are loaded and each feature of the object is compared with the base.
+ * If only they changed a feature their value is taken, if only we changed it our value is kept.
+ * If both changed a contained object, such as the bounds of a diagram object or the children of a diagram, and the objects
+ * are still the same objects in the same order then these are merged in the same way.
+ * Only if both changed the same feature to different values is there a conflict.
+ */
+class GraficoElementMerger {
+    
+    /**
+     * Compares the values of a feature in two objects. References to objects in other files are proxies and are compared by their URI.
+     */
+    @SuppressWarnings("serial")
+    private static class FeatureEqualityHelper extends EqualityHelper {
+        boolean equals(EObject eObject1, EObject eObject2, EStructuralFeature feature) {
+            return haveEqualFeature(eObject1, eObject2, feature);
+        }
+    }
+    
+    /**
+     * @param base The contents of the file in the merge base
+     * @param ours The contents of the file in our commit
+     * @param theirs The contents of the file in their commit
+     * @return The merged file contents, or null if both sides changed the same thing differently
+     * @throws IOException if a file could not be loaded or saved
+     */
+    static byte[] merge(byte[] base, byte[] ours, byte[] theirs) throws IOException {
+        EObject baseObject = GraficoResourceLoader.loadEObject(new ByteArrayInputStream(base));
+        EObject ourObject = GraficoResourceLoader.loadEObject(new ByteArrayInputStream(ours));
+        EObject theirObject = GraficoResourceLoader.loadEObject(new ByteArrayInputStream(theirs));
+        
+        // Their changes are applied to our object
+        if(!merge(baseObject, ourObject, theirObject) || !resolveReferences(ourObject)) {
+            return null;
+        }
+        
+        return GraficoModelExporter.saveEObject(ourObject);
+    }
+    
+    /**
+     * Apply their changes to our object
+     * @return false if both sides changed the same feature differently. Our object is then partly merged and should not be used.
+     */
+    private static boolean merge(EObject base, EObject ours, EObject theirs) {
+        if(base.eClass() != ours.eClass() || base.eClass() != theirs.eClass()) {
+            return false;
+        }
+        
+        for(EStructuralFeature feature : base.eClass().getEAllStructuralFeatures()) {
+            if(feature.isDerived() || feature.isTransient() || !feature.isChangeable()) {
+                continue;
+            }
+            
+            // Not changed by them
+            if(isEqual(base, theirs, feature)) {
+                continue;
+            }
+            
+            // Changed by them only
+            if(isEqual(base, ours, feature)) {
+                copy(theirs, ours, feature);
+            }
+            // Changed by both
+            else if(!isEqual(ours, theirs, feature) && !mergeContents(base, ours, theirs, feature)) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Their values that were copied can refer to objects in their file, such as the source and target of a diagram connection.
+     * Replace these with the objects in our file that have the same ID, so that our object only refers to objects in itself
+     * or in other files.
+     * @return false if an object that is referred to is not in our file
+     */
+    private static boolean resolveReferences(EObject ours) {
+        List<EObject> eObjects = new ArrayList<>();
+        eObjects.add(ours);
+        ours.eAllContents().forEachRemaining(eObjects::add);
+        
+        Map<String, EObject> objectsByID = new HashMap<>();
+        for(EObject eObject : eObjects) {
+            if(eObject instanceof IIdentifier) {
+                objectsByID.putIfAbsent(((IIdentifier)eObject).getId(), eObject);
+            }
+        }
+        
+        for(EObject eObject : eObjects) {
+            for(EReference reference : eObject.eClass().getEAllReferences()) {
+                if(reference.isContainment() || reference.isContainer() || reference.isDerived() || reference.isTransient()
+                        || !reference.isChangeable()) {
+                    continue;
+                }
+                
+                if(reference.isMany()) {
+                    @SuppressWarnings("unchecked")
+                    EList<EObject> values = (EList<EObject>)eObject.eGet(reference, false);
+                    List<EObject> newValues = new ArrayList<>();
+                    
+                    for(EObject value : values) {
+                        EObject newValue = resolve(value, ours, objectsByID);
+                        if(newValue == null) {
+                            return false;
+                        }
+                        newValues.add(newValue);
+                    }
+                    
+                    if(!values.equals(newValues)) {
+                        ECollections.setEList(values, newValues);
+                    }
+                }
+                else {
+                    EObject value = (EObject)eObject.eGet(reference, false);
+                    if(value != null) {
+                        EObject newValue = resolve(value, ours, objectsByID);
+                        if(newValue == null) {
+                            return false;
+                        }
+                        if(newValue != value) {
+                            eObject.eSet(reference, newValue);
+                        }
+                    }
+                }
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * @return The object in our file for a referenced object, the same object if it is in our file or in another file,
+     *         or null if it is not in our file
+     */
+    private static EObject resolve(EObject value, EObject ours, Map<String, EObject> objectsByID) {
+        // A proxy refers to an object in another file
+        if(value.eIsProxy() || EcoreUtil.isAncestor(ours, value)) {
+            return value;
+        }
+        
+        return value instanceof IIdentifier ? objectsByID.get(((IIdentifier)value).getId()) : null;
+    }
+    
+    /**
+     * Merge the objects contained in a feature that both sides changed
+     * @return false if they can't be merged
+     */
+    private static boolean mergeContents(EObject base, EObject ours, EObject theirs, EStructuralFeature feature) {
+        if(!(feature instanceof EReference) || !((EReference)feature).isContainment()) {
+            return false;
+        }
+        
+        if(!feature.isMany()) {
+            EObject baseValue = (EObject)base.eGet(feature, false);
+            EObject ourValue = (EObject)ours.eGet(feature, false);
+            EObject theirValue = (EObject)theirs.eGet(feature, false);
+            return baseValue != null && ourValue != null && theirValue != null && merge(baseValue, ourValue, theirValue);
+        }
+        
+        List<?> baseValues = (List<?>)base.eGet(feature, false);
+        List<?> ourValues = (List<?>)ours.eGet(feature, false);
+        List<?> theirValues = (List<?>)theirs.eGet(feature, false);
+        
+        // Objects were added, removed or moved
+        if(baseValues.size() != ourValues.size() || baseValues.size() != theirValues.size()) {
+            return false;
+        }
+        
+        for(int i = 0; i < baseValues.size(); i++) {
+            EObject baseValue = (EObject)baseValues.get(i);
+            EObject ourValue = (EObject)ourValues.get(i);
+            EObject theirValue = (EObject)theirValues.get(i);
+            
+            if(!isSameObject(baseValue, ourValue) || !isSameObject(baseValue, theirValue) || !merge(baseValue, ourValue, theirValue)) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * @return true if two objects have the same ID, or the same class if they don't have an ID
+     */
+    private static boolean isSameObject(EObject eObject1, EObject eObject2) {
+        if(eObject1 instanceof IIdentifier && eObject2 instanceof IIdentifier) {
+            String id = ((IIdentifier)eObject1).getId();
+            return id != null && id.equals(((IIdentifier)eObject2).getId());
+        }
+        
+        return eObject1.eClass() == eObject2.eClass();
+    }
+    
+    private static boolean isEqual(EObject eObject1, EObject eObject2, EStructuralFeature feature) {
+        return new FeatureEqualityHelper().equals(eObject1, eObject2, feature);
+    }
+    
+    /**
+     * Copy the value of a feature. Contained objects are moved. References to objects in their file are replaced by resolveReferences().
+     */
+    private static void copy(EObject from, EObject to, EStructuralFeature feature) {
+        if(!from.eIsSet(feature)) {
+            to.eUnset(feature);
+        }
+        else if(feature.isMany()) {
+            // Copy the list first because moving contained objects removes them from it
+            to.eSet(feature, new ArrayList<>((Collection<?>)from.eGet(feature, false)));
+        }
+        else {
+            to.eSet(feature, from.eGet(feature, false));
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.merge;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.archicontribs.modelrepository.grafico.IArchiRepository;
+import org.archicontribs.modelrepository.grafico.IGraficoConstants;
+import org.archicontribs.modelrepository.grafico.RepositoryPool;
+import org.eclipse.jgit.api.MergeResult.MergeStatus;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheCheckout;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.merge.RecursiveMerger;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Merges a commit into HEAD in memory
+ * 
+ * The two commits and their merge base are merged with Git's recursive merge without using the working tree or the index.
+ * Grafico XML files that still conflict are then merged object by object with GraficoElementMerger, so that changes
+ * to different features of the same object don't conflict. Any files that still conflict can be resolved by taking
+ * our or their version.
+ * 
+ * Only when the merge is committed are the working tree and the index updated, once, from HEAD to the merged tree.
+ * If the merge is not committed nothing has changed and there is nothing to reset.
+ */
+public class GraficoMerger {
+    
+    /**
+     * A recursive merger that gives access to its in-core DirCache, which has conflict stages for the unmerged paths,
+     * and to its merge base
+     */
+    private static class InCoreMerger extends RecursiveMerger {
+        // The merge base, or null if there is no merge base
+        private RevCommit fBaseCommit;
+        
+        InCoreMerger(Repository repository) {
+            super(repository, true);
+        }
+        
+        @Override
+        protected RevCommit getBaseCommit(RevCommit a, RevCommit b) throws IncorrectObjectTypeException, IOException {
+            // When there is more than one merge base this is a virtual commit that merges them.
+            // Its tree is written but the commit is not, so it can't be parsed again from its id.
+            return fBaseCommit = super.getBaseCommit(a, b);
+        }
+        
+        DirCache getDirCache() {
+            return dircache;
+        }
+        
+        RevCommit getBaseCommit() {
+            return fBaseCommit;
+        }
+    }
+    
+    private IArchiRepository fArchiRepo;
+    
+    private RevCommit fOurCommit, fTheirCommit;
+    
+    private MergeStatus fMergeStatus;
+    
+    // The tree of the merge base, or null if there is no merge base
+    private ObjectId fBaseTreeId;
+    
+    // The merged tree with conflict stages for the paths that are not resolved
+    private DirCache fDirCache;
+    
+    // Paths that are not resolved
+    private Set<String> fConflicts = new LinkedHashSet<>();
+    
+    public GraficoMerger(IArchiRepository repo) {
+        fArchiRepo = repo;
+    }
+    
+    /**
+     * Merge a commit into HEAD in memory
+     * @param theirRef The ref of the commit to merge, such as "refs/remotes/origin/master" or "branch"
+     * @return ALREADY_UP_TO_DATE, FAST_FORWARD, MERGED or CONFLICTING if there are paths that need to be resolved
+     * @throws IOException
+     */
+    public MergeStatus merge(String theirRef) throws IOException {
+        fConflicts.clear();
+        fDirCache = null;
+        fBaseTreeId = null;
+        
+        try(Repository repository = RepositoryPool.open(fArchiRepo.getLocalRepositoryFolder()); RevWalk revWalk = new RevWalk(repository)) {
+            ObjectId ourId = repository.resolve(IGraficoConstants.HEAD);
+            ObjectId theirId = repository.resolve(theirRef);
+            if(ourId == null || theirId == null) {
+                throw new IOException(Messages.MergeConflictHandler_1);
+            }
+            
+            fOurCommit = revWalk.parseCommit(ourId);
+            fTheirCommit = revWalk.parseCommit(theirId);
+            
+            if(revWalk.isMergedInto(fTheirCommit, fOurCommit)) {
+                return fMergeStatus = MergeStatus.ALREADY_UP_TO_DATE;
+            }
+            
+            if(revWalk.isMergedInto(fOurCommit, fTheirCommit)) {
+                fBaseTreeId = fOurCommit.getTree();
+                return fMergeStatus = MergeStatus.FAST_FORWARD;
+            }
+            
+            InCoreMerger merger = new InCoreMerger(repository);
+            boolean merged = merger.merge(fOurCommit, fTheirCommit);
+            
+            if(merger.getBaseCommit() != null) {
+                fBaseTreeId = merger.getBaseCommit().getTree();
+            }
+            
+            if(merged) {
+                fDirCache = merger.getDirCache();
+                return fMergeStatus = MergeStatus.MERGED;
+            }
+            
+            // There is no working tree so this should not happen
+            if(merger.failed()) {
+                throw new IOException("Merge failed: " + merger.getFailingPaths()); //$NON-NLS-1$
+            }
+            
+            fDirCache = resolveElements(repository, merger.getDirCache());
+            
+            return fMergeStatus = fConflicts.isEmpty() ? MergeStatus.MERGED : MergeStatus.CONFLICTING;
+        }
+    }
+    
+    /**
+     * Merge the Grafico XML files that are in conflict with GraficoElementMerger
+     * @return A DirCache with the merged files and the conflict stages of the files that could not be merged
+     */
+    private DirCache resolveElements(Repository repository, DirCache mergedDirCache) throws IOException {
+        DirCache dirCache = DirCache.newInCore();
+        DirCacheBuilder builder = dirCache.builder();
+        
+        try(ObjectReader reader = repository.newObjectReader(); ObjectInserter inserter = repository.newObjectInserter()) {
+            int count = mergedDirCache.getEntryCount();
+            
+            for(int i = 0; i < count;) {
+                DirCacheEntry entry = mergedDirCache.getEntry(i);
+                
+                // Merged
+                if(entry.getStage() == DirCacheEntry.STAGE_0) {
+                    builder.add(entry);
+                    i++;
+                    continue;
+                }
+                
+                // Conflict stages of the path, in stage order
+                String path = entry.getPathString();
+                DirCacheEntry[] stages = new DirCacheEntry[4];
+                
+                for(; i < count && mergedDirCache.getEntry(i).getPathString().equals(path); i++) {
+                    stages[mergedDirCache.getEntry(i).getStage()] = mergedDirCache.getEntry(i);
+                }
+                
+                byte[] merged = null;
+                
+                // Changed by both, not deleted or added by one of them
+                if(isGraficoFile(path) && stages[DirCacheEntry.STAGE_1] != null && stages[DirCacheEntry.STAGE_2] != null
+                        && stages[DirCacheEntry.STAGE_3] != null) {
+                    try {
+                        merged = GraficoElementMerger.merge(reader.open(stages[DirCacheEntry.STAGE_1].getObjectId()).getBytes(),
+                                reader.open(stages[DirCacheEntry.STAGE_2].getObjectId()).getBytes(),
+                                reader.open(stages[DirCacheEntry.STAGE_3].getObjectId()).getBytes());
+                    }
+                    // Leave it for the user to resolve
+                    catch(IOException | RuntimeException ex) {
+                        ex.printStackTrace();
+                    }
+                }
+                
+                if(merged != null) {
+                    DirCacheEntry mergedEntry = new DirCacheEntry(path);
+                    mergedEntry.setFileMode(FileMode.REGULAR_FILE);
+                    mergedEntry.setObjectId(inserter.insert(Constants.OBJ_BLOB, merged));
+                    builder.add(mergedEntry);
+                }
+                else {
+                    for(DirCacheEntry stage : stages) {
+                        if(stage != null) {
+                            builder.add(stage);
+                        }
+                    }
+                    fConflicts.add(path);
+                }
+            }
+            
+            inserter.flush();
+        }
+        
+        builder.finish();
+        return dirCache;
+    }
+    
+    private boolean isGraficoFile(String path) {
+        return path.startsWith(IGraficoConstants.MODEL_FOLDER + "/") && path.endsWith(".xml"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    
+    /**
+     * @return The changes to Grafico files that their commit brings in, from the merge base to their commit.
+     *         Changes to files that are in conflict are included.
+     */
+    public List<DiffEntry> getIncomingChanges() throws IOException {
+        if(fMergeStatus == null || fMergeStatus == MergeStatus.ALREADY_UP_TO_DATE) {
+            return Collections.emptyList();
+        }
+        
+        try(Repository repository = RepositoryPool.open(fArchiRepo.getLocalRepositoryFolder()); TreeWalk treeWalk = new TreeWalk(repository)) {
+            if(fBaseTreeId != null) {
+                treeWalk.addTree(fBaseTreeId);
+            }
+            else {
+                treeWalk.addTree(new EmptyTreeIterator());
+            }
+            treeWalk.addTree(fTheirCommit.getTree());
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(AndTreeFilter.create(PathFilter.create(IGraficoConstants.MODEL_FOLDER), TreeFilter.ANY_DIFF));
+            
+            return DiffEntry.scan(treeWalk);
+        }
+    }
+    
+    /**
+     * @return HEAD's commit when merge() was called
+     */
+    public RevCommit getOurCommit() {
+        return fOurCommit;
+    }
+    
+    /**
+     * @return The commit that is merged into HEAD
+     */
+    public RevCommit getTheirCommit() {
+        return fTheirCommit;
+    }
+    
+    /**
+     * @return The paths that are in conflict and need to be resolved before the merge can be committed
+     */
+    public Set<String> getConflicts() {
+        return fConflicts;
+    }
+    
+    /**
+     * Resolve paths in conflict by taking our or their version. If the file was deleted in that version it is deleted.
+     * @param paths The paths
+     * @param theirs true to take their version, false to take ours
+     */
+    public void resolve(Collection<String> paths, boolean theirs) {
+        int stage = theirs ? DirCacheEntry.STAGE_3 : DirCacheEntry.STAGE_2;
+        
+        DirCacheBuilder builder = fDirCache.builder();
+        
+        for(int i = 0; i < fDirCache.getEntryCount(); i++) {
+            DirCacheEntry entry = fDirCache.getEntry(i);
+            
+            if(entry.getStage() == DirCacheEntry.STAGE_0 || !paths.contains(entry.getPathString())) {
+                builder.add(entry);
+            }
+            else if(entry.getStage() == stage) {
+                DirCacheEntry resolvedEntry = new DirCacheEntry(entry.getPathString());
+                resolvedEntry.setFileMode(entry.getFileMode());
+                resolvedEntry.setObjectId(entry.getObjectId());
+                builder.add(resolvedEntry);
+            }
+        }
+        
+        builder.finish();
+        
+        fConflicts.removeAll(paths);
+    }
+    
+    /**
+     * Commit the merge, or fast forward, and update the working tree and the index from HEAD to the merged tree.
+     * @param commitMessage The commit message of the merge commit
+     * @throws IOException if there are unresolved conflicts, the working tree could not be updated or HEAD has moved since the merge
+     */
+    public void commit(String commitMessage) throws IOException {
+        if(fMergeStatus == null || fMergeStatus == MergeStatus.ALREADY_UP_TO_DATE) {
+            return;
+        }
+        
+        if(!fConflicts.isEmpty()) {
+            throw new IOException("Merge has conflicts"); //$NON-NLS-1$
+        }
+        
+        try(Repository repository = RepositoryPool.open(fArchiRepo.getLocalRepositoryFolder());
+                ObjectInserter inserter = repository.newObjectInserter();
+                RevWalk revWalk = new RevWalk(repository)) {
+            
+            RevCommit newCommit = fTheirCommit;
+            
+            if(fMergeStatus != MergeStatus.FAST_FORWARD) {
+                PersonIdent author = fArchiRepo.getUserDetails();
+                
+                CommitBuilder commitBuilder = new CommitBuilder();
+                commitBuilder.setTreeId(fDirCache.writeTree(inserter));
+                commitBuilder.setParentIds(fOurCommit, fTheirCommit);
+                commitBuilder.setAuthor(author);
+                commitBuilder.setCommitter(author);
+                commitBuilder.setMessage(commitMessage);
+                
+                ObjectId commitId = inserter.insert(commitBuilder);
+                inserter.flush();
+                
+                newCommit = revWalk.parseCommit(commitId);
+            }
+            
+            // Update the working tree and the index. This fails if a changed file in the working tree would be overwritten.
+            DirCacheCheckout checkout = new DirCacheCheckout(repository, fOurCommit.getTree(), repository.lockDirCache(), newCommit.getTree());
+            checkout.setFailOnConflict(true);
+            checkout.checkout();
+            
+            // Move HEAD's branch if it has not moved in the meantime
+            RefUpdate refUpdate = repository.updateRef(Constants.HEAD);
+            refUpdate.setNewObjectId(newCommit);
+            refUpdate.setExpectedOldObjectId(fOurCommit);
+            refUpdate.setRefLogMessage((fMergeStatus == MergeStatus.FAST_FORWARD ? "merge: Fast-forward" //$NON-NLS-1$
+                    : "merge: " + newCommit.getShortMessage()), false); //$NON-NLS-1$
+            
+            RefUpdate.Result result = refUpdate.update(revWalk);
+            switch(result) {
+                case NEW:
+                case FAST_FORWARD:
+                    break;
+                
+                default:
+                    throw new IOException("Could not update HEAD: " + result); //$NON-NLS-1$
+            }
+        }
+    }
+}
@@ -5,69 +5,63 @@
  */
 package org.archicontribs.modelrepository.merge;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.archicontribs.modelrepository.grafico.GraficoModelImporter;
 import org.archicontribs.modelrepository.grafico.IArchiRepository;
-import org.archicontribs.modelrepository.grafico.IGraficoConstants;
+import org.archicontribs.modelrepository.grafico.RepositoryPool;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.emf.ecore.EObject;
 import org.eclipse.jface.dialogs.Dialog;
 import org.eclipse.jface.window.Window;
-import org.eclipse.jgit.api.CheckoutCommand;
-import org.eclipse.jgit.api.CheckoutCommand.Stage;
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.MergeResult;
-import org.eclipse.jgit.api.ResetCommand;
-import org.eclipse.jgit.api.ResetCommand.ResetType;
 import org.eclipse.jgit.api.errors.CanceledException;
 import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
 import org.eclipse.swt.widgets.Shell;
 
-import com.archimatetool.editor.utils.FileUtils;
 import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IIdentifier;
 
 /**
- * Handle Merge Conflicts on a MergeResult
+ * Handle Merge Conflicts of a GraficoMerger
+ * 
+ * The user chooses our or their version of each conflicting object and these are resolved in the merger.
+ * Nothing is changed in the working tree or the index until the merger is committed.
  * 
  * @author Phillip Beauvoir
  */
 public class MergeConflictHandler {
     
     private IArchiRepository fArchiRepo;
-    private MergeResult fMergeResult;
+    private GraficoMerger fMerger;
     private Shell fShell;
     
-    private String fTheirRef;
-    
     private List<MergeObjectInfo> fMergeObjectInfos;
     
     private IArchimateModel fOurModel, fTheirModel;
     
+    // Object ID -> EObject for our and their model
+    private Map<String, EObject> fOurObjects, fTheirObjects;
+    
     private IProgressMonitor fProgressMonitor;
 
-    public MergeConflictHandler(MergeResult mergeResult, String theirRef, IArchiRepository repo, Shell shell) {
-        fMergeResult = mergeResult;
+    public MergeConflictHandler(GraficoMerger merger, IArchiRepository repo, Shell shell) {
+        fMerger = merger;
         fArchiRepo = repo;
-        fTheirRef = theirRef;
         fShell = shell;
     }
     
     public void init(IProgressMonitor pm) throws IOException, GitAPIException {
-        // This could be null if Rebase is the default behaviour on the repo rather than merge when a Pull is done
-        if(fMergeResult == null) {
-            throw new IOException("MergeResult was null"); //$NON-NLS-1$
-        }
-        
         fProgressMonitor = pm;
 
         // Our model is the current loaded one
@@ -77,12 +71,24 @@ public class MergeConflictHandler {
         }
         
         // Their model needs to be extracted
-        fTheirModel = extractModel(getTheirRef());
+        fTheirModel = extractModel(fMerger.getTheirCommit());
+        
+        // Index the objects in both models by ID so that each conflicting object can be looked up quickly
+        fOurObjects = createObjectIndex(fOurModel);
+        fTheirObjects = createObjectIndex(fTheirModel);
+        
+        // Get our and their contents of all conflicting files in one pass
+        Set<String> xmlPaths = fMerger.getConflicts();
+        Map<String, byte[][]> contents = getFileContents(xmlPaths);
         
         // Create Merge Infos
         fMergeObjectInfos = new ArrayList<MergeObjectInfo>();
-        for(String xmlPath : fMergeResult.getConflicts().keySet()) {
-            fMergeObjectInfos.add(new MergeObjectInfo(xmlPath, this));
+        for(String xmlPath : xmlPaths) {
+            byte[][] fileContents = contents.get(xmlPath);
+            if(fileContents == null) {
+                fileContents = new byte[2][];
+            }
+            fMergeObjectInfos.add(new MergeObjectInfo(xmlPath, this, fileContents[MergeObjectInfo.OURS], fileContents[MergeObjectInfo.THEIRS]));
         }
     }
     
@@ -92,11 +98,9 @@ public class MergeConflictHandler {
     }
     
     /**
-     * Merge ours and theirs but don't commit
-     * @throws IOException
-     * @throws GitAPIException
+     * Resolve the conflicts in the merger with the user's choices of ours or theirs. The merger can then be committed.
      */
-    public void merge() throws IOException, GitAPIException {
+    public void merge() {
         List<String> ours = new ArrayList<>();
         List<String> theirs = new ArrayList<>();
         
@@ -111,41 +115,8 @@ public class MergeConflictHandler {
             }
         }
         
-        try(Git git = Git.open(fArchiRepo.getLocalRepositoryFolder())) {
-            if(!ours.isEmpty()) {
-                checkout(git, Stage.OURS, ours);
-            }
-            if(!theirs.isEmpty()) {
-                checkout(git, Stage.THEIRS, theirs);
-            }
-        }
-    }
-    
-    String getLocalRef() {
-        // We assume that we are at HEAD
-        return IGraficoConstants.HEAD;
-    }
-    
-    String getTheirRef() {
-        return fTheirRef;
-    }
-    
-    public void resetToLocalState() throws IOException, GitAPIException {
-        // Reset HARD  which will lose all changes
-        try(Git git = Git.open(fArchiRepo.getLocalRepositoryFolder())) {
-            ResetCommand resetCommand = git.reset();
-            resetCommand.setRef(getLocalRef());
-            resetCommand.setMode(ResetType.HARD);
-            resetCommand.call();
-        }
-    }
-    
-    // Check out conflicting files either from us or them
-    private void checkout(Git git, Stage stage, List<String> paths) throws GitAPIException {
-        CheckoutCommand checkoutCommand = git.checkout();
-        checkoutCommand.setStage(stage);
-        checkoutCommand.addPaths(paths);
-        checkoutCommand.call();
+        fMerger.resolve(ours, false);
+        fMerger.resolve(theirs, true);
     }
     
     IArchiRepository getArchiRepository() {
@@ -163,64 +134,94 @@ public class MergeConflictHandler {
     IArchimateModel getTheirModel() {
         return fTheirModel;
     }
-
+    
     /**
-     * Extract a model from either our latest commit or their latest online commit
-     * ref = "refs/head/master" or "origin/master"
-     * @throws CanceledException 
+     * @param id The object's ID
+     * @param choice MergeObjectInfo.OURS or MergeObjectInfo.THEIRS
+     * @return The object with the ID in our or their model, or null if it is not found
      */
-    private IArchimateModel extractModel(String ref) throws IOException, CanceledException {
-        File tmpFolder = new File(System.getProperty("java.io.tmpdir"), "org.archicontribs.modelrepository.tmp"); //$NON-NLS-1$ //$NON-NLS-2$
-        FileUtils.deleteFolder(tmpFolder);
-        tmpFolder.mkdirs();
+    EObject getObjectByID(String id, int choice) {
+        return (choice == MergeObjectInfo.OURS ? fOurObjects : fTheirObjects).get(id);
+    }
+    
+    /**
+     * @return A map of ID to object for the model and all of its objects
+     */
+    private Map<String, EObject> createObjectIndex(IArchimateModel model) {
+        Map<String, EObject> index = new HashMap<>();
+        index.put(model.getId(), model);
         
-        try(Repository repository = Git.open(fArchiRepo.getLocalRepositoryFolder()).getRepository()) {
-            RevCommit commit = null;
-            
-            // Get the commit
-            // A RevWalk walks over commits based on some filtering that is defined
-            try(RevWalk revWalk = new RevWalk(repository)) {
-                // We are interested in the origin master branch
-                ObjectId objectID = repository.resolve(ref);
-                if(objectID != null) {
-                    commit = revWalk.parseCommit(objectID);
-                }
-                
-                revWalk.dispose();
+        for(Iterator<EObject> iter = model.eAllContents(); iter.hasNext();) {
+            EObject eObject = iter.next();
+            // The first one with an ID wins, as it does for ArchimateModelUtils.getObjectByID()
+            if(eObject instanceof IIdentifier) {
+                index.putIfAbsent(((IIdentifier)eObject).getId(), eObject);
             }
+        }
+        
+        return index;
+    }
+    
+    /**
+     * Get the contents of files in our and their commits.
+     * The repository is opened once and both commit trees are walked together, visiting only the given paths.
+     * @return A map of path to contents indexed by MergeObjectInfo.OURS and MergeObjectInfo.THEIRS.
+     *         Contents are null if the file does not exist in that commit.
+     */
+    private Map<String, byte[][]> getFileContents(Set<String> paths) throws IOException {
+        Map<String, byte[][]> contents = new HashMap<>();
+        
+        // An empty PathFilterGroup is not allowed
+        if(paths.isEmpty()) {
+            return contents;
+        }
+        
+        try(Repository repository = RepositoryPool.open(fArchiRepo.getLocalRepositoryFolder());
+                TreeWalk treeWalk = new TreeWalk(repository)) {
             
-            if(commit == null) {
-                throw new IOException(Messages.MergeConflictHandler_1);
-            }
+            // Tree indexes are the same as MergeObjectInfo.OURS and MergeObjectInfo.THEIRS
+            treeWalk.addTree(fMerger.getOurCommit().getTree());
+            treeWalk.addTree(fMerger.getTheirCommit().getTree());
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(PathFilterGroup.createFromStrings(paths));
             
-            // Walk the tree and get the contents of the commit
-            try(TreeWalk treeWalk = new TreeWalk(repository)) {
-                treeWalk.addTree(commit.getTree());
-                treeWalk.setRecursive(true);
-
-                while(treeWalk.next()) {
-                    if(fProgressMonitor != null && fProgressMonitor.isCanceled()) {
-                        throw new CanceledException(Messages.MergeConflictHandler_2);
-                    }
-                    
-                    ObjectId objectId = treeWalk.getObjectId(0);
-                    ObjectLoader loader = repository.open(objectId);
-                    
-                    File file = new File(tmpFolder, treeWalk.getPathString());
-                    file.getParentFile().mkdirs();
-                    
-                    try(FileOutputStream out = new FileOutputStream(file)) {
-                        loader.copyTo(out);
+            while(treeWalk.next()) {
+                String path = treeWalk.getPathString();
+                if(!paths.contains(path)) {
+                    continue;
+                }
+                
+                byte[][] fileContents = new byte[2][];
+                
+                for(int i = 0; i < 2; i++) {
+                    if(treeWalk.getFileMode(i) != FileMode.MISSING) {
+                        fileContents[i] = treeWalk.getObjectReader().open(treeWalk.getObjectId(i)).getBytes();
                     }
                 }
+                
+                contents.put(path, fileContents);
             }
         }
+        
+        return contents;
+    }
+    
 
-        // Load it
-        GraficoModelImporter importer = new GraficoModelImporter(tmpFolder);
-        IArchimateModel model = importer.importAsModel();
-        FileUtils.deleteFolder(tmpFolder);
-        return model;
+    /**
+     * Extract a model from a commit
+     * The model is imported directly from the git object database
+     * @throws CanceledException 
+     */
+    private IArchimateModel extractModel(RevCommit commit) throws IOException, CanceledException {
+        if(fProgressMonitor != null && fProgressMonitor.isCanceled()) {
+            throw new CanceledException(Messages.MergeConflictHandler_2);
+        }
+        
+        try(Repository repository = RepositoryPool.open(fArchiRepo.getLocalRepositoryFolder())) {
+            // Load it
+            GraficoModelImporter importer = new GraficoModelImporter(repository, commit.getTree());
+            return importer.importAsModel();
+        }
     }
     
 }
@@ -11,9 +11,7 @@ import java.io.IOException;
 import org.archicontribs.modelrepository.grafico.GraficoResourceLoader;
 import org.eclipse.emf.ecore.EObject;
 
-import com.archimatetool.model.IArchimateModel;
 import com.archimatetool.model.IIdentifier;
-import com.archimatetool.model.util.ArchimateModelUtils;
 
 /**
  * Information about a merge conflict object
@@ -35,12 +33,16 @@ class MergeObjectInfo {
     // User's choice
     private int userChoice = OURS;
 
-    MergeObjectInfo(String xmlPath, MergeConflictHandler handler) throws IOException {
+    /**
+     * @param ourContents The contents of the XML file in our commit, or null if it does not exist
+     * @param theirContents The contents of the XML file in their commit, or null if it does not exist
+     */
+    MergeObjectInfo(String xmlPath, MergeConflictHandler handler, byte[] ourContents, byte[] theirContents) throws IOException {
         this.handler = handler;
         this.xmlPath = xmlPath;
         
-        objects[OURS] = loadEObject(handler.getLocalRef());
-        objects[THEIRS] = loadEObject(handler.getTheirRef());
+        objects[OURS] = loadEObject(ourContents, OURS);
+        objects[THEIRS] = loadEObject(theirContents, THEIRS);
     }
     
     String getXMLPath() {
@@ -80,11 +82,9 @@ class MergeObjectInfo {
      * Once we have its ID we can load the real EObject from either "theirs" or "ours" full model.
      * We do this because some EObjects have proxy references to other EObjects that would need resolving
      * Returns null if the file contents does not exist (either we or they deleted the object)
-     * ref is either ours or theirs
+     * choice is either OURS or THEIRS
      */
-    private EObject loadEObject(String ref) throws IOException {
-        // Load the contents of the ref not the actual file because "theirs" is not an actual file
-        byte[] contents = handler.getArchiRepository().getFileContents(xmlPath, ref);
+    private EObject loadEObject(byte[] contents, int choice) throws IOException {
         // Not found so was deleted by us or them
         if(contents == null) {
             return null;
@@ -98,15 +98,6 @@ class MergeObjectInfo {
         String id = eObject.getId();
         
         // Now get the full object from the appropriate model
-        IArchimateModel model = null;
-        
-        if(ref == handler.getLocalRef()) { // Ours
-            model = handler.getOurModel();
-        }
-        else {
-            model = handler.getTheirModel();
-        }
-
-        return ArchimateModelUtils.getObjectByID(model, id);
+        return handler.getObjectByID(id, choice);
     }
 }
@@ -0,0 +1,93 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.merge;
+
+import java.io.IOException;
+import java.util.Set;
+
+import org.archicontribs.modelrepository.grafico.IArchiRepository;
+import org.eclipse.jgit.api.MergeResult.MergeStatus;
+import org.eclipse.jgit.diff.DiffEntry;
+
+/**
+ * Preview of merging a commit into HEAD
+ * 
+ * The merge is done in memory with GraficoMerger and is not committed, so the working tree, the index, HEAD
+ * and the open model are not changed. The Grafico files changed by their commit since the merge base are counted,
+ * and files that would be in conflict are counted as conflicting only.
+ * Uncommitted changes in the working tree are not part of the preview.
+ */
+public class MergePreview {
+    
+    private MergeStatus fMergeStatus;
+    
+    private int fAddedCount, fModifiedCount, fDeletedCount, fConflictingCount;
+    
+    /**
+     * @param repo The repository
+     * @param theirRef The ref of the commit that would be merged, such as "refs/remotes/origin/master"
+     * @throws IOException
+     */
+    public MergePreview(IArchiRepository repo, String theirRef) throws IOException {
+        GraficoMerger merger = new GraficoMerger(repo);
+        fMergeStatus = merger.merge(theirRef);
+        
+        Set<String> conflicts = merger.getConflicts();
+        fConflictingCount = conflicts.size();
+        
+        for(DiffEntry entry : merger.getIncomingChanges()) {
+            if(conflicts.contains(entry.getOldPath()) || conflicts.contains(entry.getNewPath())) {
+                continue;
+            }
+            
+            switch(entry.getChangeType()) {
+                case ADD:
+                    fAddedCount++;
+                    break;
+                
+                case DELETE:
+                    fDeletedCount++;
+                    break;
+                
+                default:
+                    fModifiedCount++;
+                    break;
+            }
+        }
+    }
+    
+    public MergeStatus getMergeStatus() {
+        return fMergeStatus;
+    }
+    
+    /**
+     * @return The number of objects that they added
+     */
+    public int getAddedCount() {
+        return fAddedCount;
+    }
+    
+    /**
+     * @return The number of objects that they changed and that merge without conflict
+     */
+    public int getModifiedCount() {
+        return fModifiedCount;
+    }
+    
+    /**
+     * @return The number of objects that they deleted
+     */
+    public int getDeletedCount() {
+        return fDeletedCount;
+    }
+    
+    /**
+     * @return The number of objects that would be in conflict
+     */
+    public int getConflictingCount() {
+        return fConflictingCount;
+    }
+}
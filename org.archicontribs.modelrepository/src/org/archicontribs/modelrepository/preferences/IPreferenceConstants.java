@@ -28,11 +28,42 @@ public interface IPreferenceConstants {
     String PREFS_PROXY_PORT = "proxyPort";
     String PREFS_PROXY_REQUIRES_AUTHENTICATION = "proxyAuthenticate";
     
+    /*
+       Export and import
+    
+       Can be set in plugin_customization.ini as the number of threads that write Grafico files when exporting,
+       the number of threads that parse Grafico files when importing (default is the number of processors),
+       whether parsers are re-used between files when importing, the maximum number of changed files that are loaded
+       into an open model rather than importing it again, and the maximum size in MB of the model snapshots kept for each
+       repository (0 to not use snapshots):
+          org.archicontribs.modelrepository/exportMaxThreads=10
+          org.archicontribs.modelrepository/importMaxThreads=4
+          org.archicontribs.modelrepository/importUseParserPool=true
+          org.archicontribs.modelrepository/importMaxIncrementalChanges=500
+          org.archicontribs.modelrepository/snapshotCacheMaxSize=100
+    */
+    
     String PREFS_EXPORT_MAX_THREADS = "exportMaxThreads";
+    String PREFS_IMPORT_MAX_THREADS = "importMaxThreads";
+    String PREFS_IMPORT_USE_PARSER_POOL = "importUseParserPool";
+    String PREFS_IMPORT_MAX_INCREMENTAL_CHANGES = "importMaxIncrementalChanges";
+    String PREFS_SNAPSHOT_CACHE_MAX_SIZE = "snapshotCacheMaxSize";
     
     String PREFS_FETCH_IN_BACKGROUND = "fetchInBackground";
     String PREFS_FETCH_IN_BACKGROUND_INTERVAL = "fetchInBackgroundInterval";
     
+    /*
+       Background fetch limits
+    
+       Can be set in plugin_customization.ini as the number of repositories fetched at the same time
+       and the timeout in seconds for each read or write on a connection:
+          org.archicontribs.modelrepository/fetchInBackgroundMaxThreads=4
+          org.archicontribs.modelrepository/fetchInBackgroundTimeout=30
+    */
+    
+    String PREFS_FETCH_IN_BACKGROUND_MAX_THREADS = "fetchInBackgroundMaxThreads";
+    String PREFS_FETCH_IN_BACKGROUND_TIMEOUT = "fetchInBackgroundTimeout";
+    
     /*
        Password constraints
     
@@ -41,9 +41,15 @@ implements IPreferenceConstants {
 		store.setDefault(PREFS_PROXY_HOST, "localhost");
 		
 		store.setDefault(PREFS_EXPORT_MAX_THREADS, 10);
+		store.setDefault(PREFS_IMPORT_MAX_THREADS, Runtime.getRuntime().availableProcessors());
+		store.setDefault(PREFS_IMPORT_USE_PARSER_POOL, true);
+		store.setDefault(PREFS_IMPORT_MAX_INCREMENTAL_CHANGES, 500);
+		store.setDefault(PREFS_SNAPSHOT_CACHE_MAX_SIZE, 100); // MB, 0 to not use snapshots
 		
 		store.setDefault(PREFS_FETCH_IN_BACKGROUND, false);
 		store.setDefault(PREFS_FETCH_IN_BACKGROUND_INTERVAL, 60);
+		store.setDefault(PREFS_FETCH_IN_BACKGROUND_MAX_THREADS, 4);
+		store.setDefault(PREFS_FETCH_IN_BACKGROUND_TIMEOUT, 30);
 		
 		store.setDefault(PREFS_PASSWORD_MIN_LENGTH, 0);
 		store.setDefault(PREFS_PASSWORD_MIN_LOWERCASE_CHARS, 0);
@@ -9,12 +9,21 @@ import java.io.IOException;
 import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.archicontribs.modelrepository.IModelRepositoryImages;
 import org.archicontribs.modelrepository.grafico.BranchInfo;
 import org.archicontribs.modelrepository.grafico.BranchStatus;
 import org.archicontribs.modelrepository.grafico.IArchiRepository;
+import org.archicontribs.modelrepository.grafico.RepositoryPool;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.layout.TableColumnLayout;
 import org.eclipse.jface.viewers.CellLabelProvider;
 import org.eclipse.jface.viewers.ColumnViewerToolTipSupport;
@@ -24,7 +33,6 @@ import org.eclipse.jface.viewers.TableViewer;
 import org.eclipse.jface.viewers.TableViewerColumn;
 import org.eclipse.jface.viewers.Viewer;
 import org.eclipse.jface.viewers.ViewerCell;
-import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
@@ -42,8 +50,21 @@ import com.archimatetool.editor.ui.components.UpdatingTableColumnLayout;
  */
 public class HistoryTableViewer extends TableViewer {
     
+    /**
+     * Number of commits walked at a time
+     */
+    private static final int PAGE_SIZE = 200;
+    
+    /**
+     * Maximum number of commit bodies kept in memory
+     */
+    private static final int MAX_BODIES = 1000;
+    
     private RevCommit fLocalCommit, fOriginCommit;
     
+    // Selected commits keep their bodies as they are used by actions and the comment viewer
+    private Set<RevCommit> fSelectedCommits = new HashSet<RevCommit>();
+    
     private BranchInfo fSelectedBranch;
     
     /**
@@ -59,6 +80,17 @@ public class HistoryTableViewer extends TableViewer {
         
         ColumnViewerToolTipSupport.enableFor(this);
         
+        // Load the bodies of selected commits. This listener is added first so it is called before any other.
+        addSelectionChangedListener(event -> {
+            fSelectedCommits.clear();
+            for(Object o : event.getStructuredSelection().toList()) {
+                if(o instanceof RevCommit) {
+                    fSelectedCommits.add((RevCommit)o);
+                    ((HistoryContentProvider)getContentProvider()).loadBody((RevCommit)o);
+                }
+            }
+        });
+        
         setUseHashlookup(true);
     }
 
@@ -131,72 +163,285 @@ public class HistoryTableViewer extends TableViewer {
     
     /**
      * The Model for the Table.
+     * 
+     * Commits are walked in a background Job and added to the table a page at a time. More pages are walked when
+     * the table asks for rows near the end of the commits walked so far, so a large history is not walked all at once.
+     * Commits are walked without their bodies (message and author). A commit's body is read when its row is shown
+     * and only the bodies of the last MAX_BODIES commits shown are kept in memory.
      */
     class HistoryContentProvider implements ILazyContentProvider {
-        List<RevCommit> commits;
+        List<RevCommit> commits = new ArrayList<RevCommit>();
+        
+        LoadCommitsJob loadJob;
+        
+        // Commits with a loaded body, least recently used first
+        Set<RevCommit> bodies = new LinkedHashSet<RevCommit>();
         
         @Override
         public void inputChanged(Viewer v, Object oldInput, Object newInput) {
-            commits = getCommits(newInput);
-            setItemCount(commits.size());
+            if(loadJob != null) {
+                loadJob.stop();
+                loadJob = null;
+            }
+            
+            commits = new ArrayList<RevCommit>();
+            bodies.clear();
+            fLocalCommit = null;
+            fOriginCommit = null;
+            
+            setItemCount(0);
+            
+            if(newInput instanceof IArchiRepository && fSelectedBranch != null) {
+                IArchiRepository repo = (IArchiRepository)newInput;
+                
+                // Unless the Local Repo was deleted
+                if(repo.getLocalRepositoryFolder().exists()) {
+                    loadJob = new LoadCommitsJob(repo, fSelectedBranch);
+                    loadJob.request(PAGE_SIZE);
+                }
+            }
         }
 
         @Override
         public void dispose() {
+            if(loadJob != null) {
+                loadJob.stop();
+                loadJob = null;
+            }
         }
         
-        List<RevCommit> getCommits(Object parent) {
-            List<RevCommit> commits = new ArrayList<RevCommit>();
-            fLocalCommit = null;
-            fOriginCommit = null;
+        @Override
+        public void updateElement(int index) {
+            if(index < commits.size()) {
+                replace(commits.get(index), index);
+            }
             
-            if(!(parent instanceof IArchiRepository) || fSelectedBranch == null) {
-                return commits;
+            // Walk the next page before it is scrolled to
+            if(loadJob != null && index >= commits.size() - PAGE_SIZE / 2) {
+                loadJob.request(commits.size() + PAGE_SIZE);
+            }
+        }
+        
+        /**
+         * Add a page of commits walked by a LoadCommitsJob. Called in the UI thread.
+         */
+        void addCommits(LoadCommitsJob job, List<RevCommit> page) {
+            // Input has changed since
+            if(job != loadJob || getTable().isDisposed()) {
+                return;
             }
             
-            IArchiRepository repo = (IArchiRepository)parent;
+            boolean isFirstPage = commits.isEmpty();
+            
+            fLocalCommit = job.localCommit;
+            fOriginCommit = job.originCommit;
+            
+            commits.addAll(page);
+            setItemCount(commits.size());
+            
+            // Layout kludge for the scroll bar
+            if(isFirstPage) {
+                ((UpdatingTableColumnLayout)getTable().getParent().getLayout()).doRelayout();
+            }
+        }
+        
+        /**
+         * Make sure that a commit's body is loaded so that its message and author can be read
+         */
+        void loadBody(RevCommit commit) {
+            // Already loaded so make it the most recently used
+            if(bodies.remove(commit)) {
+                bodies.add(commit);
+                return;
+            }
             
-            // Local Repo was deleted
-            if(!repo.getLocalRepositoryFolder().exists()) {
-                return commits;
+            if(loadJob == null || !loadJob.loadBody(commit)) {
+                return;
             }
-
-            try(Repository repository = Git.open(repo.getLocalRepositoryFolder()).getRepository()) {
-                // a RevWalk allows to walk over commits based on some filtering that is defined
-                try(RevWalk revWalk = new RevWalk(repository)) {
-                    // Find the local branch
-                    ObjectId objectID = repository.resolve(fSelectedBranch.getLocalBranchNameFor());
-                    if(objectID != null) {
-                        fLocalCommit = revWalk.parseCommit(objectID);
-                        revWalk.markStart(fLocalCommit); 
+            
+            bodies.add(commit);
+            
+            // Free the bodies of the least recently used commits that are not selected
+            for(Iterator<RevCommit> iter = bodies.iterator(); iter.hasNext() && bodies.size() > MAX_BODIES;) {
+                RevCommit c = iter.next();
+                if(!fSelectedCommits.contains(c)) {
+                    c.disposeBody();
+                    iter.remove();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Walks the commits of the local and remote branch in the background, a page at a time.
+     * The RevWalk is kept open between pages and closed when the job is stopped.
+     */
+    private class LoadCommitsJob extends Job {
+        private IArchiRepository repo;
+        private BranchInfo branch;
+        
+        private Repository repository;
+        private RevWalk revWalk;
+        
+        // Only used in the UI thread to read commit bodies
+        private RevWalk bodyWalk;
+        
+        volatile RevCommit localCommit, originCommit;
+        
+        private volatile int requested;
+        private int walked;
+        private volatile boolean done;
+        
+        private boolean running;
+        private boolean stopped;
+        
+        LoadCommitsJob(IArchiRepository repo, BranchInfo branch) {
+            super("History Job"); //$NON-NLS-1$
+            this.repo = repo;
+            this.branch = branch;
+            setSystem(true);
+        }
+        
+        /**
+         * Walk at least count commits if there are that many
+         */
+        void request(int count) {
+            if(count > requested && !done) {
+                requested = count;
+                schedule();
+            }
+        }
+        
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+            synchronized(this) {
+                if(stopped) {
+                    return Status.CANCEL_STATUS;
+                }
+                running = true;
+            }
+            
+            try {
+                if(revWalk == null) {
+                    open();
+                }
+                
+                List<RevCommit> page = new ArrayList<RevCommit>();
+                
+                while(walked < requested && !monitor.isCanceled()) {
+                    RevCommit commit = revWalk.next();
+                    if(commit == null) {
+                        done = true;
+                        break;
                     }
                     
-                    // Find the remote branch
-                    objectID = repository.resolve(fSelectedBranch.getRemoteBranchNameFor());
-                    if(objectID != null) {
-                        fOriginCommit = revWalk.parseCommit(objectID);
-                        revWalk.markStart(fOriginCommit);
-                    }
+                    page.add(commit);
+                    walked++;
                     
-                    // Collect the commits
-                    for(RevCommit commit : revWalk ) {
-                        commits.add(commit);
+                    if(page.size() == PAGE_SIZE) {
+                        addCommits(page);
+                        page = new ArrayList<RevCommit>();
                     }
-                    
-                    revWalk.dispose();
+                }
+                
+                if(!page.isEmpty()) {
+                    addCommits(page);
                 }
             }
             catch(IOException ex) {
                 ex.printStackTrace();
+                done = true;
+            }
+            finally {
+                synchronized(this) {
+                    running = false;
+                    if(stopped) {
+                        close();
+                    }
+                }
             }
             
-            return commits;
+            return Status.OK_STATUS;
         }
-
-        @Override
-        public void updateElement(int index) {
-            if(commits != null) {
-                replace(commits.get(index), index);
+        
+        private void open() throws IOException {
+            repository = RepositoryPool.open(repo.getLocalRepositoryFolder());
+            
+            // Bodies are read when needed
+            revWalk = new RevWalk(repository);
+            revWalk.setRetainBody(false);
+            
+            // Find the local branch
+            ObjectId objectID = repository.resolve(branch.getLocalBranchNameFor());
+            if(objectID != null) {
+                localCommit = revWalk.parseCommit(objectID);
+                revWalk.markStart(localCommit);
+            }
+            
+            // Find the remote branch
+            objectID = repository.resolve(branch.getRemoteBranchNameFor());
+            if(objectID != null) {
+                originCommit = revWalk.parseCommit(objectID);
+                revWalk.markStart(originCommit);
+            }
+        }
+        
+        private void addCommits(List<RevCommit> page) {
+            if(!getTable().isDisposed()) {
+                getTable().getDisplay().asyncExec(() -> {
+                    ((HistoryContentProvider)getContentProvider()).addCommits(this, page);
+                });
+            }
+        }
+        
+        /**
+         * Read the body of a commit. Called in the UI thread.
+         * @return true if the body was read
+         */
+        synchronized boolean loadBody(RevCommit commit) {
+            if(stopped || repository == null) {
+                return false;
+            }
+            
+            try {
+                if(bodyWalk == null) {
+                    bodyWalk = new RevWalk(repository);
+                }
+                bodyWalk.parseBody(commit);
+                return true;
+            }
+            catch(IOException ex) {
+                ex.printStackTrace();
+                return false;
+            }
+        }
+        
+        /**
+         * Stop walking and close the RevWalk now, or when the job finishes if it is running
+         */
+        synchronized void stop() {
+            stopped = true;
+            cancel();
+            
+            if(!running) {
+                close();
+            }
+        }
+        
+        private void close() {
+            if(bodyWalk != null) {
+                bodyWalk.close();
+                bodyWalk = null;
+            }
+            
+            if(revWalk != null) {
+                revWalk.close();
+                revWalk = null;
+            }
+            
+            if(repository != null) {
+                repository.close();
+                repository = null;
             }
         }
     }
@@ -215,10 +460,10 @@ public class HistoryTableViewer extends TableViewer {
                     return commit.getName().substring(0, 8);
                     
                 case 1:
-                    return commit.getShortMessage();
+                    return hasBody(commit) ? commit.getShortMessage() : ""; //$NON-NLS-1$
                     
                 case 2:
-                    return commit.getAuthorIdent().getName();
+                    return hasBody(commit) ? commit.getAuthorIdent().getName() : ""; //$NON-NLS-1$
                 
                 case 3:
                     return dateFormat.format(new Date(commit.getCommitTime() * 1000L));
@@ -232,6 +477,7 @@ public class HistoryTableViewer extends TableViewer {
         public void update(ViewerCell cell) {
             if(cell.getElement() instanceof RevCommit) {
                 RevCommit commit = (RevCommit)cell.getElement();
+                ((HistoryContentProvider)getContentProvider()).loadBody(commit);
                 
                 cell.setText(getColumnText(commit, cell.getColumnIndex()));
                 
@@ -257,6 +503,11 @@ public class HistoryTableViewer extends TableViewer {
         public String getToolTipText(Object element) {
             if(element instanceof RevCommit) {
                 RevCommit commit = (RevCommit)element;
+                ((HistoryContentProvider)getContentProvider()).loadBody(commit);
+                
+                if(!hasBody(commit)) {
+                    return null;
+                }
                 
                 String s = ""; //$NON-NLS-1$
                 
@@ -278,5 +529,12 @@ public class HistoryTableViewer extends TableViewer {
             
             return null;
         }
+        
+        /**
+         * @return true if the commit's body has been read, otherwise its message and author can't be read
+         */
+        boolean hasBody(RevCommit commit) {
+            return commit.getRawBuffer() != null;
+        }
     }
 }
@@ -5,8 +5,14 @@
  */
 package org.archicontribs.modelrepository.views.repositories;
 
+import java.io.File;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import org.archicontribs.modelrepository.ModelRepositoryPlugin;
 import org.archicontribs.modelrepository.authentication.EncryptedCredentialsStorage;
@@ -21,21 +27,42 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobGroup;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.util.IPropertyChangeListener;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.TransportException;
+import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.transport.FetchResult;
 import org.eclipse.swt.widgets.Display;
 
 /**
  * Fetch in Background Job
  * 
+ * Each round fetches the repos at the same time, up to a maximum number at once, so a slow remote doesn't hold up the others.
+ * A repo that fails to fetch is not fetched again until after a backoff time that doubles with each failure in a row.
+ * 
  * @author Phillip Beauvoir
  */
 public class FetchJob extends Job {
     
+    /**
+     * Longest time to wait before fetching a failing repo again
+     */
+    private static final long MAX_BACKOFF = TimeUnit.HOURS.toMillis(1);
+    
+    private static class Backoff {
+        int failures;
+        long nextFetch;
+    }
+    
     private ModelRepositoryTreeViewer fViewer;
+    
+    // Backoff of repos that failed to fetch by local repository folder
+    private Map<File, Backoff> fBackoffs = new ConcurrentHashMap<File, Backoff>();
+    
+    // Jobs fetching the repos in the current round
+    private volatile JobGroup fJobGroup;
 
     public FetchJob(ModelRepositoryTreeViewer viewer) {
         super("Fetch Job"); //$NON-NLS-1$
@@ -94,11 +121,72 @@ public class FetchJob extends Job {
             return Status.OK_STATUS;
         }
         
-        boolean needsRefresh = false;
+        List<IArchiRepository> repos = fViewer.getRepositories(fViewer.getRootFolder());
+        
+        // Forget repos that have gone
+        List<File> folders = new ArrayList<File>();
+        for(IArchiRepository repo : repos) {
+            folders.add(repo.getLocalRepositoryFolder());
+        }
+        fBackoffs.keySet().retainAll(folders);
+        
+        // Leave out repos that failed until their backoff time has passed
+        long now = System.currentTimeMillis();
+        repos.removeIf(repo -> {
+            Backoff backoff = fBackoffs.get(repo.getLocalRepositoryFolder());
+            return backoff != null && backoff.nextFetch > now;
+        });
+        
+        if(!repos.isEmpty()) {
+            int maxThreads = Math.max(1, ModelRepositoryPlugin.INSTANCE.getPreferenceStore().getInt(IPreferenceConstants.PREFS_FETCH_IN_BACKGROUND_MAX_THREADS));
+            
+            fJobGroup = new JobGroup("Fetch", Math.min(maxThreads, repos.size()), repos.size()); //$NON-NLS-1$
+            
+            // Update ProxyAuthenticator once for all repos as it sets global settings
+            ProxyAuthenticator.update();
+            
+            for(IArchiRepository repo : repos) {
+                Job job = new FetchRepositoryJob(repo);
+                job.setJobGroup(fJobGroup);
+                job.schedule();
+            }
+            
+            // Wait for this round to finish. Fetches that are running can't be cancelled so this waits for them.
+            try {
+                fJobGroup.join(0, null);
+            }
+            catch(InterruptedException ex) {
+                ex.printStackTrace();
+            }
+            finally {
+                // Clear ProxyAuthenticator
+                ProxyAuthenticator.clear();
+            }
+        }
+        
+        if(canRun()) {
+            schedule(getInterval()); // Schedule again in x milliseconds if possible
+        }
+        
+        return Status.OK_STATUS;
+    }
+    
+    /**
+     * Fetches one repository. Jobs for several repositories are run at the same time in a JobGroup.
+     */
+    private class FetchRepositoryJob extends Job {
+        private IArchiRepository repo;
+        
+        FetchRepositoryJob(IArchiRepository repo) {
+            super("Fetch Repository Job"); //$NON-NLS-1$
+            this.repo = repo;
+            setSystem(true);
+        }
         
-        for(IArchiRepository repo : fViewer.getRepositories(fViewer.getRootFolder())) {
-            // Check also in for loop
-            if(!canRun()) {
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+            // Check first thing on entry as another repo might have paused background fetch
+            if(monitor.isCanceled() || !canRun()) {
                 return Status.OK_STATUS;
             }
             
@@ -112,15 +200,20 @@ public class FetchJob extends Job {
                     npw = cs.getUsernamePassword();
                 }
 
-                // Update ProxyAuthenticator
-                ProxyAuthenticator.update();
-
+                int timeout = ModelRepositoryPlugin.INSTANCE.getPreferenceStore().getInt(IPreferenceConstants.PREFS_FETCH_IN_BACKGROUND_TIMEOUT);
+                
+                // Listing the remote branches is much cheaper than a fetch, so only fetch if a branch has changed
+                if(!repo.hasRemoteChanges(npw, timeout)) {
+                    fBackoffs.remove(repo.getLocalRepositoryFolder()); // Succeeded so no more backoff
+                    return Status.OK_STATUS;
+                }
+                
                 // Fetch
-                FetchResult fetchResult = repo.fetchFromRemote(npw, null, false);
-
-                // We got here, so the tree can be refreshed later
-                needsRefresh = true;
+                FetchResult fetchResult = repo.fetchFromRemote(npw, null, false, timeout);
                 
+                // Succeeded so no more backoff
+                fBackoffs.remove(repo.getLocalRepositoryFolder());
+
                 // Remote branches might have been deleted or added
                 if(!fetchResult.getTrackingRefUpdates().isEmpty() && !fViewer.getControl().isDisposed()) {
                     fViewer.getControl().getDisplay().asyncExec(() -> {
@@ -131,11 +224,8 @@ public class FetchJob extends Job {
             catch(IOException | GitAPIException ex) {
                 ex.printStackTrace();
                 
-                if(ex instanceof TransportException) {
-                    disablePreference();
-
-                    // Show message
-                    Display.getDefault().syncExec(() -> {
+                if(ex instanceof TransportException && isAuthenticationError((TransportException)ex)) {
+                    pause(() -> {
                         String message = Messages.FetchJob_0 + " "; //$NON-NLS-1$
                         message += Messages.FetchJob_1 + "\n\n"; //$NON-NLS-1$
                         try {
@@ -147,40 +237,68 @@ public class FetchJob extends Job {
                         }
                         MessageDialog.openError(Display.getCurrent().getActiveShell(), Messages.FetchJob_2, message);
                     });
-
-                    return Status.OK_STATUS;
+                }
+                // Remote is unreachable, slow or failing so try it again later
+                else {
+                    backoff(repo);
                 }
             }
             // Encrypted password key error
             catch(GeneralSecurityException ex) {
                 ex.printStackTrace();
                 
-                // Disable background fetch
-                disablePreference();
-                
-                Display.getDefault().syncExec(() -> {
+                pause(() -> {
                     String message = Messages.FetchJob_0 + "\n"; //$NON-NLS-1$
                     MessageDialog.openError(Display.getCurrent().getActiveShell(), Messages.FetchJob_2, message + ex.getMessage());
                 });
-
-                return Status.OK_STATUS;
-            }
-            finally {
-                // Clear ProxyAuthenticator
-                ProxyAuthenticator.clear();
             }
+            
+            return Status.OK_STATUS;
         }
-
-        if(needsRefresh) {
-            fViewer.refreshInBackground();
+    }
+    
+    /**
+     * Disable background fetch and show a message, unless another repo has already done so
+     */
+    private synchronized void pause(Runnable showMessage) {
+        if(!canRun()) {
+            return;
         }
-
-        if(canRun()) {
-            int seconds = ModelRepositoryPlugin.INSTANCE.getPreferenceStore().getInt(IPreferenceConstants.PREFS_FETCH_IN_BACKGROUND_INTERVAL);
-            schedule(seconds * 1000); // Schedule again in x milliseconds if possible
+        
+        // Disable background fetch
+        disablePreference();
+        
+        // Don't start fetching any more repos
+        if(fJobGroup != null) {
+            fJobGroup.cancel();
         }
         
-        return Status.OK_STATUS;
+        Display.getDefault().syncExec(showMessage);
+    }
+    
+    /**
+     * Don't fetch a repo again until a time that doubles after each failure in a row, up to MAX_BACKOFF
+     */
+    private void backoff(IArchiRepository repo) {
+        Backoff backoff = fBackoffs.computeIfAbsent(repo.getLocalRepositoryFolder(), folder -> new Backoff());
+        backoff.failures++;
+        backoff.nextFetch = System.currentTimeMillis() + Math.min(getInterval() << Math.min(backoff.failures, 16), MAX_BACKOFF);
+    }
+    
+    /**
+     * @return true if the connection failed because the credentials were not accepted
+     */
+    private boolean isAuthenticationError(TransportException ex) {
+        String message = ex.getMessage();
+        return message != null && (message.contains(JGitText.get().notAuthorized) || message.contains(JGitText.get().noCredentialsProvider)
+                || message.contains("Auth fail")); //$NON-NLS-1$ // JSch
+    }
+    
+    /**
+     * @return The fetch interval in milliseconds
+     */
+    private long getInterval() {
+        return ModelRepositoryPlugin.INSTANCE.getPreferenceStore().getInt(IPreferenceConstants.PREFS_FETCH_IN_BACKGROUND_INTERVAL) * 1000L;
     }
     
     /*
@@ -189,6 +307,11 @@ public class FetchJob extends Job {
      */
     @Override
     protected void canceling() {
+        // Don't start fetching any more repos
+        if(fJobGroup != null) {
+            fJobGroup.cancel();
+        }
+        
         int timeout = 0;
         final int delay = 100;
         
@@ -22,6 +22,8 @@ public class Messages extends NLS {
 
     public static String ModelRepositoryTreeViewer_3;
 
+    public static String ModelRepositoryTreeViewer_4;
+
     public static String ModelRepositoryView_0;
 
     public static String ModelRepositoryView_1;
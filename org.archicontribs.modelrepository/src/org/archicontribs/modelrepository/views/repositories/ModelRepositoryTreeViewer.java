@@ -8,9 +8,9 @@ package org.archicontribs.modelrepository.views.repositories;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.archicontribs.modelrepository.IModelRepositoryImages;
 import org.archicontribs.modelrepository.ModelRepositoryPlugin;
@@ -20,7 +20,11 @@ import org.archicontribs.modelrepository.grafico.GraficoUtils;
 import org.archicontribs.modelrepository.grafico.IArchiRepository;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
 import org.archicontribs.modelrepository.grafico.RepositoryListenerManager;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobGroup;
 import org.eclipse.jface.viewers.CellLabelProvider;
 import org.eclipse.jface.viewers.ColumnViewerToolTipSupport;
 import org.eclipse.jface.viewers.IDecoration;
@@ -36,6 +40,7 @@ import org.eclipse.swt.events.DisposeEvent;
 import org.eclipse.swt.events.DisposeListener;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Display;
 
 import com.archimatetool.editor.ui.ColorFactory;
 import com.archimatetool.editor.utils.StringUtils;
@@ -46,6 +51,9 @@ import com.archimatetool.editor.utils.StringUtils;
  */
 public class ModelRepositoryTreeViewer extends TreeViewer implements IRepositoryListener {
     
+    // Maximum number of repositories whose status is computed at the same time
+    private static final int MAX_STATUS_JOBS = 4;
+    
     // Cache status for expensive calls
     private class StatusCache {
         BranchInfo branchInfo;
@@ -57,7 +65,10 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
         }
     }
     
-    private Map<IArchiRepository, StatusCache> cache;
+    // Status by local repository folder. If there is no entry the status is still being computed.
+    private Map<File, StatusCache> cache = new ConcurrentHashMap<File, StatusCache>();
+    
+    private JobGroup statusJobGroup;
 
     /**
      * Constructor
@@ -75,6 +86,10 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
             @Override
             public void widgetDisposed(DisposeEvent e) {
                 RepositoryListenerManager.INSTANCE.removeListener(ModelRepositoryTreeViewer.this);
+                
+                if(statusJobGroup != null) {
+                    statusJobGroup.cancel();
+                }
             }
         });
         
@@ -122,6 +137,13 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
             case IRepositoryListener.REPOSITORY_DELETED:
                 refresh();
                 break;
+                
+            // Only this repo's status has changed, for example after a background fetch
+            case IRepositoryListener.BRANCHES_CHANGED:
+                if(!getControl().isDisposed()) {
+                    new StatusJob(repository).schedule();
+                }
+                break;
 
             default:
                 refresh();
@@ -155,23 +177,71 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
     }
     
     /**
-     * Update the status cache
+     * Update the status cache in background jobs.
+     * Until a repository's status is computed its previous status is shown, or a placeholder if there is none.
      */
     private void updateStatusCache(List<IArchiRepository> repos) {
-        cache = new Hashtable<IArchiRepository, StatusCache>();
+        // Remove repos that have gone
+        List<File> folders = new ArrayList<File>();
+        for(IArchiRepository repo : repos) {
+            folders.add(repo.getLocalRepositoryFolder());
+        }
+        cache.keySet().retainAll(folders);
+        
+        // Cancel any jobs from the last update
+        if(statusJobGroup != null) {
+            statusJobGroup.cancel();
+        }
+        
+        if(repos.isEmpty()) {
+            return;
+        }
+        
+        statusJobGroup = new JobGroup("Repository Status", Math.min(MAX_STATUS_JOBS, repos.size()), repos.size()); //$NON-NLS-1$
         
         for(IArchiRepository repo : repos) {
+            Job job = new StatusJob(repo);
+            job.setJobGroup(statusJobGroup);
+            job.schedule();
+        }
+    }
+    
+    /**
+     * Computes the status of one repository and updates its label when done
+     */
+    private class StatusJob extends Job {
+        private IArchiRepository repo;
+        
+        StatusJob(IArchiRepository repo) {
+            super("Repository Status Job"); //$NON-NLS-1$
+            this.repo = repo;
+            setSystem(true);
+        }
+        
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+            if(monitor.isCanceled() || getControl().isDisposed()) {
+                return Status.CANCEL_STATUS;
+            }
+            
             try {
-                BranchInfo branchInfo = repo.getBranchStatus().getCurrentLocalBranch();
-                if(branchInfo != null) { // This can be null!!
-                    StatusCache sc = new StatusCache(branchInfo, repo.hasLocalChanges());
-                    cache.put(repo, sc);
-                }
+                BranchInfo branchInfo = repo.getBranchStatus().getCurrentLocalBranch(); // This can be null!!
+                cache.put(repo.getLocalRepositoryFolder(), new StatusCache(branchInfo, branchInfo != null && repo.hasLocalChanges()));
             }
             catch(IOException | GitAPIException ex) {
                 ex.printStackTrace();
                 ModelRepositoryPlugin.INSTANCE.log(IStatus.ERROR, "Error getting Model Repository Status", ex); //$NON-NLS-1$
+                cache.put(repo.getLocalRepositoryFolder(), new StatusCache(null, false));
             }
+            
+            // The control can be disposed before this runs so don't get the Display from it
+            Display.getDefault().asyncExec(() -> {
+                if(!getControl().isDisposed()) {
+                    update(repo, null);
+                }
+            });
+            
+            return Status.OK_STATUS;
         }
     }
     
@@ -233,8 +303,8 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
         Image getImage(IArchiRepository repo) {
             Image image = IModelRepositoryImages.ImageFactory.getImage(IModelRepositoryImages.ICON_MODEL);
             
-            StatusCache sc = cache.get(repo);
-            if(sc != null) {
+            StatusCache sc = cache.get(repo.getLocalRepositoryFolder());
+            if(sc != null && sc.branchInfo != null) {
                 if(sc.hasLocalChanges) {
                     image = IModelRepositoryImages.ImageFactory.getOverlayImage(image,
                             IModelRepositoryImages.ICON_LEFT_BALL_OVERLAY, IDecoration.BOTTOM_LEFT);
@@ -257,8 +327,14 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
         String getStatusText(IArchiRepository repo) {
             String s = ""; //$NON-NLS-1$
             
-            StatusCache sc = cache.get(repo);
-            if(sc != null) {
+            StatusCache sc = cache.get(repo.getLocalRepositoryFolder());
+            
+            // Not known yet
+            if(sc == null) {
+                return Messages.ModelRepositoryTreeViewer_4;
+            }
+            
+            if(sc.branchInfo != null) {
                 if(sc.hasLocalChanges) {
                     s += Messages.ModelRepositoryTreeViewer_2;
                 }
@@ -295,8 +371,8 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
                 // Clear this first
                 cell.setForeground(null);
                 
-                StatusCache sc = cache.get(repo);
-                if(sc != null) {
+                StatusCache sc = cache.get(repo.getLocalRepositoryFolder());
+                if(sc != null && sc.branchInfo != null) {
                     // Repository name and current branch
                     cell.setText(repo.getName() + " [" + sc.branchInfo.getShortName() + "]"); //$NON-NLS-1$ //$NON-NLS-2$
                     
@@ -307,6 +383,11 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
                 }
                 else {
                     cell.setText(repo.getName());
+                    
+                    // Placeholder until the status is known
+                    if(sc == null) {
+                        cell.setForeground(ColorFactory.get(128, 128, 128));
+                    }
                 }
 
                 // Image
@@ -12,6 +12,7 @@ import org.archicontribs.modelrepository.actions.CommitModelAction;
 import org.archicontribs.modelrepository.actions.DeleteModelAction;
 import org.archicontribs.modelrepository.actions.IGraficoModelAction;
 import org.archicontribs.modelrepository.actions.OpenModelAction;
+import org.archicontribs.modelrepository.actions.PreviewIncomingChangesAction;
 import org.archicontribs.modelrepository.actions.PropertiesAction;
 import org.archicontribs.modelrepository.actions.PushModelAction;
 import org.archicontribs.modelrepository.actions.RefreshModelAction;
@@ -87,6 +88,7 @@ implements IContextProvider, ISelectionListener, ITabbedPropertySheetPageContrib
     
     private IGraficoModelAction fActionOpen;
     private IGraficoModelAction fActionRefresh;
+    private IGraficoModelAction fActionPreviewIncomingChanges;
     private IGraficoModelAction fActionDelete;
     
     private IGraficoModelAction fActionAbortChanges;
@@ -166,6 +168,9 @@ implements IContextProvider, ISelectionListener, ITabbedPropertySheetPageContrib
         fActionRefresh = new RefreshModelAction(getViewSite().getWorkbenchWindow());
         fActionRefresh.setEnabled(false);
         
+        fActionPreviewIncomingChanges = new PreviewIncomingChangesAction(getViewSite().getWorkbenchWindow());
+        fActionPreviewIncomingChanges.setEnabled(false);
+        
         fActionDelete = new DeleteModelAction(getViewSite().getWorkbenchWindow());
         fActionDelete.setEnabled(false);
         
@@ -285,6 +290,7 @@ implements IContextProvider, ISelectionListener, ITabbedPropertySheetPageContrib
             IArchiRepository repo = (IArchiRepository)obj;
             
             fActionRefresh.setRepository(repo);
+            fActionPreviewIncomingChanges.setRepository(repo);
             fActionOpen.setRepository(repo);
             fActionDelete.setRepository(repo);
             fActionAbortChanges.setRepository(repo);
@@ -323,6 +329,7 @@ implements IContextProvider, ISelectionListener, ITabbedPropertySheetPageContrib
         else {
             manager.add(fActionOpen);
             manager.add(fActionRefresh);
+            manager.add(fActionPreviewIncomingChanges);
             manager.add(new Separator());
             manager.add(fActionShowInHistory);
             manager.add(fActionShowInBranches);